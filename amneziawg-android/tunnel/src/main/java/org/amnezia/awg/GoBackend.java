@@ -1,15 +1,49 @@
 package org.amnezia.awg;
 
+import java.nio.ByteBuffer;
+
 import androidx.annotation.Nullable;
 
 public class GoBackend {
+    @Nullable
+    public static native String awgCaptureProfile(String kind, int seconds);
+
+    public static native int awgGenerateKeyPair(byte[] privateKey, byte[] publicKey);
+
+    public static native int awgGenerateKeyPairs(ByteBuffer keyPairs, int count);
+
+    public static native int awgGeneratePublicKey(byte[] publicKey, byte[] privateKey);
+
+    public static native int awgGeneratePublicKeys(ByteBuffer publicKeys, ByteBuffer privateKeys, int count);
+
     @Nullable
     public static native String awgGetConfig(int handle);
 
+    @Nullable
+    public static native String awgGetPeerStats(int handle);
+
     public static native int awgGetSocketV4(int handle);
 
     public static native int awgGetSocketV6(int handle);
 
+    public static native int awgProbeMtu(int handle, String source, String target, int linkMtu);
+
+    @Nullable
+    public static native String awgRuntimeStats(int handle);
+
+    public static native int awgSetBindOptions(int batchSize, boolean txOffload, boolean rxOffload);
+
+    public static native int awgSetJunkBudget(long bytesPerMinute);
+
+    public static native void awgSetProfileDirectory(String directory);
+
+    public static native int awgSetRuntimeProfile(int preallocatedBuffersPerPool, int queueOutboundSize,
+                                                  int queueInboundSize, int queueHandshakeSize,
+                                                  int gcPercent, long memoryLimit);
+
+    @Nullable
+    public static native String awgTakeEvents();
+
     public static native void awgTurnOff(int handle);
 
     public static native int awgTurnOn(String ifName, int tunFd, String settings);
@@ -45,6 +45,7 @@ public final class AwgQuickBackend implements Backend {
     private final RootShell rootShell;
     private final Map<Tunnel, Config> runningConfigs = new HashMap<>();
     private final ToolsInstaller toolsInstaller;
+    @Nullable private volatile TunnelEventLog eventLog;
     private boolean multipleTunnels;
 
     public AwgQuickBackend(final Context context, final RootShell rootShell, final ToolsInstaller toolsInstaller) {
@@ -78,6 +79,13 @@ public final class AwgQuickBackend implements Backend {
         return getRunningTunnelNames().contains(tunnel.getName()) ? State.UP : State.DOWN;
     }
 
+    @Nullable
+    @Override
+    public RuntimeStats getRuntimeStats() {
+        // The kernel module has no userspace runtime to report on.
+        return null;
+    }
+
     @Override
     public Statistics getStatistics(final Tunnel tunnel) {
         final Statistics stats = new Statistics();
@@ -112,6 +120,17 @@ public final class AwgQuickBackend implements Backend {
         multipleTunnels = on;
     }
 
+    /**
+     * Record state changes and failed {@code awg-quick} runs in a persistent
+     * {@link TunnelEventLog}. The kernel module does not report handshakes to userspace, so unlike
+     * with {@link GoBackend} there are no handshake events.
+     *
+     * @param eventLog The log to write to, or null to stop recording events
+     */
+    public void setEventLog(@Nullable final TunnelEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
     @Override
     public State setState(final Tunnel tunnel, State state, @Nullable final Config config) throws Exception {
         final State originalState = getState(tunnel);
@@ -182,8 +201,12 @@ public final class AwgQuickBackend implements Backend {
         final int result = rootShell.run(null, command);
         // noinspection ResultOfMethodCallIgnored
         tempFile.delete();
-        if (result != 0)
+        final TunnelEventLog log = eventLog;
+        if (result != 0) {
+            if (log != null)
+                log.log(TunnelEventLog.Event.Type.ERROR, tunnel.getName(), "awg-quick " + state + " failed with " + result);
             throw new BackendException(Reason.AWG_QUICK_CONFIG_ERROR_CODE, result);
+        }
 
         if (state == State.UP)
             runningConfigs.put(tunnel, config);
@@ -191,5 +214,7 @@ public final class AwgQuickBackend implements Backend {
             runningConfigs.remove(tunnel);
 
         tunnel.onStateChange(state);
+        if (log != null)
+            log.log(TunnelEventLog.Event.Type.STATE_CHANGE, tunnel.getName(), "Tunnel " + state);
     }
 }
@@ -18,6 +18,11 @@ import androidx.annotation.Nullable;
 
 @NonNullForAll
 public interface Backend {
+    /**
+     * A running tunnels token that never matches, see {@link #getRunningTunnelsToken()}.
+     */
+    long UNCACHEABLE_TOKEN = -1;
+
     /**
      * Enumerate names of currently-running tunnels.
      *
@@ -25,6 +30,19 @@ public interface Backend {
      */
     Set<String> getRunningTunnelNames();
 
+    /**
+     * Get a token that changes whenever the set of running tunnels may have changed. A result of
+     * {@link #getRunningTunnelNames()} may be reused for as long as the token read before it was
+     * retrieved stays the same. Backends whose tunnels may change without them knowing return
+     * {@link #UNCACHEABLE_TOKEN}, and their results must not be reused.
+     *
+     * @return A token identifying the current set of running tunnels, or
+     * {@link #UNCACHEABLE_TOKEN}.
+     */
+    default long getRunningTunnelsToken() {
+        return UNCACHEABLE_TOKEN;
+    }
+
     /**
      * Get the state of a tunnel.
      *
@@ -44,6 +62,16 @@ public interface Backend {
      */
     Statistics getStatistics(Tunnel tunnel) throws Exception;
 
+    /**
+     * Get diagnostics about the memory and goroutine usage of the userspace implementation,
+     * including packet pool usage of the running tunnel, if any.
+     *
+     * @return The runtime statistics, or null if the backend has no userspace runtime.
+     * @throws Exception Exception raised when retrieving the statistics.
+     */
+    @Nullable
+    RuntimeStats getRuntimeStats() throws Exception;
+
     /**
      * Determine version of underlying backend.
      *
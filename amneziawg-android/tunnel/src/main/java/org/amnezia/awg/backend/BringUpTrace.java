@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.util.Locale;
+
+/**
+ * Timings of the stages of a single tunnel bring-up by {@link GoBackend}.
+ * <p>
+ * Some stages overlap: the {@link GoBackend.VpnService} is started before endpoints are resolved
+ * and the library is loaded in the background, so {@link Stage#SERVICE_START} and
+ * {@link Stage#LIBRARY_LOAD} only measure the time spent waiting for them once nothing else was
+ * left to do. Stages that did not run have a duration of zero.
+ */
+@NonNullForAll
+public final class BringUpTrace {
+    private final long[] durations = new long[Stage.values().length];
+    private final long startNanos;
+    private final String tunnelName;
+    private long totalNanos;
+
+    BringUpTrace(final String tunnelName) {
+        this.tunnelName = tunnelName;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns the time spent in a stage.
+     *
+     * @param stage the stage to query
+     * @return the duration of the stage in nanoseconds
+     */
+    public long getDurationNanos(final Stage stage) {
+        return durations[stage.ordinal()];
+    }
+
+    /**
+     * Returns the time from the start of the bring-up until it finished or failed.
+     *
+     * @return the total duration in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public String getTunnelName() {
+        return tunnelName;
+    }
+
+    /**
+     * Records the end of a stage.
+     *
+     * @param stage      the stage that ended
+     * @param stageStart the value of {@link System#nanoTime()} when the stage began
+     * @return the current value of {@link System#nanoTime()}, to be used as the start of the next
+     * stage
+     */
+    long record(final Stage stage, final long stageStart) {
+        final long now = System.nanoTime();
+        durations[stage.ordinal()] += now - stageStart;
+        return now;
+    }
+
+    void finish() {
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(tunnelName).append(':');
+        for (final Stage stage : Stage.values())
+            sb.append(' ').append(stage.name().toLowerCase(Locale.ENGLISH)).append('=')
+                    .append(formatMillis(durations[stage.ordinal()]));
+        return sb.append(" total=").append(formatMillis(totalNanos)).toString();
+    }
+
+    private static String formatMillis(final long nanos) {
+        return String.format(Locale.ENGLISH, "%.1fms", nanos / 1e6);
+    }
+
+    /**
+     * The stages of bringing a tunnel up, in the order in which they complete.
+     */
+    public enum Stage {
+        PREPARE,
+        DNS_RESOLUTION,
+        CONFIG_SERIALIZATION,
+        SERVICE_START,
+        BUILDER,
+        LIBRARY_LOAD,
+        ESTABLISH,
+        ACTIVATION
+    }
+}
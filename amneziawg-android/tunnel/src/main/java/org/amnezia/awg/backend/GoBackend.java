@@ -21,16 +21,25 @@ import org.amnezia.awg.config.InetNetwork;
 import org.amnezia.awg.config.Peer;
 import org.amnezia.awg.crypto.Key;
 import org.amnezia.awg.crypto.KeyFormatException;
+import org.amnezia.awg.crypto.X25519Engine;
 import org.amnezia.awg.util.NonNullForAll;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import androidx.annotation.Nullable;
 import androidx.collection.ArraySet;
@@ -40,26 +49,92 @@ import static org.amnezia.awg.GoBackend.*;
 /**
  * Implementation of {@link Backend} that uses the amneziawg-go userspace implementation to provide
  * AmneziaWG tunnels.
+ * <p>
+ * The running tunnel is described by an immutable {@link TunnelState} that is only ever replaced
+ * atomically, so readers never observe a half-updated tunnel, handle and configuration. Calls to
+ * {@link #setState} are queued and executed one at a time; redundant requests for the same tunnel
+ * that are still waiting in the queue are coalesced into a single state change.
  */
 @NonNullForAll
 public final class GoBackend implements Backend {
     private static final int DNS_RESOLUTION_RETRIES = 10;
     private static final String TAG = "AmneziaWG/GoBackend";
-    @Nullable private static AlwaysOnCallback alwaysOnCallback;
-    private static GhettoCompletableFuture<VpnService> vpnService = new GhettoCompletableFuture<>();
+    private static final long VPN_SERVICE_START_TIMEOUT_SECONDS = 2;
+    @Nullable private static volatile AlwaysOnCallback alwaysOnCallback;
+    private static volatile CompletableFuture<VpnService> vpnService = new CompletableFuture<>();
+    private final ArrayDeque<StateCommand> pendingCommands = new ArrayDeque<>();
     private final Context context;
-    @Nullable private Config currentConfig;
-    @Nullable private Tunnel currentTunnel;
-    private int currentTunnelHandle = -1;
+    private final CompletableFuture<Void> libraryLoad = new CompletableFuture<>();
+    private final AtomicBoolean libraryLoadStarted = new AtomicBoolean();
+    private final AtomicBoolean eventPumpStarted = new AtomicBoolean();
+    private final AtomicLong runningTunnelsToken = new AtomicLong();
+    private final AtomicReference<TunnelState> tunnelState = new AtomicReference<>(TunnelState.DOWN);
+    @Nullable private Thread drainingThread;
+    @Nullable private volatile TunnelEventLog eventLog;
+    @Nullable private volatile Predicate<String> installedPackages;
+    @Nullable private volatile BringUpTrace lastBringUpTrace;
+    private volatile GoBindOptions bindOptions = GoBindOptions.DEFAULT;
+    private volatile GoRuntimeProfile runtimeProfile;
+    private volatile long junkBudget;
+    private volatile boolean mtuDiscovery;
+    @Nullable private MtuCache mtuCache;
 
     /**
-     * Public constructor for GoBackend.
+     * Public constructor for GoBackend, using the {@link GoRuntimeProfile} preset suited to the
+     * device. The native library is only loaded once something needs it, or {@link #loadLibrary()}
+     * is called, and then in the background; methods that need it wait for the load to finish.
      *
      * @param context An Android {@link Context}
      */
     public GoBackend(final Context context) {
-        SharedLibraryLoader.loadSharedLibrary(context, "wg-go");
+        this(context, GoRuntimeProfile.forDevice(context));
+    }
+
+    /**
+     * Public constructor for GoBackend with an explicit Go runtime memory profile.
+     *
+     * @param context        An Android {@link Context}
+     * @param runtimeProfile The {@link GoRuntimeProfile} applied when tunnels are brought up
+     */
+    public GoBackend(final Context context, final GoRuntimeProfile runtimeProfile) {
         this.context = context;
+        this.runtimeProfile = runtimeProfile;
+    }
+
+    /**
+     * Start loading the native library in the background, unless that has already started.
+     * Bringing a tunnel up starts it as well, so this only serves to get the load out of the way
+     * before it is needed.
+     *
+     * @return A future completed once the library is loaded
+     */
+    public CompletableFuture<Void> loadLibrary() {
+        if (libraryLoadStarted.compareAndSet(false, true)) {
+            final Thread loader = new Thread(() -> {
+                try {
+                    SharedLibraryLoader.loadSharedLibrary(context, "wg-go");
+                    awgSetProfileDirectory(getProfileDirectory(context).getAbsolutePath());
+                    X25519Engine.onLibraryLoaded();
+                    libraryLoad.complete(null);
+                } catch (final Throwable e) {
+                    libraryLoad.completeExceptionally(e);
+                }
+            }, "GoBackend library");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return libraryLoad;
+    }
+
+    /**
+     * Returns the directory in the app's cache into which {@link #captureProfile} and the
+     * profiling operations of the UAPI socket write their output.
+     *
+     * @param context An Android {@link Context}
+     * @return the profile directory, which may not exist yet
+     */
+    public static File getProfileDirectory(final Context context) {
+        return new File(context.getCacheDir(), "profiles");
     }
 
     /**
@@ -74,6 +149,172 @@ public final class GoBackend implements Backend {
 
 
 
+    /**
+     * Get the stage timings of the most recent attempt to bring a tunnel up.
+     *
+     * @return the {@link BringUpTrace} of the last bring-up, or null if none has been attempted
+     */
+    @Nullable
+    public BringUpTrace getLastBringUpTrace() {
+        return lastBringUpTrace;
+    }
+
+    public GoBindOptions getBindOptions() {
+        return bindOptions;
+    }
+
+    /**
+     * Change the batching and UDP offload settings of the socket bind. They take effect the next
+     * time a tunnel is brought up.
+     *
+     * @param bindOptions The new {@link GoBindOptions}
+     */
+    public void setBindOptions(final GoBindOptions bindOptions) {
+        this.bindOptions = bindOptions;
+    }
+
+    public long getJunkBudget() {
+        return junkBudget;
+    }
+
+    /**
+     * Limit the junk packets that precede handshake initiations to a number of bytes per minute,
+     * so that aggressive obfuscation settings cannot use unbounded mobile data. Initiations that
+     * would exceed the budget are sent without junk packets, which
+     * {@link Statistics.OverheadStats#junkPacketsSkipped()} counts. Header junk is part of the
+     * message format and is never withheld. The setting applies the next time a tunnel is brought
+     * up.
+     *
+     * @param junkBudget The maximum junk bytes per minute, or zero for no limit
+     */
+    public void setJunkBudget(final long junkBudget) {
+        if (junkBudget < 0)
+            throw new IllegalArgumentException("Junk budget must not be negative");
+        this.junkBudget = junkBudget;
+    }
+
+    public boolean isMtuDiscoveryEnabled() {
+        return mtuDiscovery;
+    }
+
+    /**
+     * Opt in to discovering the tunnel MTU of configs that leave it unset. Once a tunnel is up,
+     * amneziawg-go searches for the largest echo request to its first DNS server that makes the
+     * round trip, carrying the same transport header junk and padding as data packets, and the
+     * size found is remembered for the underlying network. Later bring-ups on that network use it
+     * instead of the default of 1280. {@link RuntimeStats#getMtuProbe()} reports the outcome.
+     *
+     * @param mtuDiscovery Whether to discover the MTU
+     */
+    public void setMtuDiscoveryEnabled(final boolean mtuDiscovery) {
+        this.mtuDiscovery = mtuDiscovery;
+    }
+
+    @Nullable
+    public TunnelEventLog getEventLog() {
+        return eventLog;
+    }
+
+    /**
+     * Record state changes and failed bring-ups, along with the handshake and error messages of
+     * amneziawg-go, in a persistent {@link TunnelEventLog}. Messages of amneziawg-go are handed
+     * over by a background thread that waits for them in the native library.
+     *
+     * @param eventLog The log to write to, or null to stop recording events
+     */
+    public void setEventLog(@Nullable final TunnelEventLog eventLog) {
+        this.eventLog = eventLog;
+        if (eventLog != null && eventPumpStarted.compareAndSet(false, true)) {
+            final Thread pump = new Thread(this::pumpNativeEvents, "GoBackend events");
+            pump.setDaemon(true);
+            pump.start();
+        }
+    }
+
+    /**
+     * Check included and excluded applications against a record of installed packages before
+     * bringing a tunnel up, so that a package that was uninstalled since the tunnel was configured
+     * does not fail the bring-up. Excluded packages that are not installed are skipped. Included
+     * packages that are not installed are skipped as long as one of them is, since skipping all
+     * of them would route every application through the tunnel.
+     *
+     * @param installedPackages Tells whether a package is installed, or null to pass every
+     *                          package on to the system unchecked
+     */
+    public void setInstalledPackages(@Nullable final Predicate<String> installedPackages) {
+        this.installedPackages = installedPackages;
+    }
+
+    private void logEvent(final TunnelEventLog.Event.Type type, final String tunnelName, final String message) {
+        final TunnelEventLog log = eventLog;
+        if (log != null)
+            log.log(type, tunnelName, message);
+    }
+
+    /**
+     * Moves the events queued by amneziawg-go to the event log, for as long as the process lives.
+     */
+    private void pumpNativeEvents() {
+        // Wait for the library without loading it, as there are no events before a tunnel is up.
+        try {
+            libraryLoad.join();
+        } catch (final CompletionException e) {
+            return;
+        }
+        while (true) {
+            final String events = awgTakeEvents();
+            final TunnelEventLog log = eventLog;
+            if (events == null || log == null)
+                continue;
+            for (final String line : events.split("\n")) {
+                // Each line is the time in milliseconds, the kind, the tunnel name and the message.
+                final String[] fields = line.split(" ", 4);
+                if (fields.length != 4 || fields[1].length() != 1)
+                    continue;
+                final TunnelEventLog.Event.Type type;
+                switch (fields[1].charAt(0)) {
+                    case 'E':
+                        type = TunnelEventLog.Event.Type.ERROR;
+                        break;
+                    case 'H':
+                        type = TunnelEventLog.Event.Type.HANDSHAKE;
+                        break;
+                    default:
+                        continue;
+                }
+                try {
+                    log.log(new TunnelEventLog.Event(Long.parseLong(fields[0]), type, fields[2], fields[3]));
+                } catch (final NumberFormatException ignored) {
+                }
+            }
+        }
+    }
+
+    public GoRuntimeProfile getRuntimeProfile() {
+        return runtimeProfile;
+    }
+
+    /**
+     * Change the Go runtime memory profile. Pool and queue sizes take effect the next time a tunnel
+     * is brought up.
+     *
+     * @param runtimeProfile The new {@link GoRuntimeProfile}
+     */
+    public void setRuntimeProfile(final GoRuntimeProfile runtimeProfile) {
+        this.runtimeProfile = runtimeProfile;
+    }
+
+    /**
+     * The token changes whenever a tunnel is brought up or down by this backend or stopped by the
+     * system, which are the only ways the running tunnel can change.
+     *
+     * @return A token identifying the current set of running tunnels.
+     */
+    @Override
+    public long getRunningTunnelsToken() {
+        return runningTunnelsToken.get();
+    }
+
     /**
      * Method to get the names of running tunnels.
      *
@@ -81,9 +322,10 @@ public final class GoBackend implements Backend {
      */
     @Override
     public Set<String> getRunningTunnelNames() {
-        if (currentTunnel != null) {
+        final Tunnel tunnel = tunnelState.get().tunnel;
+        if (tunnel != null) {
             final Set<String> runningTunnels = new ArraySet<>();
-            runningTunnels.add(currentTunnel.getName());
+            runningTunnels.add(tunnel.getName());
             return runningTunnels;
         }
         return Collections.emptySet();
@@ -97,7 +339,39 @@ public final class GoBackend implements Backend {
      */
     @Override
     public State getState(final Tunnel tunnel) {
-        return currentTunnel == tunnel ? State.UP : State.DOWN;
+        return tunnelState.get().tunnel == tunnel ? State.UP : State.DOWN;
+    }
+
+    /**
+     * Capture a profile of the Go runtime into {@link #getProfileDirectory}. CPU profiles and
+     * execution traces block for the given duration, and only one of them can run at a time.
+     *
+     * @param kind    The kind of profile to capture
+     * @param seconds The duration of a CPU profile or trace, between 1 and 120 seconds; ignored
+     *                for heap profiles
+     * @return the file holding the profile
+     * @throws IOException if the profile could not be captured
+     */
+    public File captureProfile(final ProfileKind kind, final int seconds) throws IOException {
+        awaitLibrary();
+        final String path = awgCaptureProfile(kind.operation, seconds);
+        if (path == null)
+            throw new IOException("Unable to capture " + kind.operation);
+        return new File(path);
+    }
+
+    /**
+     * Get memory, GC and goroutine statistics of the Go runtime, together with the packet pool
+     * usage of the running tunnel.
+     *
+     * @return {@link RuntimeStats} of the Go runtime, or null if they could not be retrieved.
+     */
+    @Nullable
+    @Override
+    public RuntimeStats getRuntimeStats() {
+        awaitLibrary();
+        final String stats = awgRuntimeStats(tunnelState.get().handle);
+        return stats == null ? null : RuntimeStats.parse(stats);
     }
 
     /**
@@ -109,11 +383,16 @@ public final class GoBackend implements Backend {
     @Override
     public Statistics getStatistics(final Tunnel tunnel) {
         final Statistics stats = new Statistics();
-        if (tunnel != currentTunnel || currentTunnelHandle == -1)
+        final TunnelState current = tunnelState.get();
+        if (tunnel != current.tunnel || current.handle == -1)
             return stats;
-        final String config = awgGetConfig(currentTunnelHandle);
+        awaitLibrary();
+        final String config = awgGetConfig(current.handle);
         if (config == null)
             return stats;
+        final String peerStats = awgGetPeerStats(current.handle);
+        final Map<Key, Statistics.PeerCounters> counters = peerStats == null
+                ? Collections.emptyMap() : Statistics.parsePeerCounters(peerStats);
         Key key = null;
         long rx = 0;
         long tx = 0;
@@ -121,7 +400,7 @@ public final class GoBackend implements Backend {
         for (final String line : config.split("\\n")) {
             if (line.startsWith("public_key=")) {
                 if (key != null)
-                    stats.add(key, rx, tx, latestHandshakeMSec);
+                    stats.add(key, rx, tx, latestHandshakeMSec, counters.get(key));
                 rx = 0;
                 tx = 0;
                 latestHandshakeMSec = 0;
@@ -165,7 +444,7 @@ public final class GoBackend implements Backend {
             }
         }
         if (key != null)
-            stats.add(key, rx, tx, latestHandshakeMSec);
+            stats.add(key, rx, tx, latestHandshakeMSec, counters.get(key));
         return stats;
     }
 
@@ -176,11 +455,16 @@ public final class GoBackend implements Backend {
      */
     @Override
     public String getVersion() {
+        awaitLibrary();
         return awgVersion();
     }
 
     /**
      * Change the state of a given {@link Tunnel}, optionally applying a given {@link Config}.
+     * <p>
+     * State changes are serialized. If an earlier request for the same tunnel is still waiting to
+     * run, the two are merged: two toggles cancel out, and an explicit {@code UP} or {@code DOWN}
+     * replaces whatever was pending. Every merged caller receives the same result.
      *
      * @param tunnel The tunnel to control the state of.
      * @param state  The new state for this tunnel. Must be {@code UP}, {@code DOWN}, or
@@ -190,31 +474,113 @@ public final class GoBackend implements Backend {
      * @throws Exception Exception raised while changing tunnel state.
      */
     @Override
-    public State setState(final Tunnel tunnel, State state, @Nullable final Config config) throws Exception {
-        final State originalState = getState(tunnel);
+    public State setState(final Tunnel tunnel, final State state, @Nullable final Config config) throws Exception {
+        synchronized (pendingCommands) {
+            // A tunnel callback calling back into us must not wait behind its own command.
+            if (drainingThread == Thread.currentThread())
+                return applyState(tunnel, state, config);
+        }
+        final StateCommand command = enqueueCommand(tunnel, state, config);
+        drainCommands();
+        try {
+            return command.result.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private StateCommand enqueueCommand(final Tunnel tunnel, final State state, @Nullable final Config config) {
+        synchronized (pendingCommands) {
+            final StateCommand last = pendingCommands.peekLast();
+            if (last != null && last.tunnel == tunnel && (state == State.DOWN || last.config == config)) {
+                last.merge(state, config);
+                return last;
+            }
+            final StateCommand command = new StateCommand(tunnel, state, config);
+            pendingCommands.addLast(command);
+            return command;
+        }
+    }
+
+    private void drainCommands() {
+        for (;;) {
+            final StateCommand command;
+            synchronized (pendingCommands) {
+                if (drainingThread != null)
+                    return;
+                command = pendingCommands.pollFirst();
+                if (command == null)
+                    return;
+                drainingThread = Thread.currentThread();
+            }
+            try {
+                command.result.complete(command.state == null ? getState(command.tunnel) :
+                        applyState(command.tunnel, command.state, command.config));
+            } catch (final Exception e) {
+                command.result.completeExceptionally(e);
+            } finally {
+                synchronized (pendingCommands) {
+                    drainingThread = null;
+                }
+            }
+        }
+    }
+
+    private State applyState(final Tunnel tunnel, State state, @Nullable final Config config) throws Exception {
+        final TunnelState original = tunnelState.get();
+        final State originalState = original.tunnel == tunnel ? State.UP : State.DOWN;
 
         if (state == State.TOGGLE)
             state = originalState == State.UP ? State.DOWN : State.UP;
-        if (state == originalState && tunnel == currentTunnel && config == currentConfig)
+        if (state == originalState && tunnel == original.tunnel && config == original.config)
             return originalState;
         if (state == State.UP) {
-            final Config originalConfig = currentConfig;
-            final Tunnel originalTunnel = currentTunnel;
-            if (currentTunnel != null)
-                setStateInternal(currentTunnel, null, State.DOWN);
+            if (original.tunnel != null)
+                setStateInternal(original.tunnel, null, State.DOWN);
             try {
                 setStateInternal(tunnel, config, state);
             } catch (final Exception e) {
-                if (originalTunnel != null)
-                    setStateInternal(originalTunnel, originalConfig, State.UP);
+                if (original.tunnel != null)
+                    setStateInternal(original.tunnel, original.config, State.UP);
                 throw e;
             }
-        } else if (state == State.DOWN && tunnel == currentTunnel) {
+        } else if (state == State.DOWN && tunnel == original.tunnel) {
             setStateInternal(tunnel, null, State.DOWN);
         }
         return getState(tunnel);
     }
 
+    private void awaitLibrary() {
+        try {
+            loadLibrary().join();
+        } catch (final CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    private void applyRuntimeProfile() {
+        final GoRuntimeProfile profile = runtimeProfile;
+        Log.d(TAG, "Applying " + profile);
+        final int ret = awgSetRuntimeProfile(profile.getPreallocatedBuffersPerPool(),
+                profile.getQueueOutboundSize(), profile.getQueueInboundSize(),
+                profile.getQueueHandshakeSize(), profile.getGcPercent(), profile.getMemoryLimit());
+        if (ret != 0)
+            Log.w(TAG, "Unable to apply Go runtime profile: " + ret);
+        if (awgSetJunkBudget(junkBudget) != 0)
+            Log.w(TAG, "Unable to apply junk budget of " + junkBudget + " bytes per minute");
+        final GoBindOptions options = bindOptions;
+        if (awgSetBindOptions(options.getBatchSize(), options.isTxOffloadEnabled(), options.isRxOffloadEnabled()) != 0)
+            Log.w(TAG, "Unable to apply " + options);
+    }
+
     private void setStateInternal(final Tunnel tunnel, @Nullable final Config config, final State state)
             throws Exception {
         Log.i(TAG, "Bringing tunnel " + tunnel.getName() + ' ' + state);
@@ -222,124 +588,238 @@ public final class GoBackend implements Backend {
         if (state == State.UP) {
             if (config == null)
                 throw new BackendException(Reason.TUNNEL_MISSING_CONFIG);
-
-            if (VpnService.prepare(context) != null)
-                throw new BackendException(Reason.VPN_NOT_AUTHORIZED);
-
-            final VpnService service;
-            if (!vpnService.isDone()) {
-                Log.d(TAG, "Requesting to start VpnService");
-                context.startService(new Intent(context, VpnService.class));
-            }
-
+            final BringUpTrace trace = new BringUpTrace(tunnel.getName());
             try {
-                service = vpnService.get(2, TimeUnit.SECONDS);
-            } catch (final TimeoutException e) {
-                final Exception be = new BackendException(Reason.UNABLE_TO_START_VPN);
-                be.initCause(e);
-                throw be;
+                bringUp(tunnel, config, trace);
+            } catch (final Exception e) {
+                logEvent(TunnelEventLog.Event.Type.ERROR, tunnel.getName(), "Unable to bring tunnel up: " + e);
+                throw e;
+            } finally {
+                trace.finish();
+                lastBringUpTrace = trace;
+                Log.d(TAG, "Bring-up timings " + trace);
             }
-            service.setOwner(this);
-
-            if (currentTunnelHandle != -1) {
-                Log.w(TAG, "Tunnel already up");
+        } else {
+            final TunnelState previous = tunnelState.get();
+            if (previous.handle == -1) {
+                Log.w(TAG, "Tunnel already down");
                 return;
             }
-
-
-            dnsRetry: for (int i = 0; i < DNS_RESOLUTION_RETRIES; ++i) {
-                // Pre-resolve IPs so they're cached when building the userspace string
-                for (final Peer peer : config.getPeers()) {
-                    final InetEndpoint ep = peer.getEndpoint().orElse(null);
-                    if (ep == null)
-                        continue;
-                    if (ep.getResolved().orElse(null) == null) {
-                        if (i < DNS_RESOLUTION_RETRIES - 1) {
-                            Log.w(TAG, "DNS host \"" + ep.getHost() + "\" failed to resolve; trying again");
-                            Thread.sleep(1000);
-                            continue dnsRetry;
-                        } else
-                            throw new BackendException(Reason.DNS_RESOLUTION_FAILURE, ep.getHost());
-                    }
-                }
-                break;
+            if (!tunnelState.compareAndSet(previous, TunnelState.DOWN)) {
+                // VpnService.onDestroy() got there first and has already notified the tunnel.
+                return;
             }
+            runningTunnelsToken.incrementAndGet();
+            awgTurnOff(previous.handle);
+            final VpnService service = vpnService.getNow(null);
+            if (service != null)
+                service.stopSelf();
+        }
 
-            // Build config
-            final String goConfig = config.toAwgUserspaceString();
-
-            // Create the vpn tunnel with android API
-            final VpnService.Builder builder = service.getBuilder();
-            builder.setSession(tunnel.getName());
-
-            for (final String excludedApplication : config.getInterface().getExcludedApplications())
-                builder.addDisallowedApplication(excludedApplication);
-
-            for (final String includedApplication : config.getInterface().getIncludedApplications())
-                builder.addAllowedApplication(includedApplication);
-
-            for (final InetNetwork addr : config.getInterface().getAddresses())
-                builder.addAddress(addr.getAddress(), addr.getMask());
+        tunnel.onStateChange(state);
+        logEvent(TunnelEventLog.Event.Type.STATE_CHANGE, tunnel.getName(), "Tunnel " + state);
+    }
 
-            for (final InetAddress addr : config.getInterface().getDnsServers())
-                builder.addDnsServer(addr.getHostAddress());
+    /**
+     * Brings a tunnel up. The VpnService is started first, and endpoint resolution and config
+     * serialization proceed while it is being created and while the library finishes loading.
+     * The pipeline only joins on them right before the TUN interface is established.
+     */
+    private void bringUp(final Tunnel tunnel, final Config config, final BringUpTrace trace) throws Exception {
+        long stageStart = System.nanoTime();
+        if (VpnService.prepare(context) != null)
+            throw new BackendException(Reason.VPN_NOT_AUTHORIZED);
+        stageStart = trace.record(BringUpTrace.Stage.PREPARE, stageStart);
+        loadLibrary();
+
+        final TunnelState previous = tunnelState.get();
+        if (previous.handle != -1) {
+            Log.w(TAG, "Tunnel already up");
+            return;
+        }
 
-            for (final String dnsSearchDomain : config.getInterface().getDnsSearchDomains())
-                builder.addSearchDomain(dnsSearchDomain);
+        final CompletableFuture<VpnService> serviceFuture = vpnService;
+        if (!serviceFuture.isDone()) {
+            Log.d(TAG, "Requesting to start VpnService");
+            context.startService(new Intent(context, VpnService.class));
+        }
 
-            boolean sawDefaultRoute = false;
+        dnsRetry: for (int i = 0; i < DNS_RESOLUTION_RETRIES; ++i) {
+            // Pre-resolve IPs so they're cached when building the userspace string
             for (final Peer peer : config.getPeers()) {
-                for (final InetNetwork addr : peer.getAllowedIps()) {
-                    if (addr.getMask() == 0)
-                        sawDefaultRoute = true;
-                    builder.addRoute(addr.getAddress(), addr.getMask());
+                final InetEndpoint ep = peer.getEndpoint().orElse(null);
+                if (ep == null)
+                    continue;
+                if (ep.getResolved().orElse(null) == null) {
+                    if (i < DNS_RESOLUTION_RETRIES - 1) {
+                        Log.w(TAG, "DNS host \"" + ep.getHost() + "\" failed to resolve; trying again");
+                        Thread.sleep(1000);
+                        continue dnsRetry;
+                    } else
+                        throw new BackendException(Reason.DNS_RESOLUTION_FAILURE, ep.getHost());
                 }
             }
+            break;
+        }
+        stageStart = trace.record(BringUpTrace.Stage.DNS_RESOLUTION, stageStart);
+
+        // Build config
+        final String goConfig = config.toAwgUserspaceString();
+        stageStart = trace.record(BringUpTrace.Stage.CONFIG_SERIALIZATION, stageStart);
+
+        final VpnService service;
+        try {
+            service = serviceFuture.get(VPN_SERVICE_START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (final TimeoutException e) {
+            final Exception be = new BackendException(Reason.UNABLE_TO_START_VPN);
+            be.initCause(e);
+            throw be;
+        }
+        service.setOwner(this);
+        stageStart = trace.record(BringUpTrace.Stage.SERVICE_START, stageStart);
+
+        // Create the vpn tunnel with android API
+        final VpnService.Builder builder = service.getBuilder();
+        builder.setSession(tunnel.getName());
+
+        final Predicate<String> installed = installedPackages;
+        for (final String excludedApplication : config.getInterface().getExcludedApplications()) {
+            if (installed != null && !installed.test(excludedApplication)) {
+                Log.w(TAG, "Skipping excluded application " + excludedApplication + " that is not installed");
+                continue;
+            }
+            builder.addDisallowedApplication(excludedApplication);
+        }
 
-            // "Kill-switch" semantics
-            if (!(sawDefaultRoute && config.getPeers().size() == 1)) {
-                builder.allowFamily(OsConstants.AF_INET);
-                builder.allowFamily(OsConstants.AF_INET6);
+        final Set<String> includedApplications = config.getInterface().getIncludedApplications();
+        final boolean anyIncludedInstalled = installed == null || includedApplications.stream().anyMatch(installed);
+        for (final String includedApplication : includedApplications) {
+            if (anyIncludedInstalled && installed != null && !installed.test(includedApplication)) {
+                Log.w(TAG, "Skipping included application " + includedApplication + " that is not installed");
+                continue;
             }
+            builder.addAllowedApplication(includedApplication);
+        }
+
+        for (final InetNetwork addr : config.getInterface().getAddresses())
+            builder.addAddress(addr.getAddress(), addr.getMask());
 
-            builder.setMtu(config.getInterface().getMtu().orElse(1280));
+        for (final InetAddress addr : config.getInterface().getDnsServers())
+            builder.addDnsServer(addr.getHostAddress());
 
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
-                builder.setMetered(false);
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
-                service.setUnderlyingNetworks(null);
+        for (final String dnsSearchDomain : config.getInterface().getDnsSearchDomains())
+            builder.addSearchDomain(dnsSearchDomain);
 
-            builder.setBlocking(true);
-            try (final ParcelFileDescriptor tun = builder.establish()) {
-                if (tun == null)
-                    throw new BackendException(Reason.TUN_CREATION_ERROR);
-                Log.d(TAG, "Go backend " + awgVersion());
-                currentTunnelHandle = awgTurnOn(tunnel.getName(), tun.detachFd(), goConfig);
+        boolean sawDefaultRoute = false;
+        for (final Peer peer : config.getPeers()) {
+            for (final InetNetwork addr : peer.getAllowedIps()) {
+                if (addr.getMask() == 0)
+                    sawDefaultRoute = true;
+                builder.addRoute(addr.getAddress(), addr.getMask());
             }
-            if (currentTunnelHandle < 0)
-                throw new BackendException(Reason.GO_ACTIVATION_ERROR_CODE, currentTunnelHandle);
+        }
 
-            currentTunnel = tunnel;
-            currentConfig = config;
+        // "Kill-switch" semantics
+        if (!(sawDefaultRoute && config.getPeers().size() == 1)) {
+            builder.allowFamily(OsConstants.AF_INET);
+            builder.allowFamily(OsConstants.AF_INET6);
+        }
 
-            service.protect(awgGetSocketV4(currentTunnelHandle));
-            service.protect(awgGetSocketV6(currentTunnelHandle));
-        } else {
-            if (currentTunnelHandle == -1) {
-                Log.w(TAG, "Tunnel already down");
-                return;
-            }
-            int handleToClose = currentTunnelHandle;
-            currentTunnel = null;
-            currentTunnelHandle = -1;
-            currentConfig = null;
-            awgTurnOff(handleToClose);
-            try {
-                vpnService.get(0, TimeUnit.NANOSECONDS).stopSelf();
-            } catch (final TimeoutException ignored) { }
+        final int configuredMtu = config.getInterface().getMtu().orElse(0);
+        final MtuCache.UnderlyingNetwork network = mtuDiscovery && configuredMtu == 0
+                ? MtuCache.currentNetwork(context) : null;
+        final String path = MtuCache.tunnelPath(config);
+        int mtu = configuredMtu > 0 ? configuredMtu : 1280;
+        if (network != null) {
+            final int discoveredMtu = getMtuCache().get(network, path);
+            if (discoveredMtu > 0)
+                mtu = discoveredMtu;
         }
+        builder.setMtu(mtu);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            builder.setMetered(false);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            service.setUnderlyingNetworks(null);
+
+        builder.setBlocking(true);
+        stageStart = trace.record(BringUpTrace.Stage.BUILDER, stageStart);
+
+        awaitLibrary();
+        stageStart = trace.record(BringUpTrace.Stage.LIBRARY_LOAD, stageStart);
+
+        final int handle;
+        try (final ParcelFileDescriptor tun = builder.establish()) {
+            if (tun == null)
+                throw new BackendException(Reason.TUN_CREATION_ERROR);
+            stageStart = trace.record(BringUpTrace.Stage.ESTABLISH, stageStart);
+            Log.d(TAG, "Go backend " + awgVersion());
+            applyRuntimeProfile();
+            handle = awgTurnOn(tunnel.getName(), tun.detachFd(), goConfig);
+        }
+        if (handle < 0)
+            throw new BackendException(Reason.GO_ACTIVATION_ERROR_CODE, handle);
+
+        final TunnelState current = new TunnelState(tunnel, config, handle);
+        if (!tunnelState.compareAndSet(previous, current)) {
+            // The service was destroyed while the tunnel was being brought up.
+            awgTurnOff(handle);
+            throw new BackendException(Reason.UNABLE_TO_START_VPN);
+        }
+        runningTunnelsToken.incrementAndGet();
 
-        tunnel.onStateChange(state);
+        service.protect(awgGetSocketV4(handle));
+        service.protect(awgGetSocketV6(handle));
+        trace.record(BringUpTrace.Stage.ACTIVATION, stageStart);
+
+        if (network != null)
+            startMtuProbe(current, config, network, path);
+    }
+
+    private MtuCache getMtuCache() {
+        if (mtuCache == null)
+            mtuCache = new MtuCache(context);
+        return mtuCache;
+    }
+
+    /**
+     * Probes the MTU of a freshly brought up tunnel in the background and remembers it for the
+     * next bring-up on the same network, leaving the running tunnel as it is. Handles are reused,
+     * so the probe is abandoned unless the very same {@link TunnelState} is still current.
+     */
+    private void startMtuProbe(final TunnelState state, final Config config,
+                               final MtuCache.UnderlyingNetwork network, final String path) {
+        InetAddress target = null;
+        InetAddress source = null;
+        search: for (final InetAddress dnsServer : config.getInterface().getDnsServers()) {
+            for (final InetNetwork address : config.getInterface().getAddresses()) {
+                if (address.getAddress().getClass() == dnsServer.getClass()) {
+                    target = dnsServer;
+                    source = address.getAddress();
+                    break search;
+                }
+            }
+        }
+        if (target == null) {
+            Log.i(TAG, "Skipping MTU discovery without a DNS server to probe");
+            return;
+        }
+        final String sourceAddress = source.getHostAddress();
+        final String targetAddress = target.getHostAddress();
+        final MtuCache cache = getMtuCache();
+        final Thread probe = new Thread(() -> {
+            if (tunnelState.get() != state)
+                return;
+            final int mtu = awgProbeMtu(state.handle, sourceAddress, targetAddress, network.linkMtu());
+            if (mtu <= 0) {
+                Log.w(TAG, "MTU discovery on " + network.key() + " failed");
+                return;
+            }
+            Log.i(TAG, "Discovered MTU " + mtu + " on " + network.key() + " for the next bring-up");
+            cache.put(network, path, mtu);
+        }, "GoBackend MTU probe");
+        probe.setDaemon(true);
+        probe.start();
     }
 
     /**
@@ -350,32 +830,67 @@ public final class GoBackend implements Backend {
         void alwaysOnTriggered();
     }
 
-    // TODO: When we finally drop API 21 and move to API 24, delete this and replace with the ordinary CompletableFuture.
-    private static final class GhettoCompletableFuture<V> {
-        private final LinkedBlockingQueue<V> completion = new LinkedBlockingQueue<>(1);
-        private final FutureTask<V> result = new FutureTask<>(completion::peek);
+    /**
+     * Kinds of Go runtime profiles that {@link #captureProfile} can capture, named after the
+     * matching UAPI operations.
+     */
+    public enum ProfileKind {
+        CPU("pprof_cpu"),
+        HEAP("pprof_heap"),
+        TRACE("trace");
 
-        public boolean complete(final V value) {
-            final boolean offered = completion.offer(value);
-            if (offered)
-                result.run();
-            return offered;
-        }
+        private final String operation;
 
-        public V get() throws ExecutionException, InterruptedException {
-            return result.get();
+        ProfileKind(final String operation) {
+            this.operation = operation;
         }
+    }
 
-        public V get(final long timeout, final TimeUnit unit) throws ExecutionException, InterruptedException, TimeoutException {
-            return result.get(timeout, unit);
+    /**
+     * Immutable snapshot of the running tunnel. Transitions replace the whole snapshot with
+     * compare-and-set, and the down state is always the {@link #DOWN} instance.
+     */
+    private static final class TunnelState {
+        static final TunnelState DOWN = new TunnelState(null, null, -1);
+
+        @Nullable final Config config;
+        final int handle;
+        @Nullable final Tunnel tunnel;
+
+        TunnelState(@Nullable final Tunnel tunnel, @Nullable final Config config, final int handle) {
+            this.tunnel = tunnel;
+            this.config = config;
+            this.handle = handle;
         }
+    }
 
-        public boolean isDone() {
-            return !completion.isEmpty();
+    /**
+     * Pending call to {@link #setState}. A null {@link #state} means that merged requests cancelled
+     * each other out and only the current state should be reported. Guarded by the command queue.
+     */
+    static final class StateCommand {
+        final CompletableFuture<State> result = new CompletableFuture<>();
+        final Tunnel tunnel;
+        @Nullable Config config;
+        @Nullable State state;
+
+        StateCommand(final Tunnel tunnel, final State state, @Nullable final Config config) {
+            this.tunnel = tunnel;
+            this.state = state;
+            this.config = config;
         }
 
-        public GhettoCompletableFuture<V> newIncompleteFuture() {
-            return new GhettoCompletableFuture<>();
+        void merge(final State next, @Nullable final Config nextConfig) {
+            if (next != State.TOGGLE)
+                state = next;
+            else if (state == null)
+                state = State.TOGGLE;
+            else if (state == State.TOGGLE)
+                state = null;
+            else
+                state = state == State.UP ? State.DOWN : State.UP;
+            if (nextConfig != null)
+                config = nextConfig;
         }
     }
 
@@ -383,7 +898,7 @@ public final class GoBackend implements Backend {
      * {@link android.net.VpnService} implementation for {@link GoBackend}
      */
     public static class VpnService extends android.net.VpnService {
-        @Nullable private GoBackend owner;
+        @Nullable private volatile GoBackend owner;
 
         public Builder getBuilder() {
             return new Builder();
@@ -397,18 +912,19 @@ public final class GoBackend implements Backend {
 
         @Override
         public void onDestroy() {
+            final GoBackend owner = this.owner;
             if (owner != null) {
-                final Tunnel tunnel = owner.currentTunnel;
-                if (tunnel != null) {
-                    if (owner.currentTunnelHandle != -1)
-                        awgTurnOff(owner.currentTunnelHandle);
-                    owner.currentTunnel = null;
-                    owner.currentTunnelHandle = -1;
-                    owner.currentConfig = null;
-                    tunnel.onStateChange(State.DOWN);
+                final TunnelState previous = owner.tunnelState.getAndSet(TunnelState.DOWN);
+                owner.runningTunnelsToken.incrementAndGet();
+                if (previous.tunnel != null) {
+                    if (previous.handle != -1)
+                        awgTurnOff(previous.handle);
+                    previous.tunnel.onStateChange(State.DOWN);
+                    owner.logEvent(TunnelEventLog.Event.Type.STATE_CHANGE, previous.tunnel.getName(),
+                            "Tunnel " + State.DOWN + " by the system");
                 }
             }
-            vpnService = vpnService.newIncompleteFuture();
+            vpnService = new CompletableFuture<>();
             super.onDestroy();
         }
 
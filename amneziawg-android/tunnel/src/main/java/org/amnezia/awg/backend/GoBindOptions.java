@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+/**
+ * Batching and UDP offload settings of the socket bind used by {@link GoBackend}, applied when a
+ * tunnel is brought up.
+ * <p>
+ * With UDP GSO, consecutive packets to the same peer are handed to the kernel as a single
+ * datagram that it segments, and with UDP GRO the kernel coalesces received datagrams. Either is
+ * only used when the kernel supports it; {@link RuntimeStats.BindStats} reports whether it is
+ * active and how much batching actually happens.
+ */
+@NonNullForAll
+public final class GoBindOptions {
+    /**
+     * Default batch size with both offloads enabled where supported.
+     */
+    public static final GoBindOptions DEFAULT = new Builder().build();
+
+    private final int batchSize;
+    private final boolean rxOffload;
+    private final boolean txOffload;
+
+    private GoBindOptions(final Builder builder) {
+        batchSize = builder.batchSize;
+        rxOffload = builder.rxOffload;
+        txOffload = builder.txOffload;
+    }
+
+    /**
+     * @return the maximum number of packets per send or receive batch, or zero for the default
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return whether UDP GRO may be enabled on the sockets
+     */
+    public boolean isRxOffloadEnabled() {
+        return rxOffload;
+    }
+
+    /**
+     * @return whether outgoing packets may be coalesced with UDP GSO
+     */
+    public boolean isTxOffloadEnabled() {
+        return txOffload;
+    }
+
+    @Override
+    public String toString() {
+        return "GoBindOptions{batchSize=" + batchSize + ", txOffload=" + txOffload + ", rxOffload=" + rxOffload + '}';
+    }
+
+    public static final class Builder {
+        // Zero selects the amneziawg-go default, which is also the maximum.
+        private int batchSize;
+        // Both offloads default to enabled.
+        private boolean rxOffload = true;
+        private boolean txOffload = true;
+
+        public GoBindOptions build() {
+            return new GoBindOptions(this);
+        }
+
+        public Builder setBatchSize(final int batchSize) {
+            if (batchSize < 0)
+                throw new IllegalArgumentException("Batch size must not be negative");
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        public Builder setRxOffloadEnabled(final boolean rxOffload) {
+            this.rxOffload = rxOffload;
+            return this;
+        }
+
+        public Builder setTxOffloadEnabled(final boolean txOffload) {
+            this.txOffload = txOffload;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+/**
+ * Memory profile of the Go runtime hosting amneziawg-go, applied by {@link GoBackend} before each
+ * device is created.
+ * <p>
+ * Every packet buffer pool may hold up to {@link #getPreallocatedBuffersPerPool()} message
+ * buffers of 64 KiB each, so the pool cap dominates peak memory use. A value of zero for any size
+ * keeps the amneziawg-go default, a zero GC percent keeps the Go default of 100, and a zero memory
+ * limit leaves the heap unbounded.
+ */
+@NonNullForAll
+public final class GoRuntimeProfile {
+    private static final long MIB = 1024 * 1024;
+
+    /**
+     * Small pools and queues, an aggressive GC target and a tight soft memory limit, for devices
+     * where the VPN process would otherwise be killed under memory pressure.
+     */
+    public static final GoRuntimeProfile LOW_MEMORY = new Builder()
+            .setPreallocatedBuffersPerPool(512)
+            .setQueueSizes(256, 256, 256)
+            .setGcPercent(50)
+            .setMemoryLimit(64 * MIB)
+            .build();
+
+    /**
+     * A quarter of the default buffer pools with a moderate memory limit.
+     */
+    public static final GoRuntimeProfile BALANCED = new Builder()
+            .setPreallocatedBuffersPerPool(1024)
+            .setQueueSizes(512, 512, 512)
+            .setGcPercent(100)
+            .setMemoryLimit(192 * MIB)
+            .build();
+
+    /**
+     * The amneziawg-go defaults for Android, with a relaxed GC target and no memory limit.
+     */
+    public static final GoRuntimeProfile THROUGHPUT = new Builder()
+            .setPreallocatedBuffersPerPool(4096)
+            .setQueueSizes(1024, 1024, 1024)
+            .setGcPercent(200)
+            .build();
+
+    private static final long BALANCED_MAX_TOTAL_MEMORY = 4096 * MIB;
+
+    private final int gcPercent;
+    private final long memoryLimit;
+    private final int preallocatedBuffersPerPool;
+    private final int queueHandshakeSize;
+    private final int queueInboundSize;
+    private final int queueOutboundSize;
+
+    private GoRuntimeProfile(final Builder builder) {
+        gcPercent = builder.gcPercent;
+        memoryLimit = builder.memoryLimit;
+        preallocatedBuffersPerPool = builder.preallocatedBuffersPerPool;
+        queueHandshakeSize = builder.queueHandshakeSize;
+        queueInboundSize = builder.queueInboundSize;
+        queueOutboundSize = builder.queueOutboundSize;
+    }
+
+    /**
+     * Picks a preset for the current device: {@link #LOW_MEMORY} on low-RAM devices,
+     * {@link #BALANCED} on devices with up to 4 GiB of memory and {@link #THROUGHPUT} otherwise.
+     *
+     * @param context An Android {@link Context}
+     * @return the preset suited to the device
+     */
+    public static GoRuntimeProfile forDevice(final Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null)
+            return BALANCED;
+        if (activityManager.isLowRamDevice())
+            return LOW_MEMORY;
+        final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.totalMem <= BALANCED_MAX_TOTAL_MEMORY ? BALANCED : THROUGHPUT;
+    }
+
+    public int getGcPercent() {
+        return gcPercent;
+    }
+
+    /**
+     * @return the soft memory limit of the Go runtime in bytes, or zero for no limit
+     */
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    public int getPreallocatedBuffersPerPool() {
+        return preallocatedBuffersPerPool;
+    }
+
+    public int getQueueHandshakeSize() {
+        return queueHandshakeSize;
+    }
+
+    public int getQueueInboundSize() {
+        return queueInboundSize;
+    }
+
+    public int getQueueOutboundSize() {
+        return queueOutboundSize;
+    }
+
+    @Override
+    public String toString() {
+        return "GoRuntimeProfile{pool=" + preallocatedBuffersPerPool + ", outbound=" + queueOutboundSize
+                + ", inbound=" + queueInboundSize + ", handshake=" + queueHandshakeSize
+                + ", gcPercent=" + gcPercent + ", memoryLimit=" + memoryLimit + '}';
+    }
+
+    public static final class Builder {
+        // Zero selects the Go default for every field.
+        private int gcPercent;
+        private long memoryLimit;
+        private int preallocatedBuffersPerPool;
+        private int queueHandshakeSize;
+        private int queueInboundSize;
+        private int queueOutboundSize;
+
+        private static int requireNonNegative(final int value, final String name) {
+            if (value < 0)
+                throw new IllegalArgumentException(name + " must not be negative");
+            return value;
+        }
+
+        public GoRuntimeProfile build() {
+            return new GoRuntimeProfile(this);
+        }
+
+        public Builder setGcPercent(final int gcPercent) {
+            this.gcPercent = requireNonNegative(gcPercent, "GC percent");
+            return this;
+        }
+
+        public Builder setMemoryLimit(final long memoryLimit) {
+            if (memoryLimit < 0)
+                throw new IllegalArgumentException("Memory limit must not be negative");
+            this.memoryLimit = memoryLimit;
+            return this;
+        }
+
+        public Builder setPreallocatedBuffersPerPool(final int preallocatedBuffersPerPool) {
+            this.preallocatedBuffersPerPool = requireNonNegative(preallocatedBuffersPerPool, "Pool size");
+            return this;
+        }
+
+        public Builder setQueueSizes(final int outbound, final int inbound, final int handshake) {
+            queueOutboundSize = requireNonNegative(outbound, "Outbound queue size");
+            queueInboundSize = requireNonNegative(inbound, "Inbound queue size");
+            queueHandshakeSize = requireNonNegative(handshake, "Handshake queue size");
+            return this;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.RouteInfo;
+import android.os.Build;
+
+import org.amnezia.awg.config.Config;
+import org.amnezia.awg.config.Peer;
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Tunnel MTUs found by {@link GoBackend}'s MTU discovery, remembered per underlying network and
+ * tunnel path so that they apply the next time the same tunnel is brought up on the same network.
+ */
+@NonNullForAll
+final class MtuCache {
+    private static final int DEFAULT_LINK_MTU = 1500;
+    private static final String PREFERENCES = "mtu_cache";
+
+    private final SharedPreferences preferences;
+
+    MtuCache(final Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Identify the network that currently carries traffic, which must be read before a VPN takes
+     * over as the default network.
+     *
+     * @param context An Android {@link Context}
+     * @return the current network, or null if there is none or it is a VPN
+     */
+    @Nullable
+    static UnderlyingNetwork currentNetwork(final Context context) {
+        final ConnectivityManager connectivity = context.getSystemService(ConnectivityManager.class);
+        final Network network = connectivity == null ? null : connectivity.getActiveNetwork();
+        if (network == null)
+            return null;
+        final NetworkCapabilities capabilities = connectivity.getNetworkCapabilities(network);
+        final LinkProperties properties = connectivity.getLinkProperties(network);
+        if (capabilities == null || properties == null
+                || capabilities.hasTransport(NetworkCapabilities.TRANSPORT_VPN))
+            return null;
+
+        // Default gateways tell apart networks behind the same interface without the location
+        // permission that Wi-Fi SSIDs require.
+        final StringBuilder key = new StringBuilder();
+        if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI))
+            key.append("wifi");
+        else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR))
+            key.append("cellular");
+        else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET))
+            key.append("ethernet");
+        else
+            key.append("other");
+        key.append('/').append(properties.getInterfaceName());
+        for (final RouteInfo route : properties.getRoutes()) {
+            if (route.isDefaultRoute() && route.hasGateway())
+                key.append('/').append(route.getGateway().getHostAddress());
+        }
+        int linkMtu = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)
+            linkMtu = properties.getMtu();
+        return new UnderlyingNetwork(key.toString(), linkMtu > 0 ? linkMtu : DEFAULT_LINK_MTU);
+    }
+
+    /**
+     * Identify the path that a tunnel's packets take beyond the underlying network. The MTU found
+     * for one server says nothing about another, and the transport header junk of AmneziaWG
+     * shrinks the room left for the inner packet.
+     *
+     * @param config The configuration of the tunnel
+     * @return a digest of the peer endpoints and the settings that change the packet overhead
+     */
+    static String tunnelPath(final Config config) {
+        final Set<String> endpoints = new TreeSet<>();
+        for (final Peer peer : config.getPeers())
+            peer.getEndpoint().ifPresent(endpoint -> endpoints.add(endpoint.toString()));
+        final String path = String.join(",", endpoints)
+                + "/s4=" + config.getInterface().getTransportPacketJunkSize().orElse(0);
+        return Integer.toHexString(path.hashCode());
+    }
+
+    /**
+     * @param network The network the tunnel runs over
+     * @param path    The {@link #tunnelPath} of the tunnel
+     * @return the MTU discovered for that tunnel on that network, or zero if none is known
+     */
+    int get(final UnderlyingNetwork network, final String path) {
+        return preferences.getInt(network.key() + '#' + path, 0);
+    }
+
+    void put(final UnderlyingNetwork network, final String path, final int mtu) {
+        preferences.edit().putInt(network.key() + '#' + path, mtu).apply();
+    }
+
+    /**
+     * The physical network below a tunnel.
+     *
+     * @param key     Identifies the network across connections
+     * @param linkMtu The MTU of the network's interface
+     */
+    record UnderlyingNetwork(String key, int linkMtu) { }
+}
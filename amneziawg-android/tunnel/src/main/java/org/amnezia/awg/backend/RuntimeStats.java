@@ -0,0 +1,308 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Snapshot of the memory and goroutine usage of the Go runtime behind a {@link GoBackend}, along
+ * with the packet pool and socket batching statistics of a running tunnel.
+ */
+@NonNullForAll
+public final class RuntimeStats {
+    public record PoolStats(long outstanding, long max) {
+        /**
+         * Check if the pool is bounded and all of its elements are in use, in which case
+         * amneziawg-go blocks until one is returned.
+         *
+         * @return boolean indicating if the pool is exhausted.
+         */
+        public boolean isExhausted() {
+            return max > 0 && outstanding >= max;
+        }
+    }
+
+    public record BindStats(long batchSize, long sendCalls, long sendMessages, long sendSegments,
+                            long recvBatches, long recvMessages, long recvSegments,
+                            boolean txOffload, boolean rxOffload) {
+        /**
+         * @return the average number of packets coalesced into each datagram sent, which exceeds
+         * one only when UDP GSO is active
+         */
+        public double segmentsPerSentMessage() {
+            return sendMessages == 0 ? 0 : (double) sendSegments / sendMessages;
+        }
+
+        /**
+         * @return the average number of datagrams returned by each {@code recvmmsg} call
+         */
+        public double messagesPerReceiveBatch() {
+            return recvBatches == 0 ? 0 : (double) recvMessages / recvBatches;
+        }
+    }
+
+    public record TunQueueStats(long reads, long packets, long bytes) {
+        /**
+         * @return the average number of packets returned by each read of this queue
+         */
+        public double packetsPerRead() {
+            return reads == 0 ? 0 : (double) packets / reads;
+        }
+    }
+
+    /**
+     * Outcome of the MTU discovery of the running tunnel.
+     *
+     * @param mtu            The largest inner packet size that made a round trip
+     * @param probes         The number of echo requests sent
+     * @param durationMillis The time the discovery took, including the wait for a handshake
+     */
+    public record MtuProbeStats(long mtu, long probes, long durationMillis) { }
+
+    private static final List<String> BIND_KEYS = Arrays.asList("bind_batch_size", "bind_send_calls",
+            "bind_send_messages", "bind_send_segments", "bind_recv_batches", "bind_recv_messages",
+            "bind_recv_segments");
+    private static final int MAX_TUN_QUEUES = 1024;
+    private static final List<String> TUN_QUEUE_FIELDS = Arrays.asList("reads", "packets", "bytes");
+
+    @Nullable private BindStats bindStats;
+    private long gcCount;
+    private long gcPauseTotalNanos;
+    private long goroutines;
+    private long heapInUse;
+    private long heapReleased;
+    @Nullable private MtuProbeStats mtuProbe;
+    @Nullable private PoolStats inboundPool;
+    @Nullable private PoolStats messagePool;
+    @Nullable private PoolStats outboundPool;
+    private List<TunQueueStats> tunQueues = Collections.emptyList();
+
+    private RuntimeStats() {
+    }
+
+    /**
+     * Parse the output of {@code awgRuntimeStats}, a list of {@code key=value} lines. Unknown keys
+     * and malformed values are ignored.
+     *
+     * @param text the text to parse
+     * @return the parsed statistics
+     */
+    static RuntimeStats parse(final String text) {
+        final RuntimeStats stats = new RuntimeStats();
+        long inboundOutstanding = -1, inboundMax = -1;
+        long outboundOutstanding = -1, outboundMax = -1;
+        long messageOutstanding = -1, messageMax = -1;
+        final List<long[]> queues = new ArrayList<>();
+        final long[] bind = new long[7];
+        final long[] probe = new long[3];
+        boolean sawProbe = false;
+        boolean sawBind = false, bindTxOffload = false, bindRxOffload = false;
+        for (final String line : text.split("\\n")) {
+            final int equals = line.indexOf('=');
+            if (equals < 0)
+                continue;
+            final String key = line.substring(0, equals);
+            if ("bind_tx_offload".equals(key)) {
+                bindTxOffload = Boolean.parseBoolean(line.substring(equals + 1));
+                continue;
+            } else if ("bind_rx_offload".equals(key)) {
+                bindRxOffload = Boolean.parseBoolean(line.substring(equals + 1));
+                continue;
+            }
+            final long value;
+            try {
+                value = Long.parseLong(line.substring(equals + 1));
+            } catch (final NumberFormatException ignored) {
+                continue;
+            }
+            switch (key) {
+                case "heap_inuse":
+                    stats.heapInUse = value;
+                    break;
+                case "heap_released":
+                    stats.heapReleased = value;
+                    break;
+                case "gc_count":
+                    stats.gcCount = value;
+                    break;
+                case "gc_pause_total_ns":
+                    stats.gcPauseTotalNanos = value;
+                    break;
+                case "goroutines":
+                    stats.goroutines = value;
+                    break;
+                case "inbound_pool_outstanding":
+                    inboundOutstanding = value;
+                    break;
+                case "inbound_pool_max":
+                    inboundMax = value;
+                    break;
+                case "outbound_pool_outstanding":
+                    outboundOutstanding = value;
+                    break;
+                case "outbound_pool_max":
+                    outboundMax = value;
+                    break;
+                case "message_pool_outstanding":
+                    messageOutstanding = value;
+                    break;
+                case "message_pool_max":
+                    messageMax = value;
+                    break;
+                case "mtu_probe_mtu":
+                    probe[0] = value;
+                    sawProbe = true;
+                    break;
+                case "mtu_probe_probes":
+                    probe[1] = value;
+                    break;
+                case "mtu_probe_ms":
+                    probe[2] = value;
+                    break;
+                default:
+                    final int index = BIND_KEYS.indexOf(key);
+                    if (index >= 0) {
+                        bind[index] = value;
+                        sawBind = true;
+                    } else if (key.startsWith("tun_queue_")) {
+                        parseTunQueueStat(queues, key.substring("tun_queue_".length()), value);
+                    }
+                    break;
+            }
+        }
+        if (sawBind)
+            stats.bindStats = new BindStats(bind[0], bind[1], bind[2], bind[3], bind[4], bind[5], bind[6],
+                    bindTxOffload, bindRxOffload);
+        if (sawProbe)
+            stats.mtuProbe = new MtuProbeStats(probe[0], probe[1], probe[2]);
+        if (!queues.isEmpty()) {
+            final List<TunQueueStats> tunQueues = new ArrayList<>(queues.size());
+            for (final long[] queue : queues)
+                tunQueues.add(new TunQueueStats(queue[0], queue[1], queue[2]));
+            stats.tunQueues = Collections.unmodifiableList(tunQueues);
+        }
+        if (inboundOutstanding >= 0 && inboundMax >= 0)
+            stats.inboundPool = new PoolStats(inboundOutstanding, inboundMax);
+        if (outboundOutstanding >= 0 && outboundMax >= 0)
+            stats.outboundPool = new PoolStats(outboundOutstanding, outboundMax);
+        if (messageOutstanding >= 0 && messageMax >= 0)
+            stats.messagePool = new PoolStats(messageOutstanding, messageMax);
+        return stats;
+    }
+
+    private static void parseTunQueueStat(final List<long[]> queues, final String key, final long value) {
+        final int underscore = key.indexOf('_');
+        if (underscore < 0)
+            return;
+        final int queue;
+        try {
+            queue = Integer.parseInt(key.substring(0, underscore));
+        } catch (final NumberFormatException ignored) {
+            return;
+        }
+        final int field = TUN_QUEUE_FIELDS.indexOf(key.substring(underscore + 1));
+        // Queues are numbered densely from zero, so a large index can only be garbage.
+        if (field < 0 || queue < 0 || queue > MAX_TUN_QUEUES)
+            return;
+        while (queues.size() <= queue)
+            queues.add(new long[TUN_QUEUE_FIELDS.size()]);
+        queues.get(queue)[field] = value;
+    }
+
+    /**
+     * @return batching counters of the running tunnel's socket bind, or null if no tunnel was
+     * running
+     */
+    @Nullable
+    public BindStats getBindStats() {
+        return bindStats;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcPauseTotalNanos() {
+        return gcPauseTotalNanos;
+    }
+
+    public long getGoroutines() {
+        return goroutines;
+    }
+
+    /**
+     * @return bytes in in-use heap spans
+     */
+    public long getHeapInUse() {
+        return heapInUse;
+    }
+
+    /**
+     * @return bytes of heap memory returned to the operating system
+     */
+    public long getHeapReleased() {
+        return heapReleased;
+    }
+
+    /**
+     * @return usage of the inbound element pool, or null if no tunnel was running
+     */
+    @Nullable
+    public PoolStats getInboundPool() {
+        return inboundPool;
+    }
+
+    /**
+     * @return usage of the message buffer pool, or null if no tunnel was running
+     */
+    @Nullable
+    public PoolStats getMessagePool() {
+        return messagePool;
+    }
+
+    /**
+     * @return the outcome of MTU discovery, or null if no tunnel was running or discovery has not
+     * succeeded on it
+     */
+    @Nullable
+    public MtuProbeStats getMtuProbe() {
+        return mtuProbe;
+    }
+
+    /**
+     * @return usage of the outbound element pool, or null if no tunnel was running
+     */
+    @Nullable
+    public PoolStats getOutboundPool() {
+        return outboundPool;
+    }
+
+    /**
+     * @return read counters of each TUN queue of the running tunnel, which is only the VpnService
+     * file descriptor for now, or an empty list if no tunnel was running
+     */
+    public List<TunQueueStats> getTunQueues() {
+        return tunQueues;
+    }
+
+    /**
+     * Check if any packet pool of the running tunnel is exhausted.
+     *
+     * @return boolean indicating if packet processing is stalled waiting for pool elements.
+     */
+    public boolean isAnyPoolExhausted() {
+        return (inboundPool != null && inboundPool.isExhausted())
+                || (outboundPool != null && outboundPool.isExhausted())
+                || (messagePool != null && messagePool.isExhausted());
+    }
+}
@@ -8,8 +8,10 @@ package org.amnezia.awg.backend;
 import android.os.SystemClock;
 
 import org.amnezia.awg.crypto.Key;
+import org.amnezia.awg.crypto.KeyFormatException;
 import org.amnezia.awg.util.NonNullForAll;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,7 +22,69 @@ import androidx.annotation.Nullable;
  */
 @NonNullForAll
 public class Statistics {
-    public record PeerStats(long rxBytes, long txBytes, long latestHandshakeEpochMillis) { }
+    public record PeerStats(long rxBytes, long txBytes, long latestHandshakeEpochMillis,
+                            @Nullable PeerCounters counters) {
+        public PeerStats(final long rxBytes, final long txBytes, final long latestHandshakeEpochMillis) {
+            this(rxBytes, txBytes, latestHandshakeEpochMillis, null);
+        }
+    }
+
+    /**
+     * Summary of a latency histogram. Percentiles are upper bounds within 1/8 of the true value.
+     */
+    public record LatencyStats(long count, long meanMicros, long p50Micros, long p90Micros,
+                               long p99Micros, long maxMicros) { }
+
+    /**
+     * Bytes spent on obfuscation: junk packets and header junk, which only authenticated messages
+     * are credited with on receipt, and the padding of transport packets.
+     */
+    public record OverheadStats(long junkPacketsSkipped, long junkBytesSent, long junkBytesReceived,
+                                long paddingBytesSent, long paddingBytesReceived) {
+        public long sentBytes() {
+            return junkBytesSent + paddingBytesSent;
+        }
+
+        public long receivedBytes() {
+            return junkBytesReceived + paddingBytesReceived;
+        }
+    }
+
+    /**
+     * Packet and error counters of a peer, which only the {@link GoBackend} provides, along with
+     * the obfuscation overhead, the round-trip time of handshakes and the time from the first
+     * handshake initiation until data arrives on the new session.
+     */
+    public record PeerCounters(long txPackets, long rxPackets, long handshakeAttempts,
+                               long handshakeFailures, long decryptFailures, long replayDrops,
+                               long junkPacketsSent, long queueDrops, OverheadStats overhead,
+                               LatencyStats handshakeRtt, LatencyStats timeToFirstData) {
+        /**
+         * @return the number of received or queued packets that were dropped
+         */
+        public long droppedPackets() {
+            return decryptFailures + replayDrops + queueDrops;
+        }
+    }
+
+    // Positions of the values of awgGetPeerStats while a peer is parsed.
+    private static final int TX_PACKETS = 0;
+    private static final int RX_PACKETS = 1;
+    private static final int HANDSHAKE_ATTEMPTS = 2;
+    private static final int HANDSHAKE_FAILURES = 3;
+    private static final int DECRYPT_FAILURES = 4;
+    private static final int REPLAY_DROPS = 5;
+    private static final int JUNK_PACKETS_SENT = 6;
+    private static final int QUEUE_DROPS = 7;
+    private static final int HANDSHAKE_RTT = 8;
+    private static final int FIRST_DATA = HANDSHAKE_RTT + 6;
+    private static final int JUNK_PACKETS_SKIPPED = FIRST_DATA + 6;
+    private static final int JUNK_BYTES_SENT = JUNK_PACKETS_SKIPPED + 1;
+    private static final int JUNK_BYTES_RECEIVED = JUNK_PACKETS_SKIPPED + 2;
+    private static final int PADDING_BYTES_SENT = JUNK_PACKETS_SKIPPED + 3;
+    private static final int PADDING_BYTES_RECEIVED = JUNK_PACKETS_SKIPPED + 4;
+    private static final int COUNTER_COUNT = PADDING_BYTES_RECEIVED + 1;
+
     private final Map<Key, PeerStats> stats = new HashMap<>();
     private long lastTouched = SystemClock.elapsedRealtime();
 
@@ -39,10 +103,116 @@ public class Statistics {
      *                          referenced by the provided {@link Key}. The value is in epoch milliseconds.
      */
     void add(final Key key, final long rxBytes, final long txBytes, final long latestHandshake) {
-        stats.put(key, new PeerStats(rxBytes, txBytes, latestHandshake));
+        add(key, rxBytes, txBytes, latestHandshake, null);
+    }
+
+    /**
+     * Add a peer with its current stats and packet counters to the internal map.
+     *
+     * @param key             An AmneziaWG public key bound to a particular peer
+     * @param rxBytes         The received traffic in bytes
+     * @param txBytes         The transmitted traffic in bytes
+     * @param latestHandshake The timestamp of the latest handshake in epoch milliseconds
+     * @param counters        The packet and error counters of the peer, if known
+     */
+    void add(final Key key, final long rxBytes, final long txBytes, final long latestHandshake,
+             @Nullable final PeerCounters counters) {
+        stats.put(key, new PeerStats(rxBytes, txBytes, latestHandshake, counters));
         lastTouched = SystemClock.elapsedRealtime();
     }
 
+    /**
+     * Parse the output of {@code awgGetPeerStats}, a list of {@code key=value} lines in which
+     * each peer starts with its {@code public_key}. Unknown keys and malformed values are ignored.
+     *
+     * @param text the text to parse
+     * @return the counters of each peer
+     */
+    static Map<Key, PeerCounters> parsePeerCounters(final String text) {
+        final Map<Key, PeerCounters> counters = new HashMap<>();
+        Key key = null;
+        final long[] values = new long[COUNTER_COUNT];
+        for (final String line : text.split("\\n")) {
+            final int equals = line.indexOf('=');
+            if (equals < 0)
+                continue;
+            final String name = line.substring(0, equals);
+            final String value = line.substring(equals + 1);
+            if ("public_key".equals(name)) {
+                if (key != null)
+                    counters.put(key, toCounters(values));
+                Arrays.fill(values, 0);
+                try {
+                    key = Key.fromHex(value);
+                } catch (final KeyFormatException ignored) {
+                    key = null;
+                }
+                continue;
+            }
+            final int index = counterIndex(name);
+            if (key == null || index < 0)
+                continue;
+            try {
+                values[index] = Long.parseLong(value);
+            } catch (final NumberFormatException ignored) {
+                values[index] = 0;
+            }
+        }
+        if (key != null)
+            counters.put(key, toCounters(values));
+        return counters;
+    }
+
+    private static int counterIndex(final String name) {
+        switch (name) {
+            case "tx_packets": return TX_PACKETS;
+            case "rx_packets": return RX_PACKETS;
+            case "handshake_attempts": return HANDSHAKE_ATTEMPTS;
+            case "handshake_failures": return HANDSHAKE_FAILURES;
+            case "decrypt_failures": return DECRYPT_FAILURES;
+            case "replay_drops": return REPLAY_DROPS;
+            case "junk_packets_sent": return JUNK_PACKETS_SENT;
+            case "queue_drops": return QUEUE_DROPS;
+            case "junk_packets_skipped": return JUNK_PACKETS_SKIPPED;
+            case "junk_bytes_sent": return JUNK_BYTES_SENT;
+            case "junk_bytes_received": return JUNK_BYTES_RECEIVED;
+            case "padding_bytes_sent": return PADDING_BYTES_SENT;
+            case "padding_bytes_received": return PADDING_BYTES_RECEIVED;
+        }
+        if (name.startsWith("handshake_rtt_"))
+            return latencyIndex(HANDSHAKE_RTT, name.substring("handshake_rtt_".length()));
+        if (name.startsWith("first_data_"))
+            return latencyIndex(FIRST_DATA, name.substring("first_data_".length()));
+        return -1;
+    }
+
+    private static int latencyIndex(final int base, final String field) {
+        switch (field) {
+            case "count": return base;
+            case "mean_us": return base + 1;
+            case "p50_us": return base + 2;
+            case "p90_us": return base + 3;
+            case "p99_us": return base + 4;
+            case "max_us": return base + 5;
+            default: return -1;
+        }
+    }
+
+    private static PeerCounters toCounters(final long[] values) {
+        return new PeerCounters(values[TX_PACKETS], values[RX_PACKETS], values[HANDSHAKE_ATTEMPTS],
+                values[HANDSHAKE_FAILURES], values[DECRYPT_FAILURES], values[REPLAY_DROPS],
+                values[JUNK_PACKETS_SENT], values[QUEUE_DROPS],
+                new OverheadStats(values[JUNK_PACKETS_SKIPPED], values[JUNK_BYTES_SENT],
+                        values[JUNK_BYTES_RECEIVED], values[PADDING_BYTES_SENT],
+                        values[PADDING_BYTES_RECEIVED]),
+                toLatency(values, HANDSHAKE_RTT), toLatency(values, FIRST_DATA));
+    }
+
+    private static LatencyStats toLatency(final long[] values, final int base) {
+        return new LatencyStats(values[base], values[base + 1], values[base + 2], values[base + 3],
+                values[base + 4], values[base + 5]);
+    }
+
     /**
      * Check if the statistics are stale, indicating the need for the {@link Backend} to update them.
      *
@@ -0,0 +1,262 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import android.util.Log;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Persistent log of tunnel events, which keeps them across restarts and long after logcat has
+ * dropped them. Events are queued without blocking and appended in batches by a background thread
+ * to memory-mapped segment files of a fixed size. Once a segment is full, writing moves on to a
+ * fresh one that replaces the segment before it, so the log never takes more than two segments of
+ * disk space.
+ * <p>
+ * A segment starts with a magic number and its sequence number, followed by records of a length,
+ * the time, the event type, the tunnel name and the message. The length of a record is written
+ * last and a zero length ends the segment, so a record cut short by the process dying is never
+ * read back.
+ */
+@NonNullForAll
+public final class TunnelEventLog {
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    private static final int HEADER_SIZE = 12;
+    private static final int MAGIC = 0x41574745;
+    private static final int MAX_BATCH = 256;
+    private static final int MAX_MESSAGE_BYTES = 1024;
+    private static final int MAX_PENDING = 4096;
+    private static final String TAG = "AmneziaWG/TunnelEventLog";
+
+    private final File directory;
+    private final BlockingQueue<Event> pending = new LinkedBlockingQueue<>(MAX_PENDING);
+    private final int segmentSize;
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+    @Nullable private MappedByteBuffer segment;
+    private long segmentSequence;
+
+    /**
+     * Public constructor for TunnelEventLog. Nothing is read or written until the first event is
+     * logged or the log is read.
+     *
+     * @param directory The directory holding the segment files
+     */
+    public TunnelEventLog(final File directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    TunnelEventLog(final File directory, final int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Queue an event that happens now for writing.
+     *
+     * @param type       The kind of event
+     * @param tunnelName The tunnel the event concerns
+     * @param message    A description of the event
+     */
+    public void log(final Event.Type type, final String tunnelName, final String message) {
+        log(new Event(System.currentTimeMillis(), type, tunnelName, message));
+    }
+
+    /**
+     * Queue an event for writing, dropping it if the writer has fallen too far behind.
+     *
+     * @param event The event to write
+     */
+    public void log(final Event event) {
+        if (!pending.offer(event))
+            return;
+        if (writerStarted.compareAndSet(false, true)) {
+            final Thread writer = new Thread(this::drainPending, "TunnelEventLog");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private void drainPending() {
+        final List<Event> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (final InterruptedException e) {
+                return;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            try {
+                append(batch);
+            } catch (final IOException e) {
+                Log.w(TAG, "Unable to write " + batch.size() + " events", e);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Write events to the current segment, moving on to a new segment when it is full.
+     */
+    synchronized void append(final List<Event> events) throws IOException {
+        if (segment == null)
+            openCurrentSegment();
+        for (final Event event : events) {
+            final byte[] name = event.tunnelName().getBytes(StandardCharsets.UTF_8);
+            byte[] message = event.message().getBytes(StandardCharsets.UTF_8);
+            if (message.length > MAX_MESSAGE_BYTES)
+                message = Arrays.copyOf(message, MAX_MESSAGE_BYTES);
+            final int length = 8 + 1 + 2 + name.length + message.length;
+            if (segment.position() + 4 + length > segmentSize)
+                startSegment(segmentSequence + 1);
+            final int start = segment.position();
+            segment.position(start + 4);
+            segment.putLong(event.timeMillis());
+            segment.put((byte) event.type().ordinal());
+            segment.putShort((short) name.length);
+            segment.put(name);
+            segment.put(message);
+            segment.putInt(start, length);
+        }
+    }
+
+    /**
+     * Read all retained events, oldest first, including those that were written by earlier
+     * processes. Events that are still queued for writing are not included.
+     *
+     * @return the events
+     * @throws IOException if the segment files could not be read
+     */
+    public synchronized List<Event> read() throws IOException {
+        final List<Event> events = new ArrayList<>();
+        if (segment == null)
+            openCurrentSegment();
+        final ByteBuffer previous = mapSegment(segmentFile(segmentSequence - 1), false);
+        if (previous != null && previous.getLong(4) == segmentSequence - 1)
+            readSegment(previous, events);
+        readSegment(segment.duplicate(), events);
+        return events;
+    }
+
+    private File segmentFile(final long sequence) {
+        return new File(directory, "events-" + (sequence & 1) + ".bin");
+    }
+
+    /**
+     * Map an existing segment file, or create one for writing.
+     *
+     * @return the mapped segment with its header checked, or null if there is no such segment
+     */
+    @Nullable
+    private MappedByteBuffer mapSegment(final File file, final boolean create) throws IOException {
+        if (!create && file.length() != segmentSize)
+            return null;
+        try (final RandomAccessFile raf = new RandomAccessFile(file, create ? "rw" : "r")) {
+            if (create)
+                raf.setLength(segmentSize);
+            final MappedByteBuffer buffer = raf.getChannel().map(
+                    create ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, segmentSize);
+            return create || buffer.getInt(0) == MAGIC ? buffer : null;
+        }
+    }
+
+    private void openCurrentSegment() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory);
+        long newest = -1;
+        for (int i = 0; i < 2; ++i) {
+            final ByteBuffer existing = mapSegment(segmentFile(i), false);
+            if (existing != null && existing.getLong(4) > newest && (existing.getLong(4) & 1) == i)
+                newest = existing.getLong(4);
+        }
+        if (newest < 0) {
+            startSegment(0);
+            return;
+        }
+        segment = mapSegment(segmentFile(newest), true);
+        segmentSequence = newest;
+        final int end = readSegment(segment.duplicate(), new ArrayList<>());
+        // Clear what an unfinished append left behind, so that it cannot pass for a record later.
+        for (int i = end; i < segmentSize; ++i) {
+            if (segment.get(i) != 0)
+                segment.put(i, (byte) 0);
+        }
+        segment.position(end);
+    }
+
+    private void startSegment(final long sequence) throws IOException {
+        final File file = segmentFile(sequence);
+        // noinspection ResultOfMethodCallIgnored
+        file.delete();
+        segment = mapSegment(file, true);
+        segment.putInt(MAGIC);
+        segment.putLong(sequence);
+        segmentSequence = sequence;
+    }
+
+    /**
+     * Decode the records of a segment, stopping at the first one that is missing or malformed.
+     *
+     * @return the offset one past the last record
+     */
+    private static int readSegment(final ByteBuffer buffer, final List<Event> events) {
+        final Event.Type[] types = Event.Type.values();
+        int position = HEADER_SIZE;
+        while (position + 4 <= buffer.limit()) {
+            final int length = buffer.getInt(position);
+            if (length < 8 + 1 + 2 || position + 4 + length > buffer.limit())
+                break;
+            final int type = buffer.get(position + 4 + 8);
+            final int nameLength = buffer.getShort(position + 4 + 9);
+            if (type < 0 || type >= types.length || nameLength < 0 || 8 + 1 + 2 + nameLength > length)
+                break;
+            final byte[] name = new byte[nameLength];
+            final byte[] message = new byte[length - 8 - 1 - 2 - nameLength];
+            final ByteBuffer record = buffer.duplicate();
+            record.position(position + 4 + 11);
+            record.get(name);
+            record.get(message);
+            events.add(new Event(buffer.getLong(position + 4), types[type],
+                    new String(name, StandardCharsets.UTF_8), new String(message, StandardCharsets.UTF_8)));
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    /**
+     * An event in the log.
+     *
+     * @param timeMillis When the event happened, in milliseconds since the epoch
+     * @param type       What kind of event it is
+     * @param tunnelName The tunnel the event concerns
+     * @param message    A description of the event
+     */
+    public record Event(long timeMillis, Type type, String tunnelName, String message) {
+        /**
+         * Kinds of events. The ordinal is persisted, so new types may only be added at the end.
+         */
+        public enum Type {
+            STATE_CHANGE,
+            HANDSHAKE,
+            ERROR
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.crypto;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Generates AmneziaWG key pairs in bulk.
+ * <p>
+ * All private keys of a batch are drawn from a single {@link SecureRandom} instance in one call,
+ * and their public keys are then derived by the default {@link X25519Engine} in parallel across the
+ * available cores. The Java engine additionally shares the final field inversions within a chunk.
+ * This is considerably faster than constructing many {@link KeyPair}s one at a time.
+ * <p>
+ * Instances of this class are thread-safe.
+ */
+@NonNullForAll
+public final class BatchKeyGenerator {
+    private static final int KEY_LENGTH = Key.Format.BINARY.getLength();
+    private static final int MIN_CHUNK_SIZE = 64;
+
+    private final SecureRandom secureRandom;
+
+    /**
+     * Creates a generator backed by a new instance of the system's {@link SecureRandom}.
+     */
+    public BatchKeyGenerator() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Creates a generator backed by the supplied random number generator.
+     *
+     * @param secureRandom the source of private key material for every batch
+     */
+    public BatchKeyGenerator(final SecureRandom secureRandom) {
+        this.secureRandom = secureRandom;
+    }
+
+    /**
+     * Derives the public keys for a packed array of private keys.
+     *
+     * @param privateKeys the concatenation of one or more 32-byte private keys
+     * @return the concatenation of the corresponding public keys, in the same order
+     */
+    public static byte[] derivePublicKeys(final byte[] privateKeys) {
+        if (privateKeys.length % KEY_LENGTH != 0)
+            throw new IllegalArgumentException("Private keys must be a multiple of " + KEY_LENGTH + " bytes");
+        final int count = privateKeys.length / KEY_LENGTH;
+        final byte[] publicKeys = new byte[privateKeys.length];
+        derive(privateKeys, 0, KEY_LENGTH, publicKeys, 0, KEY_LENGTH, count);
+        return publicKeys;
+    }
+
+    private static void derive(final byte[] privateKeys, final int privateOffset, final int privateStride,
+                               final byte[] publicKeys, final int publicOffset, final int publicStride,
+                               final int count) {
+        final X25519Engine engine = X25519Engine.getDefault();
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, (count + threads - 1) / threads);
+        final int chunks = (count + chunkSize - 1) / chunkSize;
+        if (chunks <= 1) {
+            engine.generatePublicKeys(privateKeys, privateOffset, privateStride,
+                    publicKeys, publicOffset, publicStride, count);
+            return;
+        }
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            final int start = chunk * chunkSize;
+            engine.generatePublicKeys(privateKeys, privateOffset + start * privateStride, privateStride,
+                    publicKeys, publicOffset + start * publicStride, publicStride,
+                    Math.min(chunkSize, count - start));
+        });
+    }
+
+    /**
+     * Generates a batch of key pairs.
+     *
+     * @param count the number of key pairs to generate
+     * @return the generated key pairs, packed into a single buffer
+     */
+    public PackedKeyPairs generate(final int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("Count must not be negative");
+        final byte[] packed = new byte[count * PackedKeyPairs.ENTRY_LENGTH];
+        final byte[] privateKeys = new byte[count * KEY_LENGTH];
+        secureRandom.nextBytes(privateKeys);
+        for (int i = 0; i < count; ++i) {
+            Key.clampPrivateKey(privateKeys, i * KEY_LENGTH);
+            System.arraycopy(privateKeys, i * KEY_LENGTH, packed, i * PackedKeyPairs.ENTRY_LENGTH, KEY_LENGTH);
+        }
+        Arrays.fill(privateKeys, (byte) 0);
+        derive(packed, 0, PackedKeyPairs.ENTRY_LENGTH, packed, KEY_LENGTH, PackedKeyPairs.ENTRY_LENGTH, count);
+        return new PackedKeyPairs(packed);
+    }
+}
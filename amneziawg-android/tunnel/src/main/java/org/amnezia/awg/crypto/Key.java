@@ -21,6 +21,7 @@ import java.util.Arrays;
 @SuppressWarnings("MagicNumber")
 @NonNullForAll
 public final class Key {
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
     private final byte[] key;
 
     /**
@@ -29,7 +30,7 @@ public final class Key {
      * @param key an array of bytes containing a binary key. Callers of this constructor are
      *            responsible for ensuring that the array is of the correct length.
      */
-    private Key(final byte[] key) {
+    Key(final byte[] key) {
         // Defensively copy to ensure immutability.
         this.key = Arrays.copyOf(key, key.length);
     }
@@ -178,29 +179,40 @@ public final class Key {
     }
 
     /**
-     * Generates a private key using the system's {@link SecureRandom} number generator.
+     * Clamps a Curve25519 private key in place, as required by RFC 7748.
+     *
+     * @param privateKey an array of bytes containing the private key
+     * @param offset     the offset of the private key in {@code privateKey}
+     */
+    static void clampPrivateKey(final byte[] privateKey, final int offset) {
+        privateKey[offset] &= (byte) 248;
+        privateKey[offset + 31] &= 127;
+        privateKey[offset + 31] |= 64;
+    }
+
+    /**
+     * Generates a private key using a shared instance of the system's {@link SecureRandom}
+     * number generator.
      *
      * @return a well-formed random private key
      */
     static Key generatePrivateKey() {
-        final SecureRandom secureRandom = new SecureRandom();
         final byte[] privateKey = new byte[Format.BINARY.getLength()];
-        secureRandom.nextBytes(privateKey);
-        privateKey[0] &= 248;
-        privateKey[31] &= 127;
-        privateKey[31] |= 64;
+        SECURE_RANDOM.nextBytes(privateKey);
+        clampPrivateKey(privateKey, 0);
         return new Key(privateKey);
     }
 
     /**
-     * Generates a public key from an existing private key.
+     * Generates a public key from an existing private key using the default
+     * {@link X25519Engine}.
      *
      * @param privateKey a private key
      * @return a well-formed public key that corresponds to the supplied private key
      */
     static Key generatePublicKey(final Key privateKey) {
         final byte[] publicKey = new byte[Format.BINARY.getLength()];
-        Curve25519.eval(publicKey, 0, privateKey.getBytes(), null);
+        X25519Engine.getDefault().generatePublicKey(publicKey, privateKey.getBytes());
         return new Key(publicKey);
     }
 
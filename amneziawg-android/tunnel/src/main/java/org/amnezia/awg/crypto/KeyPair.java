@@ -34,6 +34,17 @@ public class KeyPair {
         publicKey = Key.generatePublicKey(privateKey);
     }
 
+    /**
+     * Creates a key pair from a private key and its already-derived public key.
+     *
+     * @param privateKey a private key
+     * @param publicKey  the public key corresponding to {@code privateKey}
+     */
+    KeyPair(final Key privateKey, final Key publicKey) {
+        this.privateKey = privateKey;
+        this.publicKey = publicKey;
+    }
+
     /**
      * Returns the private key from the key pair.
      *
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.crypto;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.util.Arrays;
+
+/**
+ * A batch of key pairs generated by {@link BatchKeyGenerator}, stored in a single buffer. Entry
+ * {@code i} occupies bytes {@code [64 * i, 64 * i + 64)}: the 32-byte private key followed by
+ * the 32-byte public key.
+ * <p>
+ * Instances of this class are immutable.
+ */
+@NonNullForAll
+public final class PackedKeyPairs {
+    /**
+     * The number of bytes used by each key pair in the packed representation.
+     */
+    public static final int ENTRY_LENGTH = 2 * Key.Format.BINARY.getLength();
+
+    private final byte[] packed;
+
+    PackedKeyPairs(final byte[] packed) {
+        this.packed = packed;
+    }
+
+    /**
+     * Returns the key pair at the given index.
+     *
+     * @param index the index of the key pair
+     * @return the key pair
+     */
+    public KeyPair getKeyPair(final int index) {
+        return new KeyPair(getPrivateKey(index), getPublicKey(index));
+    }
+
+    /**
+     * Returns the private key at the given index.
+     *
+     * @param index the index of the key pair
+     * @return the private key
+     */
+    public Key getPrivateKey(final int index) {
+        return slice(index, 0);
+    }
+
+    /**
+     * Returns the public key at the given index.
+     *
+     * @param index the index of the key pair
+     * @return the public key
+     */
+    public Key getPublicKey(final int index) {
+        return slice(index, Key.Format.BINARY.getLength());
+    }
+
+    /**
+     * Returns the number of key pairs in the batch.
+     *
+     * @return the number of key pairs
+     */
+    public int size() {
+        return packed.length / ENTRY_LENGTH;
+    }
+
+    /**
+     * Returns a copy of the packed representation of the batch.
+     *
+     * @return an array of {@link #size()} * {@link #ENTRY_LENGTH} bytes
+     */
+    public byte[] toByteArray() {
+        // Defensively copy to ensure immutability.
+        return Arrays.copyOf(packed, packed.length);
+    }
+
+    private Key slice(final int index, final int offset) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        final int start = index * ENTRY_LENGTH + offset;
+        return new Key(Arrays.copyOfRange(packed, start, start + Key.Format.BINARY.getLength()));
+    }
+}
@@ -0,0 +1,768 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.crypto;
+
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Constant-time implementation of X25519 (RFC 7748).
+ * <p>
+ * Field elements modulo 2^255 - 19 are held in ten limbs of alternating 26 and 25 bits, as in the
+ * ref10 implementation from SUPERCOP, so that all limb products fit in a {@code long} without the
+ * 128-bit multiplication that 51-bit limbs would need. Variable-base evaluation uses the Montgomery
+ * ladder. Public keys are derived on the birationally equivalent twisted Edwards curve with a
+ * fixed-base comb over a precomputed table of multiples of the base point, which takes about a
+ * third of the field multiplications of the ladder, and are then mapped back to Montgomery form.
+ * <p>
+ * Temporary state is kept per thread and wiped after every evaluation.
+ * <p>
+ * References: RFC 7748, https://ed25519.cr.yp.to/ (ref10)
+ */
+@SuppressWarnings({"MagicNumber", "SuspiciousNameCombination"})
+@NonNullForAll
+public final class X25519 {
+    private static final int NUM_LIMBS = 10;
+    private static final int BATCH_INVERSION_SIZE = 64;
+    private static final ThreadLocal<X25519> SCRATCH = new ThreadLocal<X25519>() {
+        @Override
+        protected X25519 initialValue() {
+            return new X25519();
+        }
+    };
+
+    // Montgomery ladder state.
+    private final int[] x1 = new int[NUM_LIMBS];
+    private final int[] x2 = new int[NUM_LIMBS];
+    private final int[] x3 = new int[NUM_LIMBS];
+    private final int[] z2 = new int[NUM_LIMBS];
+    private final int[] z3 = new int[NUM_LIMBS];
+    private final int[] tmp0 = new int[NUM_LIMBS];
+    private final int[] tmp1 = new int[NUM_LIMBS];
+
+    // Edwards points: h in extended coordinates, r as a completed point, t as a table entry.
+    private final int[] hX = new int[NUM_LIMBS];
+    private final int[] hY = new int[NUM_LIMBS];
+    private final int[] hZ = new int[NUM_LIMBS];
+    private final int[] hT = new int[NUM_LIMBS];
+    private final int[] rX = new int[NUM_LIMBS];
+    private final int[] rY = new int[NUM_LIMBS];
+    private final int[] rZ = new int[NUM_LIMBS];
+    private final int[] rT = new int[NUM_LIMBS];
+    private final int[] tYplusX = new int[NUM_LIMBS];
+    private final int[] tYminusX = new int[NUM_LIMBS];
+    private final int[] tXY2d = new int[NUM_LIMBS];
+    private final int[] negXY2d = new int[NUM_LIMBS];
+
+    // Inversion temporaries.
+    private final int[] inv0 = new int[NUM_LIMBS];
+    private final int[] inv1 = new int[NUM_LIMBS];
+    private final int[] inv2 = new int[NUM_LIMBS];
+    private final int[] inv3 = new int[NUM_LIMBS];
+
+    private final byte[] scalar = new byte[32];
+    private final byte[] digits = new byte[64];
+
+    private X25519() {
+    }
+
+    /**
+     * Evaluates X25519, with the same contract as {@link Curve25519#eval}.
+     *
+     * @param result     Buffer to place the result of the evaluation into.
+     * @param offset     Offset into the result buffer.
+     * @param privateKey The private key to use in the evaluation. It is clamped internally.
+     * @param publicKey  The public key to use in the evaluation, or null
+     *                   if the base point of the curve should be used.
+     */
+    public static void eval(final byte[] result, final int offset,
+                            final byte[] privateKey, @Nullable final byte[] publicKey) {
+        final X25519 state = SCRATCH.get();
+        try {
+            state.clamp(privateKey);
+            if (publicKey == null)
+                state.scalarMultBase(result, offset);
+            else
+                state.scalarMult(result, offset, publicKey);
+        } finally {
+            state.destroy();
+        }
+    }
+
+    /**
+     * Derives the public key for a private key. This is equivalent to calling
+     * {@link #eval(byte[], int, byte[], byte[])} with a null public key.
+     *
+     * @param result     Buffer to place the public key into.
+     * @param offset     Offset into the result buffer.
+     * @param privateKey The private key. It is clamped internally.
+     */
+    public static void generatePublicKey(final byte[] result, final int offset, final byte[] privateKey) {
+        eval(result, offset, privateKey, null);
+    }
+
+    /**
+     * Derives public keys for many private keys at once. Keys are processed in groups whose final
+     * field inversions are merged into one with Montgomery's trick, which saves about a third of
+     * the work of calling {@link #generatePublicKey} for each key. This method is safe to call
+     * concurrently on disjoint ranges.
+     *
+     * @param privateKeys   Buffer containing the private keys.
+     * @param privateOffset Offset of the first private key.
+     * @param privateStride Distance in bytes between consecutive private keys.
+     * @param publicKeys    Buffer to place the public keys into.
+     * @param publicOffset  Offset of the first public key.
+     * @param publicStride  Distance in bytes between consecutive public keys.
+     * @param count         The number of keys.
+     */
+    static void generatePublicKeys(final byte[] privateKeys, final int privateOffset, final int privateStride,
+                                   final byte[] publicKeys, final int publicOffset, final int publicStride,
+                                   final int count) {
+        final X25519 state = SCRATCH.get();
+        final int groupSize = Math.min(count, BATCH_INVERSION_SIZE);
+        final int[][] numerators = new int[groupSize][NUM_LIMBS];
+        final int[][] denominators = new int[groupSize][NUM_LIMBS];
+        final int[][] products = new int[groupSize][NUM_LIMBS];
+        try {
+            for (int start = 0; start < count; start += groupSize) {
+                final int n = Math.min(groupSize, count - start);
+                for (int i = 0; i < n; ++i) {
+                    state.clamp(privateKeys, privateOffset + (start + i) * privateStride);
+                    state.scalarMultBaseEdwards();
+                    add(numerators[i], state.hZ, state.hY);
+                    sub(denominators[i], state.hZ, state.hY);
+                    if (i == 0)
+                        copy(products[0], denominators[0]);
+                    else
+                        mul(products[i], products[i - 1], denominators[i]);
+                }
+
+                // tmp0 = 1 / (d_0 * ... * d_i), peeled off one denominator at a time.
+                state.invert(state.tmp0, products[n - 1]);
+                for (int i = n - 1; i > 0; --i) {
+                    mul(state.tmp1, state.tmp0, products[i - 1]);
+                    mul(state.tmp0, state.tmp0, denominators[i]);
+                    mul(numerators[i], numerators[i], state.tmp1);
+                }
+                mul(numerators[0], numerators[0], state.tmp0);
+                for (int i = 0; i < n; ++i)
+                    toBytes(publicKeys, publicOffset + (start + i) * publicStride, numerators[i]);
+            }
+        } finally {
+            state.destroy();
+            for (int i = 0; i < groupSize; ++i) {
+                Arrays.fill(numerators[i], 0);
+                Arrays.fill(denominators[i], 0);
+                Arrays.fill(products[i], 0);
+            }
+        }
+    }
+
+    private void clamp(final byte[] privateKey) {
+        clamp(privateKey, 0);
+    }
+
+    private void clamp(final byte[] privateKey, final int offset) {
+        System.arraycopy(privateKey, offset, scalar, 0, 32);
+        scalar[0] &= (byte) 248;
+        scalar[31] &= 127;
+        scalar[31] |= 64;
+    }
+
+    /**
+     * Computes scalar * u with the Montgomery ladder.
+     */
+    private void scalarMult(final byte[] result, final int offset, final byte[] u) {
+        fromBytes(x1, u, 0);
+        one(x2);
+        zero(z2);
+        copy(x3, x1);
+        one(z3);
+
+        int swap = 0;
+        for (int pos = 254; pos >= 0; --pos) {
+            final int b = (scalar[pos >>> 3] >>> (pos & 7)) & 1;
+            swap ^= b;
+            cswap(x2, x3, swap);
+            cswap(z2, z3, swap);
+            swap = b;
+
+            sub(tmp0, x3, z3);
+            sub(tmp1, x2, z2);
+            add(x2, x2, z2);
+            add(z2, x3, z3);
+            mul(z3, tmp0, x2);
+            mul(z2, z2, tmp1);
+            sq(tmp0, tmp1);
+            sq(tmp1, x2);
+            add(x3, z3, z2);
+            sub(z2, z3, z2);
+            mul(x2, tmp1, tmp0);
+            sub(tmp1, tmp1, tmp0);
+            sq(z2, z2);
+            mul121666(z3, tmp1);
+            sq(x3, x3);
+            add(tmp0, tmp0, z3);
+            mul(z3, x1, z2);
+            mul(z2, tmp1, tmp0);
+        }
+        cswap(x2, x3, swap);
+        cswap(z2, z3, swap);
+
+        invert(z2, z2);
+        mul(x2, x2, z2);
+        toBytes(result, offset, x2);
+    }
+
+    /**
+     * Computes scalar * B and converts the result to the Montgomery u-coordinate,
+     * u = (Z + Y) / (Z - Y).
+     */
+    private void scalarMultBase(final byte[] result, final int offset) {
+        scalarMultBaseEdwards();
+        add(tmp0, hZ, hY);
+        sub(tmp1, hZ, hY);
+        invert(tmp1, tmp1);
+        mul(tmp0, tmp0, tmp1);
+        toBytes(result, offset, tmp0);
+    }
+
+    /**
+     * Computes h = scalar * B on the Edwards curve with the fixed-base comb.
+     */
+    private void scalarMultBaseEdwards() {
+        // Recode the scalar into 64 signed radix-16 digits in [-8, 8).
+        for (int i = 0; i < 32; ++i) {
+            digits[2 * i] = (byte) (scalar[i] & 15);
+            digits[2 * i + 1] = (byte) ((scalar[i] >>> 4) & 15);
+        }
+        int carry = 0;
+        for (int i = 0; i < 63; ++i) {
+            digits[i] += carry;
+            carry = (digits[i] + 8) >> 4;
+            digits[i] -= carry << 4;
+        }
+        digits[63] += carry;
+
+        // h = 0
+        zero(hX);
+        one(hY);
+        one(hZ);
+        zero(hT);
+
+        // Odd digits contribute 16 * digit * 256^i * B, so they are added first and the
+        // accumulator is multiplied by 16 before the even digits are added.
+        for (int i = 1; i < 64; i += 2) {
+            select(i >>> 1, digits[i]);
+            madd();
+            completedToExtended();
+        }
+        for (int i = 0; i < 4; ++i) {
+            dbl();
+            if (i < 3)
+                completedToProjective();
+            else
+                completedToExtended();
+        }
+        for (int i = 0; i < 64; i += 2) {
+            select(i >>> 1, digits[i]);
+            madd();
+            completedToExtended();
+        }
+    }
+
+    /**
+     * Loads the table entry for b * 256^pos * B into t in constant time, where -8 <= b <= 8.
+     */
+    private void select(final int pos, final byte b) {
+        final int negative = (b >>> 31) & 1;
+        final int abs = b - (((-negative) & b) << 1);
+        one(tYplusX);
+        one(tYminusX);
+        zero(tXY2d);
+        for (int j = 0; j < 8; ++j) {
+            final int mask = -equal(abs, j + 1);
+            final int base = (pos * 8 + j) * 3 * NUM_LIMBS;
+            cmov(tYplusX, BaseTable.TABLE, base, mask);
+            cmov(tYminusX, BaseTable.TABLE, base + NUM_LIMBS, mask);
+            cmov(tXY2d, BaseTable.TABLE, base + 2 * NUM_LIMBS, mask);
+        }
+        // Negation swaps y + x and y - x and negates 2dxy.
+        cswap(tYplusX, tYminusX, negative);
+        neg(negXY2d, tXY2d);
+        cmov(tXY2d, negXY2d, 0, -negative);
+    }
+
+    /**
+     * r = h + t, with h in extended and t in precomputed affine coordinates.
+     */
+    private void madd() {
+        add(rX, hY, hX);
+        sub(rY, hY, hX);
+        mul(rZ, rX, tYplusX);
+        mul(rY, rY, tYminusX);
+        mul(rT, tXY2d, hT);
+        add(tmp0, hZ, hZ);
+        sub(rX, rZ, rY);
+        add(rY, rZ, rY);
+        add(rZ, tmp0, rT);
+        sub(rT, tmp0, rT);
+    }
+
+    /**
+     * r = 2 * h, reading only the projective coordinates of h.
+     */
+    private void dbl() {
+        sq(rX, hX);
+        sq(rZ, hY);
+        sq2(rT, hZ);
+        add(rY, hX, hY);
+        sq(tmp0, rY);
+        add(rY, rZ, rX);
+        sub(rZ, rZ, rX);
+        sub(rX, tmp0, rY);
+        sub(rT, rT, rZ);
+    }
+
+    private void completedToExtended() {
+        mul(hX, rX, rT);
+        mul(hY, rY, rZ);
+        mul(hZ, rZ, rT);
+        mul(hT, rX, rY);
+    }
+
+    private void completedToProjective() {
+        mul(hX, rX, rT);
+        mul(hY, rY, rZ);
+        mul(hZ, rZ, rT);
+    }
+
+    /**
+     * Computes the reciprocal of a number as z^(p - 2), where p = 2^255 - 19.
+     *
+     * @param result The result. May overlap with z.
+     * @param z      The argument.
+     */
+    private void invert(final int[] result, final int[] z) {
+        sq(inv0, z);
+        sq(inv1, inv0);
+        sq(inv1, inv1);
+        mul(inv1, z, inv1);
+        mul(inv0, inv0, inv1);
+        sq(inv2, inv0);
+        mul(inv1, inv1, inv2);
+        sq(inv2, inv1);
+        for (int i = 1; i < 5; ++i)
+            sq(inv2, inv2);
+        mul(inv1, inv2, inv1);
+        sq(inv2, inv1);
+        for (int i = 1; i < 10; ++i)
+            sq(inv2, inv2);
+        mul(inv2, inv2, inv1);
+        sq(inv3, inv2);
+        for (int i = 1; i < 20; ++i)
+            sq(inv3, inv3);
+        mul(inv2, inv3, inv2);
+        for (int i = 0; i < 10; ++i)
+            sq(inv2, inv2);
+        mul(inv1, inv2, inv1);
+        sq(inv2, inv1);
+        for (int i = 1; i < 50; ++i)
+            sq(inv2, inv2);
+        mul(inv2, inv2, inv1);
+        sq(inv3, inv2);
+        for (int i = 1; i < 100; ++i)
+            sq(inv3, inv3);
+        mul(inv2, inv3, inv2);
+        for (int i = 0; i < 50; ++i)
+            sq(inv2, inv2);
+        mul(inv1, inv2, inv1);
+        for (int i = 0; i < 5; ++i)
+            sq(inv1, inv1);
+        mul(result, inv1, inv0);
+    }
+
+    /**
+     * Destroy all sensitive data in this object.
+     */
+    private void destroy() {
+        for (final int[] fe : new int[][]{x1, x2, x3, z2, z3, tmp0, tmp1, hX, hY, hZ, hT, rX, rY, rZ,
+                rT, tYplusX, tYminusX, tXY2d, negXY2d, inv0, inv1, inv2, inv3})
+            Arrays.fill(fe, 0);
+        Arrays.fill(scalar, (byte) 0);
+        Arrays.fill(digits, (byte) 0);
+    }
+
+    private static int equal(final int b, final int c) {
+        return ((b ^ c) - 1) >>> 31;
+    }
+
+    private static void zero(final int[] h) {
+        Arrays.fill(h, 0);
+    }
+
+    private static void one(final int[] h) {
+        Arrays.fill(h, 0);
+        h[0] = 1;
+    }
+
+    private static void copy(final int[] h, final int[] f) {
+        System.arraycopy(f, 0, h, 0, NUM_LIMBS);
+    }
+
+    private static void add(final int[] h, final int[] f, final int[] g) {
+        for (int i = 0; i < NUM_LIMBS; ++i)
+            h[i] = f[i] + g[i];
+    }
+
+    private static void sub(final int[] h, final int[] f, final int[] g) {
+        for (int i = 0; i < NUM_LIMBS; ++i)
+            h[i] = f[i] - g[i];
+    }
+
+    private static void neg(final int[] h, final int[] f) {
+        for (int i = 0; i < NUM_LIMBS; ++i)
+            h[i] = -f[i];
+    }
+
+    /**
+     * Conditional swap of two values.
+     *
+     * @param f    The first value.
+     * @param g    The second value.
+     * @param swap Set to 1 to swap, 0 to leave as-is.
+     */
+    private static void cswap(final int[] f, final int[] g, final int swap) {
+        final int mask = -swap;
+        for (int i = 0; i < NUM_LIMBS; ++i) {
+            final int x = mask & (f[i] ^ g[i]);
+            f[i] ^= x;
+            g[i] ^= x;
+        }
+    }
+
+    /**
+     * Replaces f with the element at src[offset] if mask is all ones, and leaves it otherwise.
+     */
+    private static void cmov(final int[] f, final int[] src, final int offset, final int mask) {
+        for (int i = 0; i < NUM_LIMBS; ++i)
+            f[i] ^= mask & (f[i] ^ src[offset + i]);
+    }
+
+    private static int load3(final byte[] s, final int offset) {
+        return (s[offset] & 0xff) | ((s[offset + 1] & 0xff) << 8) | ((s[offset + 2] & 0xff) << 16);
+    }
+
+    private static long load4(final byte[] s, final int offset) {
+        return (load3(s, offset) | ((long) (s[offset + 3] & 0xff) << 24));
+    }
+
+    /**
+     * Unpacks a little-endian value, ignoring the top bit as required by RFC 7748.
+     */
+    private static void fromBytes(final int[] h, final byte[] s, final int offset) {
+        long h0 = load4(s, offset);
+        long h1 = (long) load3(s, offset + 4) << 6;
+        long h2 = (long) load3(s, offset + 7) << 5;
+        long h3 = (long) load3(s, offset + 10) << 3;
+        long h4 = (long) load3(s, offset + 13) << 2;
+        long h5 = load4(s, offset + 16);
+        long h6 = (long) load3(s, offset + 20) << 7;
+        long h7 = (long) load3(s, offset + 23) << 5;
+        long h8 = (long) load3(s, offset + 26) << 4;
+        long h9 = (long) (load3(s, offset + 29) & 0x7fffff) << 2;
+        long carry;
+
+        carry = (h9 + (1L << 24)) >> 25; h0 += carry * 19; h9 -= carry << 25;
+        carry = (h1 + (1L << 24)) >> 25; h2 += carry; h1 -= carry << 25;
+        carry = (h3 + (1L << 24)) >> 25; h4 += carry; h3 -= carry << 25;
+        carry = (h5 + (1L << 24)) >> 25; h6 += carry; h5 -= carry << 25;
+        carry = (h7 + (1L << 24)) >> 25; h8 += carry; h7 -= carry << 25;
+        carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+        carry = (h2 + (1L << 25)) >> 26; h3 += carry; h2 -= carry << 26;
+        carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+        carry = (h6 + (1L << 25)) >> 26; h7 += carry; h6 -= carry << 26;
+        carry = (h8 + (1L << 25)) >> 26; h9 += carry; h8 -= carry << 26;
+
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4;
+        h[5] = (int) h5; h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    /**
+     * Packs a value into its canonical little-endian encoding, fully reducing it first.
+     */
+    private static void toBytes(final byte[] s, final int offset, final int[] h) {
+        int h0 = h[0], h1 = h[1], h2 = h[2], h3 = h[3], h4 = h[4];
+        int h5 = h[5], h6 = h[6], h7 = h[7], h8 = h[8], h9 = h[9];
+        int q;
+        int carry;
+
+        q = (19 * h9 + (1 << 24)) >> 25;
+        q = (h0 + q) >> 26;
+        q = (h1 + q) >> 25;
+        q = (h2 + q) >> 26;
+        q = (h3 + q) >> 25;
+        q = (h4 + q) >> 26;
+        q = (h5 + q) >> 25;
+        q = (h6 + q) >> 26;
+        q = (h7 + q) >> 25;
+        q = (h8 + q) >> 26;
+        q = (h9 + q) >> 25;
+
+        // Goal: output h - (2^255 - 19) * q, which is between 0 and 2^255 - 20.
+        h0 += 19 * q;
+        carry = h0 >> 26; h1 += carry; h0 -= carry << 26;
+        carry = h1 >> 25; h2 += carry; h1 -= carry << 25;
+        carry = h2 >> 26; h3 += carry; h2 -= carry << 26;
+        carry = h3 >> 25; h4 += carry; h3 -= carry << 25;
+        carry = h4 >> 26; h5 += carry; h4 -= carry << 26;
+        carry = h5 >> 25; h6 += carry; h5 -= carry << 25;
+        carry = h6 >> 26; h7 += carry; h6 -= carry << 26;
+        carry = h7 >> 25; h8 += carry; h7 -= carry << 25;
+        carry = h8 >> 26; h9 += carry; h8 -= carry << 26;
+        carry = h9 >> 25; h9 -= carry << 25;
+
+        s[offset] = (byte) h0;
+        s[offset + 1] = (byte) (h0 >> 8);
+        s[offset + 2] = (byte) (h0 >> 16);
+        s[offset + 3] = (byte) ((h0 >> 24) | (h1 << 2));
+        s[offset + 4] = (byte) (h1 >> 6);
+        s[offset + 5] = (byte) (h1 >> 14);
+        s[offset + 6] = (byte) ((h1 >> 22) | (h2 << 3));
+        s[offset + 7] = (byte) (h2 >> 5);
+        s[offset + 8] = (byte) (h2 >> 13);
+        s[offset + 9] = (byte) ((h2 >> 21) | (h3 << 5));
+        s[offset + 10] = (byte) (h3 >> 3);
+        s[offset + 11] = (byte) (h3 >> 11);
+        s[offset + 12] = (byte) ((h3 >> 19) | (h4 << 6));
+        s[offset + 13] = (byte) (h4 >> 2);
+        s[offset + 14] = (byte) (h4 >> 10);
+        s[offset + 15] = (byte) (h4 >> 18);
+        s[offset + 16] = (byte) h5;
+        s[offset + 17] = (byte) (h5 >> 8);
+        s[offset + 18] = (byte) (h5 >> 16);
+        s[offset + 19] = (byte) ((h5 >> 24) | (h6 << 1));
+        s[offset + 20] = (byte) (h6 >> 7);
+        s[offset + 21] = (byte) (h6 >> 15);
+        s[offset + 22] = (byte) ((h6 >> 23) | (h7 << 3));
+        s[offset + 23] = (byte) (h7 >> 5);
+        s[offset + 24] = (byte) (h7 >> 13);
+        s[offset + 25] = (byte) ((h7 >> 21) | (h8 << 4));
+        s[offset + 26] = (byte) (h8 >> 4);
+        s[offset + 27] = (byte) (h8 >> 12);
+        s[offset + 28] = (byte) ((h8 >> 20) | (h9 << 6));
+        s[offset + 29] = (byte) (h9 >> 2);
+        s[offset + 30] = (byte) (h9 >> 10);
+        s[offset + 31] = (byte) (h9 >> 18);
+    }
+
+    /**
+     * Multiplies two numbers modulo 2^255 - 19. The result may overlap with either argument.
+     */
+    private static void mul(final int[] h, final int[] f, final int[] g) {
+        final int f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+        final int f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        final int g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4];
+        final int g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+        final int f1_2 = 2 * f1, f3_2 = 2 * f3, f5_2 = 2 * f5, f7_2 = 2 * f7, f9_2 = 2 * f9;
+        final int g1_19 = 19 * g1, g2_19 = 19 * g2, g3_19 = 19 * g3, g4_19 = 19 * g4, g5_19 = 19 * g5;
+        final int g6_19 = 19 * g6, g7_19 = 19 * g7, g8_19 = 19 * g8, g9_19 = 19 * g9;
+        final long h0 = f0 * (long) g0 + f1_2 * (long) g9_19 + f2 * (long) g8_19 + f3_2 * (long) g7_19 + f4 * (long) g6_19
+                + f5_2 * (long) g5_19 + f6 * (long) g4_19 + f7_2 * (long) g3_19 + f8 * (long) g2_19 + f9_2 * (long) g1_19;
+        final long h1 = f0 * (long) g1 + f1 * (long) g0 + f2 * (long) g9_19 + f3 * (long) g8_19 + f4 * (long) g7_19
+                + f5 * (long) g6_19 + f6 * (long) g5_19 + f7 * (long) g4_19 + f8 * (long) g3_19 + f9 * (long) g2_19;
+        final long h2 = f0 * (long) g2 + f1_2 * (long) g1 + f2 * (long) g0 + f3_2 * (long) g9_19 + f4 * (long) g8_19
+                + f5_2 * (long) g7_19 + f6 * (long) g6_19 + f7_2 * (long) g5_19 + f8 * (long) g4_19 + f9_2 * (long) g3_19;
+        final long h3 = f0 * (long) g3 + f1 * (long) g2 + f2 * (long) g1 + f3 * (long) g0 + f4 * (long) g9_19
+                + f5 * (long) g8_19 + f6 * (long) g7_19 + f7 * (long) g6_19 + f8 * (long) g5_19 + f9 * (long) g4_19;
+        final long h4 = f0 * (long) g4 + f1_2 * (long) g3 + f2 * (long) g2 + f3_2 * (long) g1 + f4 * (long) g0
+                + f5_2 * (long) g9_19 + f6 * (long) g8_19 + f7_2 * (long) g7_19 + f8 * (long) g6_19 + f9_2 * (long) g5_19;
+        final long h5 = f0 * (long) g5 + f1 * (long) g4 + f2 * (long) g3 + f3 * (long) g2 + f4 * (long) g1
+                + f5 * (long) g0 + f6 * (long) g9_19 + f7 * (long) g8_19 + f8 * (long) g7_19 + f9 * (long) g6_19;
+        final long h6 = f0 * (long) g6 + f1_2 * (long) g5 + f2 * (long) g4 + f3_2 * (long) g3 + f4 * (long) g2
+                + f5_2 * (long) g1 + f6 * (long) g0 + f7_2 * (long) g9_19 + f8 * (long) g8_19 + f9_2 * (long) g7_19;
+        final long h7 = f0 * (long) g7 + f1 * (long) g6 + f2 * (long) g5 + f3 * (long) g4 + f4 * (long) g3
+                + f5 * (long) g2 + f6 * (long) g1 + f7 * (long) g0 + f8 * (long) g9_19 + f9 * (long) g8_19;
+        final long h8 = f0 * (long) g8 + f1_2 * (long) g7 + f2 * (long) g6 + f3_2 * (long) g5 + f4 * (long) g4
+                + f5_2 * (long) g3 + f6 * (long) g2 + f7_2 * (long) g1 + f8 * (long) g0 + f9_2 * (long) g9_19;
+        final long h9 = f0 * (long) g9 + f1 * (long) g8 + f2 * (long) g7 + f3 * (long) g6 + f4 * (long) g5
+                + f5 * (long) g4 + f6 * (long) g3 + f7 * (long) g2 + f8 * (long) g1 + f9 * (long) g0;
+        carry(h, h0, h1, h2, h3, h4, h5, h6, h7, h8, h9);
+    }
+
+    /**
+     * Squares a number modulo 2^255 - 19. The result may overlap with the argument.
+     */
+    private static void sq(final int[] h, final int[] f) {
+        sqScaled(h, f, 1);
+    }
+
+    /**
+     * Computes 2 * f^2 modulo 2^255 - 19. The result may overlap with the argument.
+     */
+    private static void sq2(final int[] h, final int[] f) {
+        sqScaled(h, f, 2);
+    }
+
+    private static void sqScaled(final int[] h, final int[] f, final int scale) {
+        final int f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4];
+        final int f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        final int f0_2 = 2 * f0, f1_2 = 2 * f1, f2_2 = 2 * f2, f3_2 = 2 * f3, f4_2 = 2 * f4;
+        final int f5_2 = 2 * f5, f6_2 = 2 * f6, f7_2 = 2 * f7, f8_2 = 2 * f8;
+        final int f6_19 = 19 * f6, f7_19 = 19 * f7, f8_19 = 19 * f8, f9_19 = 19 * f9;
+        final int f5_38 = 38 * f5, f7_38 = 38 * f7, f9_38 = 38 * f9;
+        final long h0 = f0 * (long) f0 + f1_2 * (long) f9_38 + f2_2 * (long) f8_19 + f3_2 * (long) f7_38 + f4_2 * (long) f6_19
+                + f5 * (long) f5_38;
+        final long h1 = f0_2 * (long) f1 + f2_2 * (long) f9_19 + f3_2 * (long) f8_19 + f4_2 * (long) f7_19 + f5_2 * (long) f6_19;
+        final long h2 = f0_2 * (long) f2 + f1 * (long) f1_2 + f3_2 * (long) f9_38 + f4_2 * (long) f8_19 + f5_2 * (long) f7_38
+                + f6 * (long) f6_19;
+        final long h3 = f0_2 * (long) f3 + f1_2 * (long) f2 + f4_2 * (long) f9_19 + f5_2 * (long) f8_19 + f6_2 * (long) f7_19;
+        final long h4 = f0_2 * (long) f4 + f1_2 * (long) f3_2 + f2 * (long) f2 + f5_2 * (long) f9_38 + f6_2 * (long) f8_19
+                + f7 * (long) f7_38;
+        final long h5 = f0_2 * (long) f5 + f1_2 * (long) f4 + f2_2 * (long) f3 + f6_2 * (long) f9_19 + f7_2 * (long) f8_19;
+        final long h6 = f0_2 * (long) f6 + f1_2 * (long) f5_2 + f2_2 * (long) f4 + f3 * (long) f3_2 + f7_2 * (long) f9_38
+                + f8 * (long) f8_19;
+        final long h7 = f0_2 * (long) f7 + f1_2 * (long) f6 + f2_2 * (long) f5 + f3_2 * (long) f4 + f8_2 * (long) f9_19;
+        final long h8 = f0_2 * (long) f8 + f1_2 * (long) f7_2 + f2_2 * (long) f6 + f3_2 * (long) f5_2 + f4 * (long) f4
+                + f9 * (long) f9_38;
+        final long h9 = f0_2 * (long) f9 + f1_2 * (long) f8 + f2_2 * (long) f7 + f3_2 * (long) f6 + f4_2 * (long) f5;
+        carry(h, h0 * scale, h1 * scale, h2 * scale, h3 * scale, h4 * scale,
+                h5 * scale, h6 * scale, h7 * scale, h8 * scale, h9 * scale);
+    }
+
+    /**
+     * Multiplies a number by (A + 2) / 4 = 121666, modulo 2^255 - 19.
+     */
+    private static void mul121666(final int[] h, final int[] f) {
+        carry(h, f[0] * 121666L, f[1] * 121666L, f[2] * 121666L, f[3] * 121666L, f[4] * 121666L,
+                f[5] * 121666L, f[6] * 121666L, f[7] * 121666L, f[8] * 121666L, f[9] * 121666L);
+    }
+
+    /**
+     * Propagates carries through wide limbs and stores the result in h with each limb
+     * bounded by roughly 2^26 or 2^25 in magnitude.
+     */
+    private static void carry(final int[] h, long h0, long h1, long h2, long h3, long h4,
+                              long h5, long h6, long h7, long h8, long h9) {
+        long carry;
+        carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+        carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+        carry = (h1 + (1L << 24)) >> 25; h2 += carry; h1 -= carry << 25;
+        carry = (h5 + (1L << 24)) >> 25; h6 += carry; h5 -= carry << 25;
+        carry = (h2 + (1L << 25)) >> 26; h3 += carry; h2 -= carry << 26;
+        carry = (h6 + (1L << 25)) >> 26; h7 += carry; h6 -= carry << 26;
+        carry = (h3 + (1L << 24)) >> 25; h4 += carry; h3 -= carry << 25;
+        carry = (h7 + (1L << 24)) >> 25; h8 += carry; h7 -= carry << 25;
+        carry = (h4 + (1L << 25)) >> 26; h5 += carry; h4 -= carry << 26;
+        carry = (h8 + (1L << 25)) >> 26; h9 += carry; h8 -= carry << 26;
+        carry = (h9 + (1L << 24)) >> 25; h0 += carry * 19; h9 -= carry << 25;
+        carry = (h0 + (1L << 25)) >> 26; h1 += carry; h0 -= carry << 26;
+
+        h[0] = (int) h0; h[1] = (int) h1; h[2] = (int) h2; h[3] = (int) h3; h[4] = (int) h4;
+        h[5] = (int) h5; h[6] = (int) h6; h[7] = (int) h7; h[8] = (int) h8; h[9] = (int) h9;
+    }
+
+    /**
+     * Precomputed multiples (j + 1) * 256^i * B of the Ed25519 base point for 0 <= i < 32 and
+     * 0 <= j < 8, each stored as the affine triple (y + x, y - x, 2dxy). The table is computed
+     * once, on first use, rather than shipped as constants.
+     */
+    private static final class BaseTable {
+        static final int[] TABLE = new int[32 * 8 * 3 * NUM_LIMBS];
+
+        static {
+            final X25519 s = new X25519();
+            final int[] d2 = new int[NUM_LIMBS];
+            final int[] px = new int[NUM_LIMBS];
+            final int[] py = new int[NUM_LIMBS];
+            final int[] x = new int[NUM_LIMBS];
+            final int[] y = new int[NUM_LIMBS];
+            final int[] t = new int[NUM_LIMBS];
+
+            // d = -121665 / 121666
+            fromInteger(d2, BigInteger.valueOf(121666));
+            s.invert(d2, d2);
+            fromInteger(t, BigInteger.valueOf(121665));
+            mul(d2, d2, t);
+            neg(d2, d2);
+            add(d2, d2, d2);
+            reduce(d2);
+
+            fromInteger(px, new BigInteger("15112221349535400772501151409588531511454012693041857206046113283949847762202"));
+            fromInteger(py, new BigInteger("46316835694926478169428394003475163141307993866256225615783033603165251855960"));
+            for (int i = 0; i < 32; ++i) {
+                // Load P = 256^i * B as the running sum h and as the addend t.
+                copy(s.hX, px);
+                copy(s.hY, py);
+                one(s.hZ);
+                mul(s.hT, px, py);
+                storePrecomputed(d2, px, py, s.tYplusX, s.tYminusX, s.tXY2d);
+                for (int j = 0; j < 8; ++j) {
+                    s.invert(t, s.hZ);
+                    mul(x, s.hX, t);
+                    mul(y, s.hY, t);
+                    final int base = (i * 8 + j) * 3 * NUM_LIMBS;
+                    final int[] yPlusX = new int[NUM_LIMBS];
+                    final int[] yMinusX = new int[NUM_LIMBS];
+                    final int[] xy2d = new int[NUM_LIMBS];
+                    storePrecomputed(d2, x, y, yPlusX, yMinusX, xy2d);
+                    System.arraycopy(yPlusX, 0, TABLE, base, NUM_LIMBS);
+                    System.arraycopy(yMinusX, 0, TABLE, base + NUM_LIMBS, NUM_LIMBS);
+                    System.arraycopy(xy2d, 0, TABLE, base + 2 * NUM_LIMBS, NUM_LIMBS);
+                    s.madd();
+                    s.completedToExtended();
+                }
+
+                // P = 256 * P
+                copy(s.hX, px);
+                copy(s.hY, py);
+                one(s.hZ);
+                for (int k = 0; k < 8; ++k) {
+                    s.dbl();
+                    s.completedToProjective();
+                }
+                s.invert(t, s.hZ);
+                mul(px, s.hX, t);
+                mul(py, s.hY, t);
+            }
+        }
+
+        private BaseTable() {
+        }
+
+        private static void storePrecomputed(final int[] d2, final int[] x, final int[] y,
+                                             final int[] yPlusX, final int[] yMinusX, final int[] xy2d) {
+            add(yPlusX, y, x);
+            reduce(yPlusX);
+            sub(yMinusX, y, x);
+            reduce(yMinusX);
+            mul(xy2d, x, y);
+            mul(xy2d, xy2d, d2);
+            reduce(xy2d);
+        }
+
+        private static void fromInteger(final int[] h, final BigInteger value) {
+            final byte[] be = value.toByteArray();
+            final byte[] le = new byte[32];
+            for (int i = 0; i < 32 && i < be.length; ++i)
+                le[i] = be[be.length - 1 - i];
+            fromBytes(h, le, 0);
+        }
+
+        /**
+         * Brings an element into canonical form so that table entries have tight limb bounds.
+         */
+        private static void reduce(final int[] h) {
+            final byte[] s = new byte[32];
+            toBytes(s, 0, h);
+            fromBytes(h, s, 0);
+        }
+    }
+}
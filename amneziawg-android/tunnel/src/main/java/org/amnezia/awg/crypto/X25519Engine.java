@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.crypto;
+
+import org.amnezia.awg.GoBackend;
+import org.amnezia.awg.util.NonNullForAll;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Strategy for X25519 key derivation. Two implementations exist: the pure-Java {@link X25519},
+ * and {@code golang.org/x/crypto/curve25519} inside {@code libwg-go}, reached through JNI. The
+ * native implementation is only offered when the library can be loaded and it reproduces the
+ * Java result for a known-answer test, so both engines always produce identical keys. It only
+ * becomes the default once {@link org.amnezia.awg.backend.GoBackend} has loaded the library, so
+ * that deriving a key never loads it on the calling thread.
+ */
+@NonNullForAll
+public abstract class X25519Engine {
+    private static final String NATIVE_LIBRARY = "wg-go";
+    private static final int KEY_LENGTH = Key.Format.BINARY.getLength();
+    private static final X25519Engine JAVA = new JavaEngine();
+    @Nullable private static volatile X25519Engine defaultEngine;
+    @Nullable private static volatile X25519Engine loadedEngine;
+
+    X25519Engine() {
+    }
+
+    /**
+     * Returns the engine used by {@link KeyPair} and {@link BatchKeyGenerator}. Unless overridden
+     * with {@link #setDefault}, this is the native engine once {@link #onLibraryLoaded()} found it
+     * available, and the Java engine until then.
+     *
+     * @return the default engine
+     */
+    public static X25519Engine getDefault() {
+        final X25519Engine engine = defaultEngine;
+        if (engine != null)
+            return engine;
+        final X25519Engine nativeEngine = loadedEngine;
+        return nativeEngine != null ? nativeEngine : JAVA;
+    }
+
+    /**
+     * Makes the native engine the default if it passes its self-test. Called by
+     * {@link org.amnezia.awg.backend.GoBackend} on its loader thread once {@code libwg-go} is
+     * loaded.
+     */
+    public static void onLibraryLoaded() {
+        loadedEngine = getNative();
+    }
+
+    /**
+     * Overrides the engine returned by {@link #getDefault()}.
+     *
+     * @param engine the engine to use, or null to restore automatic selection
+     */
+    public static void setDefault(@Nullable final X25519Engine engine) {
+        defaultEngine = engine;
+    }
+
+    /**
+     * Returns the pure-Java engine, which is always available.
+     *
+     * @return the Java engine
+     */
+    public static X25519Engine getJava() {
+        return JAVA;
+    }
+
+    /**
+     * Returns the engine backed by {@code libwg-go}, loading the library on the calling thread if
+     * necessary.
+     *
+     * @return the native engine, or null if the library is unavailable or disagrees with the
+     * Java implementation
+     */
+    @Nullable
+    public static X25519Engine getNative() {
+        return NativeEngine.INSTANCE;
+    }
+
+    /**
+     * Generates a new key pair.
+     *
+     * @return a key pair with a freshly generated private key
+     */
+    public abstract KeyPair generateKeyPair();
+
+    /**
+     * Derives the public key for a private key.
+     *
+     * @param publicKey  a 32-byte array to place the public key into
+     * @param privateKey a 32-byte private key, which is clamped internally
+     */
+    public abstract void generatePublicKey(byte[] publicKey, byte[] privateKey);
+
+    /**
+     * Returns a short name for the engine, for diagnostics.
+     *
+     * @return the name of the engine
+     */
+    public abstract String getName();
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    abstract void generatePublicKeys(byte[] privateKeys, int privateOffset, int privateStride,
+                                     byte[] publicKeys, int publicOffset, int publicStride, int count);
+
+    private static final class JavaEngine extends X25519Engine {
+        @Override
+        public KeyPair generateKeyPair() {
+            final Key privateKey = Key.generatePrivateKey();
+            final byte[] publicKey = new byte[KEY_LENGTH];
+            X25519.generatePublicKey(publicKey, 0, privateKey.getBytes());
+            return new KeyPair(privateKey, new Key(publicKey));
+        }
+
+        @Override
+        public void generatePublicKey(final byte[] publicKey, final byte[] privateKey) {
+            X25519.generatePublicKey(publicKey, 0, privateKey);
+        }
+
+        @Override
+        public String getName() {
+            return "java";
+        }
+
+        @Override
+        void generatePublicKeys(final byte[] privateKeys, final int privateOffset, final int privateStride,
+                                final byte[] publicKeys, final int publicOffset, final int publicStride,
+                                final int count) {
+            X25519.generatePublicKeys(privateKeys, privateOffset, privateStride,
+                    publicKeys, publicOffset, publicStride, count);
+        }
+    }
+
+    private static final class NativeEngine extends X25519Engine {
+        @Nullable static final X25519Engine INSTANCE = load();
+
+        @Nullable
+        private static X25519Engine load() {
+            final NativeEngine engine = new NativeEngine();
+            try {
+                if (engine.selfTest())
+                    return engine;
+            } catch (final UnsatisfiedLinkError ignored) {
+                // The library has not been loaded by GoBackend yet, so try loading it ourselves.
+            }
+            try {
+                System.loadLibrary(NATIVE_LIBRARY);
+                return engine.selfTest() ? engine : null;
+            } catch (final UnsatisfiedLinkError | SecurityException ignored) {
+                return null;
+            }
+        }
+
+        private static void check(final int ret) {
+            if (ret != 0)
+                throw new IllegalStateException("Native X25519 failed with error " + ret);
+        }
+
+        private boolean selfTest() {
+            final byte[] privateKey = new byte[KEY_LENGTH];
+            for (int i = 0; i < KEY_LENGTH; ++i)
+                privateKey[i] = (byte) (i * 37 + 11);
+            final byte[] expected = new byte[KEY_LENGTH];
+            final byte[] actual = new byte[KEY_LENGTH];
+            X25519.generatePublicKey(expected, 0, privateKey);
+            return GoBackend.awgGeneratePublicKey(actual, privateKey) == 0 && Arrays.equals(expected, actual);
+        }
+
+        @Override
+        public KeyPair generateKeyPair() {
+            final byte[] privateKey = new byte[KEY_LENGTH];
+            final byte[] publicKey = new byte[KEY_LENGTH];
+            try {
+                check(GoBackend.awgGenerateKeyPair(privateKey, publicKey));
+                return new KeyPair(new Key(privateKey), new Key(publicKey));
+            } finally {
+                Arrays.fill(privateKey, (byte) 0);
+            }
+        }
+
+        @Override
+        public void generatePublicKey(final byte[] publicKey, final byte[] privateKey) {
+            check(GoBackend.awgGeneratePublicKey(publicKey, privateKey));
+        }
+
+        @Override
+        public String getName() {
+            return "native";
+        }
+
+        @Override
+        void generatePublicKeys(final byte[] privateKeys, final int privateOffset, final int privateStride,
+                                final byte[] publicKeys, final int publicOffset, final int publicStride,
+                                final int count) {
+            if (count == 0)
+                return;
+            final ByteBuffer privateBuffer = ByteBuffer.allocateDirect(count * KEY_LENGTH);
+            final ByteBuffer publicBuffer = ByteBuffer.allocateDirect(count * KEY_LENGTH);
+            try {
+                for (int i = 0; i < count; ++i)
+                    privateBuffer.put(privateKeys, privateOffset + i * privateStride, KEY_LENGTH);
+                check(GoBackend.awgGeneratePublicKeys(publicBuffer, privateBuffer, count));
+                for (int i = 0; i < count; ++i)
+                    publicBuffer.get(publicKeys, publicOffset + i * publicStride, KEY_LENGTH);
+            } finally {
+                privateBuffer.clear();
+                while (privateBuffer.hasRemaining())
+                    privateBuffer.put((byte) 0);
+            }
+        }
+    }
+}
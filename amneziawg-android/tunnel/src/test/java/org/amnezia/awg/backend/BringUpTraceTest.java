@@ -0,0 +1,32 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.backend.BringUpTrace.Stage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BringUpTraceTest {
+    @Test
+    public void stages_are_recorded_in_sequence() throws InterruptedException {
+        final BringUpTrace trace = new BringUpTrace("test");
+        long stageStart = System.nanoTime();
+        Thread.sleep(5);
+        stageStart = trace.record(Stage.DNS_RESOLUTION, stageStart);
+        trace.record(Stage.ESTABLISH, stageStart);
+        trace.finish();
+
+        assertTrue(trace.getDurationNanos(Stage.DNS_RESOLUTION) >= 5_000_000);
+        assertEquals(0, trace.getDurationNanos(Stage.SERVICE_START));
+        assertTrue(trace.getTotalNanos() >= trace.getDurationNanos(Stage.DNS_RESOLUTION)
+                + trace.getDurationNanos(Stage.ESTABLISH));
+        assertEquals("test", trace.getTunnelName());
+        assertTrue(trace.toString().startsWith("test: prepare=0.0ms dns_resolution="));
+    }
+}
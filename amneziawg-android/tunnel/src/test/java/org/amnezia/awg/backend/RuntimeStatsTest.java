@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RuntimeStatsTest {
+    @Test
+    public void parses_runtime_and_pool_stats() {
+        final RuntimeStats stats = RuntimeStats.parse("heap_inuse=4096\nheap_released=1024\ngc_count=3\n"
+                + "gc_pause_total_ns=1500\ngoroutines=42\ninbound_pool_outstanding=12\ninbound_pool_max=512\n"
+                + "outbound_pool_outstanding=512\noutbound_pool_max=512\nmessage_pool_outstanding=0\n"
+                + "message_pool_max=512\nunknown_key=1\nheap_sys=garbage\n");
+        assertEquals(4096, stats.getHeapInUse());
+        assertEquals(1024, stats.getHeapReleased());
+        assertEquals(3, stats.getGcCount());
+        assertEquals(1500, stats.getGcPauseTotalNanos());
+        assertEquals(42, stats.getGoroutines());
+        assertNotNull(stats.getInboundPool());
+        assertFalse(stats.getInboundPool().isExhausted());
+        assertNotNull(stats.getOutboundPool());
+        assertTrue(stats.getOutboundPool().isExhausted());
+        assertTrue(stats.isAnyPoolExhausted());
+    }
+
+    @Test
+    public void parses_bind_stats() {
+        final RuntimeStats stats = RuntimeStats.parse("bind_batch_size=128\nbind_send_calls=10\n"
+                + "bind_send_messages=20\nbind_send_segments=80\nbind_recv_batches=4\nbind_recv_messages=12\n"
+                + "bind_recv_segments=48\nbind_tx_offload=true\nbind_rx_offload=false\n");
+        final RuntimeStats.BindStats bind = stats.getBindStats();
+        assertNotNull(bind);
+        assertEquals(128, bind.batchSize());
+        assertEquals(4.0, bind.segmentsPerSentMessage(), 0);
+        assertEquals(3.0, bind.messagesPerReceiveBatch(), 0);
+        assertTrue(bind.txOffload());
+        assertFalse(bind.rxOffload());
+    }
+
+    @Test
+    public void parses_tun_queue_stats() {
+        final RuntimeStats stats = RuntimeStats.parse("tun_queue_0_reads=10\ntun_queue_0_packets=40\n"
+                + "tun_queue_0_bytes=56000\ntun_queue_1_reads=5\ntun_queue_1_packets=5\ntun_queue_1_bytes=7000\n"
+                + "tun_queue_x_reads=1\ntun_queue_99999_reads=1\ntun_queue_1_unknown=3\n");
+        final List<RuntimeStats.TunQueueStats> queues = stats.getTunQueues();
+        assertEquals(2, queues.size());
+        assertEquals(new RuntimeStats.TunQueueStats(10, 40, 56000), queues.get(0));
+        assertEquals(4.0, queues.get(0).packetsPerRead(), 0);
+        assertEquals(new RuntimeStats.TunQueueStats(5, 5, 7000), queues.get(1));
+    }
+
+    @Test
+    public void parses_mtu_probe() {
+        final RuntimeStats stats = RuntimeStats.parse("mtu_probe_mtu=1408\nmtu_probe_probes=6\nmtu_probe_ms=2350\n");
+        assertEquals(new RuntimeStats.MtuProbeStats(1408, 6, 2350), stats.getMtuProbe());
+    }
+
+    @Test
+    public void pools_are_absent_without_tunnel() {
+        final RuntimeStats stats = RuntimeStats.parse("heap_inuse=1\ngoroutines=2\n");
+        assertNull(stats.getInboundPool());
+        assertNull(stats.getMessagePool());
+        assertNull(stats.getBindStats());
+        assertNull(stats.getMtuProbe());
+        assertTrue(stats.getTunQueues().isEmpty());
+        assertFalse(stats.isAnyPoolExhausted());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.backend.GoBackend.StateCommand;
+import org.amnezia.awg.backend.Tunnel.State;
+import org.amnezia.awg.config.BadConfigException;
+import org.amnezia.awg.config.Config;
+import org.amnezia.awg.config.Interface;
+import org.amnezia.awg.crypto.KeyPair;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StateCommandTest {
+    private static final Tunnel TUNNEL = new Tunnel() {
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public void onStateChange(final State newState) {
+        }
+    };
+
+    private static Config config() throws BadConfigException {
+        return new Config.Builder()
+                .setInterface(new Interface.Builder().setKeyPair(new KeyPair()).build())
+                .build();
+    }
+
+    @Test
+    public void toggles_cancel_each_other() {
+        final StateCommand command = new StateCommand(TUNNEL, State.TOGGLE, null);
+        command.merge(State.TOGGLE, null);
+        assertNull(command.state);
+        command.merge(State.TOGGLE, null);
+        assertEquals(State.TOGGLE, command.state);
+    }
+
+    @Test
+    public void toggle_flips_explicit_state() {
+        final StateCommand up = new StateCommand(TUNNEL, State.UP, null);
+        up.merge(State.TOGGLE, null);
+        assertEquals(State.DOWN, up.state);
+
+        final StateCommand down = new StateCommand(TUNNEL, State.DOWN, null);
+        down.merge(State.TOGGLE, null);
+        assertEquals(State.UP, down.state);
+    }
+
+    @Test
+    public void explicit_state_overrides() {
+        final StateCommand command = new StateCommand(TUNNEL, State.TOGGLE, null);
+        command.merge(State.DOWN, null);
+        assertEquals(State.DOWN, command.state);
+        command.merge(State.UP, null);
+        assertEquals(State.UP, command.state);
+
+        final StateCommand cancelled = new StateCommand(TUNNEL, State.TOGGLE, null);
+        cancelled.merge(State.TOGGLE, null);
+        cancelled.merge(State.UP, null);
+        assertEquals(State.UP, cancelled.state);
+    }
+
+    @Test
+    public void later_config_replaces_earlier() throws BadConfigException {
+        final Config first = config();
+        final Config second = config();
+        final StateCommand command = new StateCommand(TUNNEL, State.UP, first);
+        command.merge(State.UP, null);
+        assertSame(first, command.config);
+        command.merge(State.UP, second);
+        assertSame(second, command.config);
+        assertSame(TUNNEL, command.tunnel);
+    }
+}
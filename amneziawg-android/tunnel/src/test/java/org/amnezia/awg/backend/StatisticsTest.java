@@ -0,0 +1,51 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.crypto.Key;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatisticsTest {
+    private static final String KEY_A = "a1".repeat(32);
+    private static final String KEY_B = "b2".repeat(32);
+
+    @Test
+    public void parses_peer_counters() throws Exception {
+        final Map<Key, Statistics.PeerCounters> counters = Statistics.parsePeerCounters(
+                "public_key=" + KEY_A + "\ntx_packets=10\nrx_packets=20\nhandshake_attempts=3\n"
+                        + "handshake_failures=2\ndecrypt_failures=1\nreplay_drops=4\njunk_packets_sent=15\n"
+                        + "queue_drops=5\nhandshake_rtt_count=3\nhandshake_rtt_mean_us=41000\n"
+                        + "handshake_rtt_p50_us=40959\nhandshake_rtt_p90_us=49151\nhandshake_rtt_p99_us=49151\n"
+                        + "handshake_rtt_max_us=48000\nfirst_data_count=1\nfirst_data_max_us=120000\n"
+                        + "junk_packets_skipped=6\njunk_bytes_sent=9000\njunk_bytes_received=400\n"
+                        + "padding_bytes_sent=120\npadding_bytes_received=80\n"
+                        + "future_counter=7\npublic_key=" + KEY_B + "\ntx_packets=garbage\n"
+                        + "rx_packets=1\n");
+        assertEquals(2, counters.size());
+        final Statistics.PeerCounters a = counters.get(Key.fromHex(KEY_A));
+        final Statistics.LatencyStats none = new Statistics.LatencyStats(0, 0, 0, 0, 0, 0);
+        assertEquals(new Statistics.PeerCounters(10, 20, 3, 2, 1, 4, 15, 5,
+                new Statistics.OverheadStats(6, 9000, 400, 120, 80),
+                new Statistics.LatencyStats(3, 41000, 40959, 49151, 49151, 48000),
+                new Statistics.LatencyStats(1, 0, 0, 0, 0, 120000)), a);
+        assertEquals(10, a.droppedPackets());
+        assertEquals(9120, a.overhead().sentBytes());
+        assertEquals(480, a.overhead().receivedBytes());
+        assertEquals(new Statistics.PeerCounters(0, 1, 0, 0, 0, 0, 0, 0,
+                new Statistics.OverheadStats(0, 0, 0, 0, 0), none, none),
+                counters.get(Key.fromHex(KEY_B)));
+    }
+
+    @Test
+    public void ignores_counters_without_peer() {
+        assertTrue(Statistics.parsePeerCounters("tx_packets=10\npublic_key=invalid\nrx_packets=3\n").isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.backend;
+
+import org.amnezia.awg.backend.TunnelEventLog.Event;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TunnelEventLogTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Event> events(final int from, final int count) {
+        final List<Event> events = new ArrayList<>();
+        for (int i = from; i < from + count; ++i)
+            events.add(new Event(1000L + i, Event.Type.values()[i % 3], "wg" + i % 2, "event " + i));
+        return events;
+    }
+
+    @Test
+    public void reads_back_events_in_order() throws Exception {
+        final TunnelEventLog log = new TunnelEventLog(folder.getRoot(), 4096);
+        log.append(events(0, 3));
+        log.append(events(3, 2));
+        assertEquals(events(0, 5), log.read());
+    }
+
+    @Test
+    public void keeps_events_across_instances() throws Exception {
+        new TunnelEventLog(folder.getRoot(), 4096).append(events(0, 3));
+        final TunnelEventLog reopened = new TunnelEventLog(folder.getRoot(), 4096);
+        reopened.append(events(3, 1));
+        assertEquals(events(0, 4), reopened.read());
+    }
+
+    @Test
+    public void rotation_keeps_two_segments() throws Exception {
+        final TunnelEventLog log = new TunnelEventLog(folder.getRoot(), 1024);
+        for (int i = 0; i < 200; ++i)
+            log.append(events(i, 1));
+        final List<Event> read = log.read();
+        assertTrue(read.size() > 30 && read.size() < 200);
+        assertEquals(events(200 - read.size(), read.size()), read);
+        final File[] files = folder.getRoot().listFiles();
+        assertEquals(2, files.length);
+        for (final File file : files)
+            assertEquals(1024, file.length());
+    }
+
+    @Test
+    public void ignores_unfinished_record() throws Exception {
+        new TunnelEventLog(folder.getRoot(), 4096).append(events(0, 2));
+        // A record whose length was never written, as if the process died while appending it.
+        try (final RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "events-0.bin"), "rw")) {
+            file.seek(12 + 2 * (4 + 8 + 1 + 2 + 3 + 7) + 4);
+            file.writeLong(5000);
+        }
+        final TunnelEventLog reopened = new TunnelEventLog(folder.getRoot(), 4096);
+        reopened.append(events(2, 1));
+        assertEquals(events(0, 3), reopened.read());
+    }
+
+    @Test
+    public void truncates_long_messages() throws Exception {
+        final TunnelEventLog log = new TunnelEventLog(folder.getRoot(), 4096);
+        log.append(List.of(new Event(1, Event.Type.ERROR, "wg0", "x".repeat(2000))));
+        assertEquals(1024, log.read().get(0).message().length());
+    }
+
+    @Test
+    public void writes_logged_events_in_background() throws Exception {
+        final TunnelEventLog log = new TunnelEventLog(folder.getRoot(), 4096);
+        log.log(Event.Type.STATE_CHANGE, "wg0", "Tunnel UP");
+        for (int i = 0; i < 100 && log.read().isEmpty(); ++i)
+            Thread.sleep(10);
+        final List<Event> read = log.read();
+        assertEquals(1, read.size());
+        assertEquals(Event.Type.STATE_CHANGE, read.get(0).type());
+        assertEquals("Tunnel UP", read.get(0).message());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.crypto;
+
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatchKeyGeneratorTest {
+
+    @Test
+    public void generated_pairs_match_single_derivation() {
+        final PackedKeyPairs pairs = new BatchKeyGenerator().generate(300);
+        assertEquals(300, pairs.size());
+        final Set<Key> privateKeys = new HashSet<>();
+        for (int i = 0; i < pairs.size(); ++i) {
+            final KeyPair pair = pairs.getKeyPair(i);
+            assertEquals(new KeyPair(pair.getPrivateKey()).getPublicKey(), pair.getPublicKey());
+            final byte[] privateKey = pair.getPrivateKey().getBytes();
+            assertEquals(0, privateKey[0] & 7);
+            assertEquals(64, privateKey[31] & 192);
+            privateKeys.add(pair.getPrivateKey());
+        }
+        assertEquals(300, privateKeys.size());
+    }
+
+    @Test
+    public void packed_layout_is_private_then_public() {
+        final PackedKeyPairs pairs = new BatchKeyGenerator().generate(3);
+        final byte[] packed = pairs.toByteArray();
+        assertEquals(3 * PackedKeyPairs.ENTRY_LENGTH, packed.length);
+        for (int i = 0; i < 3; ++i) {
+            assertArrayEquals(pairs.getPrivateKey(i).getBytes(), Arrays.copyOfRange(packed, i * 64, i * 64 + 32));
+            assertArrayEquals(pairs.getPublicKey(i).getBytes(), Arrays.copyOfRange(packed, i * 64 + 32, i * 64 + 64));
+        }
+    }
+
+    @Test
+    public void derive_public_keys_matches_x25519() {
+        final byte[] privateKeys = new byte[1000 * 32];
+        new SecureRandom().nextBytes(privateKeys);
+        final byte[] publicKeys = BatchKeyGenerator.derivePublicKeys(privateKeys);
+        final byte[] expected = new byte[32];
+        for (int i = 0; i < 1000; ++i) {
+            X25519.generatePublicKey(expected, 0, Arrays.copyOfRange(privateKeys, i * 32, i * 32 + 32));
+            assertArrayEquals(expected, Arrays.copyOfRange(publicKeys, i * 32, i * 32 + 32));
+        }
+    }
+
+    @Test
+    public void empty_batch() {
+        assertEquals(0, new BatchKeyGenerator().generate(0).size());
+        assertEquals(0, BatchKeyGenerator.derivePublicKeys(new byte[0]).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncated_private_keys_throw() {
+        BatchKeyGenerator.derivePublicKeys(new byte[33]);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.crypto;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class X25519Test {
+
+    private static byte[] eval(final byte[] privateKey, final byte[] publicKey) {
+        final byte[] result = new byte[32];
+        X25519.eval(result, 0, privateKey, publicKey);
+        return result;
+    }
+
+    private static byte[] hex(final String str) throws KeyFormatException {
+        return Key.fromHex(str).getBytes();
+    }
+
+    @Test
+    public void rfc7748_scalar_multiplication_vectors() throws KeyFormatException {
+        assertArrayEquals(hex("c3da55379de9c6908e94ea4df28d084f32eccf03491c71f754b4075577a28552"),
+                eval(hex("a546e36bf0527c9d3b16154b82465edd62144c0ac1fc5a18506a2244ba449ac4"),
+                        hex("e6db6867583030db3594c1a424b15f7c726624ec26b3353b10a903a6d0ab1c4c")));
+        // The most significant bit of the u-coordinate must be ignored.
+        assertArrayEquals(hex("95cbde9476e8907d7aade45cb4b873f88b595a68799fa152e6f8f7647aac7957"),
+                eval(hex("4b66e9d4d1b4673c5ad22691957d6af5c11b6421e0ea01d42ca4169e7918ba0d"),
+                        hex("e5210f12786811d3f4b7959d0538ae2c31dbe7106fc03c3efc4cd549c715a493")));
+    }
+
+    @Test
+    public void rfc7748_iterated_vector() throws KeyFormatException {
+        byte[] k = hex("0900000000000000000000000000000000000000000000000000000000000000");
+        byte[] u = k.clone();
+        for (int i = 0; i < 1000; ++i) {
+            final byte[] next = eval(k, u);
+            u = k;
+            k = next;
+        }
+        assertArrayEquals(hex("684cf59ba83309552800ef566f2f4d3c1c3887c49360e3875f2eb94d99532c51"), k);
+    }
+
+    @Test
+    public void rfc7748_diffie_hellman() throws KeyFormatException {
+        final byte[] alicePrivate = hex("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+        final byte[] bobPrivate = hex("5dab087e624a8a4b79e17f8b83800ee66f3bb1292618b6fd1c2f8b27ff88e0eb");
+        final byte[] alicePublic = eval(alicePrivate, null);
+        final byte[] bobPublic = eval(bobPrivate, null);
+        assertArrayEquals(hex("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a"), alicePublic);
+        assertArrayEquals(hex("de9edb7d7b7dc1b4d35b61c2ece435373f8343c85b78674dadfc7e146f882b4f"), bobPublic);
+        final byte[] shared = hex("4a5d9d5ba4ce2de1728e3bf480350f25e07e21c947d19e3376f09b3c1e161742");
+        assertArrayEquals(shared, eval(alicePrivate, bobPublic));
+        assertArrayEquals(shared, eval(bobPrivate, alicePublic));
+    }
+
+    @Test
+    public void matches_curve25519() {
+        final Random random = new Random(25519);
+        final byte[] privateKey = new byte[32];
+        final byte[] publicKey = new byte[32];
+        final byte[] expected = new byte[32];
+        for (int i = 0; i < 256; ++i) {
+            random.nextBytes(privateKey);
+            random.nextBytes(publicKey);
+            publicKey[31] &= 127;
+            Curve25519.eval(expected, 0, privateKey, null);
+            assertArrayEquals(expected, eval(privateKey, null));
+            Curve25519.eval(expected, 0, privateKey, publicKey);
+            assertArrayEquals(expected, eval(privateKey, publicKey));
+        }
+    }
+
+    @Test
+    public void engines_agree_with_x25519() {
+        final Random random = new Random(7748);
+        final byte[] privateKey = new byte[32];
+        final byte[] expected = new byte[32];
+        final byte[] actual = new byte[32];
+        for (final X25519Engine engine : new X25519Engine[]{X25519Engine.getJava(), X25519Engine.getNative(), X25519Engine.getDefault()}) {
+            // The native engine is absent when libwg-go is not on the library path.
+            if (engine == null)
+                continue;
+            for (int i = 0; i < 32; ++i) {
+                random.nextBytes(privateKey);
+                X25519.generatePublicKey(expected, 0, privateKey);
+                engine.generatePublicKey(actual, privateKey);
+                assertArrayEquals(engine.getName(), expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void default_engine_is_java_until_library_loaded() {
+        X25519Engine.getNative();
+        assertSame(X25519Engine.getJava(), X25519Engine.getDefault());
+        X25519Engine.onLibraryLoaded();
+        final X25519Engine nativeEngine = X25519Engine.getNative();
+        assertSame(nativeEngine != null ? nativeEngine : X25519Engine.getJava(), X25519Engine.getDefault());
+    }
+
+    @Test
+    public void key_pair_uses_base_point() throws KeyFormatException {
+        final Key privateKey = Key.fromHex("77076d0a7318a57d3c16c17251b26645df4c2f87ebc0992ab177fba51db92c2a");
+        assertEquals(Key.fromHex("8520f0098930a754748b7ddcb43ef75a0dbf3a0d26381af4eba4a98eaa9b4e6a"),
+                new KeyPair(privateKey).getPublicKey());
+    }
+}
@@ -10,26 +10,33 @@ package main
 import "C"
 
 import (
+	"crypto/rand"
+	"encoding/hex"
 	"fmt"
 	"math"
 	"net"
+	"net/netip"
 	"os"
 	"os/signal"
 	"runtime"
 	"runtime/debug"
 	"strings"
+	"sync"
+	"time"
 	"unsafe"
 
 	"github.com/amnezia-vpn/amneziawg-go/conn"
 	"github.com/amnezia-vpn/amneziawg-go/device"
 	"github.com/amnezia-vpn/amneziawg-go/ipc"
 	"github.com/amnezia-vpn/amneziawg-go/tun"
+	"golang.org/x/crypto/curve25519"
 	"golang.org/x/sys/unix"
 )
 
 type AndroidLogger struct {
-	level C.int
-	tag   *C.char
+	level  C.int
+	tag    *C.char
+	tunnel string // forwards errors as events of this tunnel
 }
 
 func cstring(s string) *C.char {
@@ -42,15 +49,71 @@ func cstring(s string) *C.char {
 }
 
 func (l AndroidLogger) Printf(format string, args ...interface{}) {
-	C.__android_log_write(l.level, l.tag, cstring(fmt.Sprintf(format, args...)))
+	message := fmt.Sprintf(format, args...)
+	C.__android_log_write(l.level, l.tag, cstring(message))
+	if l.tunnel == "" {
+		return
+	}
+	if l.level == C.ANDROID_LOG_ERROR {
+		queueEvent(eventError, l.tunnel, message)
+	}
+}
+
+// handshakeEvents forwards the handshakes of a device as events of a tunnel.
+// Only completed handshakes and the first timeout of a run of retries are
+// forwarded, as the event log is persisted and an unreachable peer would
+// otherwise fill it with a timeout every few seconds. Initiations are left to
+// the peer counters.
+func handshakeEvents(tunnel string) device.HandshakeObserver {
+	var mu sync.Mutex
+	retrying := make(map[*device.Peer]bool)
+	return func(peer *device.Peer, event device.HandshakeEvent) {
+		switch event {
+		case device.HandshakeCompleted:
+			mu.Lock()
+			delete(retrying, peer)
+			mu.Unlock()
+		case device.HandshakeTimedOut:
+			mu.Lock()
+			first := !retrying[peer]
+			retrying[peer] = true
+			mu.Unlock()
+			if !first {
+				return
+			}
+		default:
+			return
+		}
+		queueEvent(eventHandshake, tunnel, fmt.Sprintf("%v - %v", peer, event))
+	}
 }
 
 type TunnelHandle struct {
 	device *device.Device
+	bind   *conn.StdNetBind
 	uapi   net.Listener
+	logger *device.Logger
 }
 
-var tunnelHandles map[int32]TunnelHandle
+var (
+	tunnelHandlesMu sync.RWMutex // guards tunnelHandles
+	tunnelHandles   map[int32]TunnelHandle
+)
+
+// lookupTunnel returns the tunnel with the given handle, if it is running.
+func lookupTunnel(tunnelHandle int32) (TunnelHandle, bool) {
+	tunnelHandlesMu.RLock()
+	defer tunnelHandlesMu.RUnlock()
+	handle, ok := tunnelHandles[tunnelHandle]
+	return handle, ok
+}
+
+// bindOptions configures the bind of devices created by subsequent calls to awgTurnOn.
+var bindOptions conn.StdNetBindOptions
+
+// junkBudget limits the junk bytes per minute sent by devices created by
+// subsequent calls to awgTurnOn; zero means unlimited.
+var junkBudget uint64
 
 func init() {
 	tunnelHandles = make(map[int32]TunnelHandle)
@@ -72,15 +135,66 @@ func init() {
 	}()
 }
 
+// awgSetRuntimeProfile configures the memory profile used by devices created
+// by subsequent calls to awgTurnOn. Zero sizes keep the platform defaults, a
+// non-positive gcPercent restores the default GC target, and a non-positive
+// memoryLimit removes the soft memory limit.
+//
+//export awgSetRuntimeProfile
+func awgSetRuntimeProfile(preallocatedBuffersPerPool, queueOutboundSize, queueInboundSize, queueHandshakeSize, gcPercent int32, memoryLimit int64) int32 {
+	if preallocatedBuffersPerPool < 0 || queueOutboundSize < 0 || queueInboundSize < 0 || queueHandshakeSize < 0 {
+		return -1
+	}
+	device.SetRuntimeLimits(device.RuntimeLimits{
+		PreallocatedBuffersPerPool: uint32(preallocatedBuffersPerPool),
+		QueueOutboundSize:          int(queueOutboundSize),
+		QueueInboundSize:           int(queueInboundSize),
+		QueueHandshakeSize:         int(queueHandshakeSize),
+	})
+	if gcPercent <= 0 {
+		gcPercent = 100
+	}
+	debug.SetGCPercent(int(gcPercent))
+	if memoryLimit <= 0 {
+		memoryLimit = math.MaxInt64
+	}
+	debug.SetMemoryLimit(memoryLimit)
+	return 0
+}
+
+//export awgSetBindOptions
+func awgSetBindOptions(batchSize int32, txOffload, rxOffload bool) int32 {
+	if batchSize < 0 {
+		return -1
+	}
+	bindOptions = conn.StdNetBindOptions{
+		BatchSize:        int(batchSize),
+		DisableTxOffload: !txOffload,
+		DisableRxOffload: !rxOffload,
+	}
+	return 0
+}
+
+//export awgSetJunkBudget
+func awgSetJunkBudget(bytesPerMinute int64) int32 {
+	if bytesPerMinute < 0 {
+		return -1
+	}
+	junkBudget = uint64(bytesPerMinute)
+	return 0
+}
+
 //export awgTurnOn
 func awgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
-	tag := cstring("AmneziaWG/" + interfaceName)
+	// The name points into memory that JNI releases once this returns.
+	tunnel := strings.Clone(interfaceName)
+	tag := cstring("AmneziaWG/" + tunnel)
 	logger := &device.Logger{
-		Verbosef: AndroidLogger{level: C.ANDROID_LOG_DEBUG, tag: tag}.Printf,
-		Errorf:   AndroidLogger{level: C.ANDROID_LOG_ERROR, tag: tag}.Printf,
+		Verbosef: AndroidLogger{level: C.ANDROID_LOG_DEBUG, tag: tag, tunnel: tunnel}.Printf,
+		Errorf:   AndroidLogger{level: C.ANDROID_LOG_ERROR, tag: tag, tunnel: tunnel}.Printf,
 	}
 
-	tun, name, err := tun.CreateUnmonitoredTUNFromFD(int(tunFd))
+	tunDevice, name, err := tun.CreateUnmonitoredTUNFromFD(int(tunFd))
 	if err != nil {
 		unix.Close(int(tunFd))
 		logger.Errorf("CreateUnmonitoredTUNFromFD: %v", err)
@@ -88,7 +202,10 @@ func awgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 	}
 
 	logger.Verbosef("Attaching to interface %v", name)
-	device := device.NewDevice(tun, conn.NewStdNetBind(), logger)
+	bind := conn.NewStdNetBindWithOptions(bindOptions).(*conn.StdNetBind)
+	device := device.NewDevice(tunDevice, bind, logger)
+	device.SetJunkBudget(junkBudget)
+	device.SetHandshakeObserver(handshakeEvents(tunnel))
 
 	err = device.IpcSet(settings)
 	if err != nil {
@@ -115,7 +232,7 @@ func awgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 					if err != nil {
 						return
 					}
-					go device.IpcHandle(conn)
+					go handleUAPI(device, logger, conn)
 				}
 			}()
 		}
@@ -130,6 +247,8 @@ func awgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 	}
 	logger.Verbosef("Device started")
 
+	tunnelHandlesMu.Lock()
+	defer tunnelHandlesMu.Unlock()
 	var i int32
 	for i = 0; i < math.MaxInt32; i++ {
 		if _, exists := tunnelHandles[i]; !exists {
@@ -142,26 +261,57 @@ func awgTurnOn(interfaceName string, tunFd int32, settings string) int32 {
 		device.Close()
 		return -1
 	}
-	tunnelHandles[i] = TunnelHandle{device: device, uapi: uapi}
+	tunnelHandles[i] = TunnelHandle{device: device, bind: bind, uapi: uapi, logger: logger}
 	return i
 }
 
 //export awgTurnOff
 func awgTurnOff(tunnelHandle int32) {
+	tunnelHandlesMu.Lock()
 	handle, ok := tunnelHandles[tunnelHandle]
+	delete(tunnelHandles, tunnelHandle)
+	tunnelHandlesMu.Unlock()
 	if !ok {
 		return
 	}
-	delete(tunnelHandles, tunnelHandle)
 	if handle.uapi != nil {
 		handle.uapi.Close()
 	}
 	handle.device.Close()
 }
 
+//export awgGetPeerStats
+func awgGetPeerStats(tunnelHandle int32) *C.char {
+	handle, ok := lookupTunnel(tunnelHandle)
+	if !ok {
+		return nil
+	}
+	var b strings.Builder
+	for pk, c := range handle.device.PeerCounters() {
+		fmt.Fprintf(&b, "public_key=%s\n", hex.EncodeToString(pk[:]))
+		fmt.Fprintf(&b, "tx_packets=%d\nrx_packets=%d\n", c.TxPackets, c.RxPackets)
+		fmt.Fprintf(&b, "handshake_attempts=%d\nhandshake_failures=%d\n", c.HandshakeAttempts, c.HandshakeFailures)
+		fmt.Fprintf(&b, "decrypt_failures=%d\nreplay_drops=%d\n", c.DecryptFailures, c.ReplayDrops)
+		fmt.Fprintf(&b, "junk_packets_sent=%d\njunk_packets_skipped=%d\n", c.JunkPacketsSent, c.JunkPacketsSkipped)
+		fmt.Fprintf(&b, "junk_bytes_sent=%d\njunk_bytes_received=%d\n", c.JunkBytesSent, c.JunkBytesReceived)
+		fmt.Fprintf(&b, "padding_bytes_sent=%d\npadding_bytes_received=%d\n", c.PaddingBytesSent, c.PaddingBytesReceived)
+		fmt.Fprintf(&b, "queue_drops=%d\n", c.QueueDrops)
+		writeLatency(&b, "handshake_rtt", c.HandshakeRTT)
+		writeLatency(&b, "first_data", c.TimeToFirstData)
+	}
+	return C.CString(b.String())
+}
+
+func writeLatency(b *strings.Builder, name string, s device.LatencySnapshot) {
+	fmt.Fprintf(b, "%s_count=%d\n", name, s.Count)
+	fmt.Fprintf(b, "%s_mean_us=%d\n%s_p50_us=%d\n", name, s.Mean.Microseconds(), name, s.P50.Microseconds())
+	fmt.Fprintf(b, "%s_p90_us=%d\n%s_p99_us=%d\n", name, s.P90.Microseconds(), name, s.P99.Microseconds())
+	fmt.Fprintf(b, "%s_max_us=%d\n", name, s.Max.Microseconds())
+}
+
 //export awgGetSocketV4
 func awgGetSocketV4(tunnelHandle int32) int32 {
-	handle, ok := tunnelHandles[tunnelHandle]
+	handle, ok := lookupTunnel(tunnelHandle)
 	if !ok {
 		return -1
 	}
@@ -178,7 +328,7 @@ func awgGetSocketV4(tunnelHandle int32) int32 {
 
 //export awgGetSocketV6
 func awgGetSocketV6(tunnelHandle int32) int32 {
-	handle, ok := tunnelHandles[tunnelHandle]
+	handle, ok := lookupTunnel(tunnelHandle)
 	if !ok {
 		return -1
 	}
@@ -195,7 +345,7 @@ func awgGetSocketV6(tunnelHandle int32) int32 {
 
 //export awgGetConfig
 func awgGetConfig(tunnelHandle int32) *C.char {
-	handle, ok := tunnelHandles[tunnelHandle]
+	handle, ok := lookupTunnel(tunnelHandle)
 	if !ok {
 		return nil
 	}
@@ -206,6 +356,60 @@ func awgGetConfig(tunnelHandle int32) *C.char {
 	return C.CString(settings)
 }
 
+// awgProbeMtu blocks while it probes the largest MTU of the tunnel with echo
+// requests from source to target, and returns it or -1 on failure.
+//
+//export awgProbeMtu
+func awgProbeMtu(tunnelHandle int32, source, target string, linkMTU int32) int32 {
+	handle, ok := lookupTunnel(tunnelHandle)
+	if !ok {
+		return -1
+	}
+	src, err := netip.ParseAddr(source)
+	if err != nil {
+		return -1
+	}
+	dst, err := netip.ParseAddr(target)
+	if err != nil {
+		return -1
+	}
+	result, err := handle.device.ProbeMTU(src, dst, int(linkMTU), time.Second)
+	if err != nil {
+		handle.logger.Verbosef("MTU probe failed: %v", err)
+		return -1
+	}
+	return int32(result.MTU)
+}
+
+//export awgRuntimeStats
+func awgRuntimeStats(tunnelHandle int32) *C.char {
+	var m runtime.MemStats
+	runtime.ReadMemStats(&m)
+	var b strings.Builder
+	fmt.Fprintf(&b, "heap_inuse=%d\n", m.HeapInuse)
+	fmt.Fprintf(&b, "heap_released=%d\n", m.HeapReleased)
+	fmt.Fprintf(&b, "gc_count=%d\n", m.NumGC)
+	fmt.Fprintf(&b, "gc_pause_total_ns=%d\n", m.PauseTotalNs)
+	fmt.Fprintf(&b, "goroutines=%d\n", runtime.NumGoroutine())
+	if handle, ok := lookupTunnel(tunnelHandle); ok {
+		pools := handle.device.PoolStats()
+		fmt.Fprintf(&b, "inbound_pool_outstanding=%d\ninbound_pool_max=%d\n", pools.InboundElements.Outstanding, pools.InboundElements.Max)
+		fmt.Fprintf(&b, "outbound_pool_outstanding=%d\noutbound_pool_max=%d\n", pools.OutboundElements.Outstanding, pools.OutboundElements.Max)
+		fmt.Fprintf(&b, "message_pool_outstanding=%d\nmessage_pool_max=%d\n", pools.MessageBuffers.Outstanding, pools.MessageBuffers.Max)
+		ts := handle.device.TUNReadStats()
+		fmt.Fprintf(&b, "tun_queue_0_reads=%d\ntun_queue_0_packets=%d\ntun_queue_0_bytes=%d\n", ts.Reads, ts.Packets, ts.Bytes)
+		if probe := handle.device.LastMTUProbe(); probe != nil {
+			fmt.Fprintf(&b, "mtu_probe_mtu=%d\nmtu_probe_probes=%d\nmtu_probe_ms=%d\n", probe.MTU, probe.Probes, probe.Duration.Milliseconds())
+		}
+		bs := handle.bind.Stats()
+		fmt.Fprintf(&b, "bind_batch_size=%d\n", handle.bind.BatchSize())
+		fmt.Fprintf(&b, "bind_send_calls=%d\nbind_send_messages=%d\nbind_send_segments=%d\n", bs.SendCalls, bs.SendMessages, bs.SendSegments)
+		fmt.Fprintf(&b, "bind_recv_batches=%d\nbind_recv_messages=%d\nbind_recv_segments=%d\n", bs.RecvBatches, bs.RecvMessages, bs.RecvSegments)
+		fmt.Fprintf(&b, "bind_tx_offload=%t\nbind_rx_offload=%t\n", bs.TxOffload4 || bs.TxOffload6, bs.RxOffload4 || bs.RxOffload6)
+	}
+	return C.CString(b.String())
+}
+
 //export awgVersion
 func awgVersion() *C.char {
 	info, ok := debug.ReadBuildInfo()
@@ -224,4 +428,74 @@ func awgVersion() *C.char {
 	return C.CString("unknown")
 }
 
+func generatePublicKeys(publicKeys, privateKeys []byte, count int, privateStride, publicStride int) int32 {
+	for i := 0; i < count; i++ {
+		privateKey := privateKeys[i*privateStride : i*privateStride+curve25519.ScalarSize]
+		publicKey, err := curve25519.X25519(privateKey, curve25519.Basepoint)
+		if err != nil {
+			return -1
+		}
+		copy(publicKeys[i*publicStride:i*publicStride+curve25519.PointSize], publicKey)
+	}
+	return 0
+}
+
+func generatePrivateKeys(privateKeys []byte, count int, stride int) int32 {
+	random := make([]byte, count*curve25519.ScalarSize)
+	defer clear(random)
+	if _, err := rand.Read(random); err != nil {
+		return -1
+	}
+	for i := 0; i < count; i++ {
+		privateKey := privateKeys[i*stride : i*stride+curve25519.ScalarSize]
+		copy(privateKey, random[i*curve25519.ScalarSize:])
+		privateKey[0] &= 248
+		privateKey[31] = (privateKey[31] & 127) | 64
+	}
+	return 0
+}
+
+//export awgGeneratePublicKey
+func awgGeneratePublicKey(publicKey unsafe.Pointer, privateKey unsafe.Pointer) int32 {
+	return generatePublicKeys(
+		unsafe.Slice((*byte)(publicKey), curve25519.PointSize),
+		unsafe.Slice((*byte)(privateKey), curve25519.ScalarSize),
+		1, curve25519.ScalarSize, curve25519.PointSize)
+}
+
+//export awgGenerateKeyPair
+func awgGenerateKeyPair(privateKey unsafe.Pointer, publicKey unsafe.Pointer) int32 {
+	private := unsafe.Slice((*byte)(privateKey), curve25519.ScalarSize)
+	if ret := generatePrivateKeys(private, 1, curve25519.ScalarSize); ret != 0 {
+		return ret
+	}
+	return awgGeneratePublicKey(publicKey, privateKey)
+}
+
+//export awgGeneratePublicKeys
+func awgGeneratePublicKeys(publicKeys unsafe.Pointer, privateKeys unsafe.Pointer, count int32) int32 {
+	if count <= 0 {
+		return 0
+	}
+	return generatePublicKeys(
+		unsafe.Slice((*byte)(publicKeys), int(count)*curve25519.PointSize),
+		unsafe.Slice((*byte)(privateKeys), int(count)*curve25519.ScalarSize),
+		int(count), curve25519.ScalarSize, curve25519.PointSize)
+}
+
+// awgGenerateKeyPairs fills count packed 64-byte entries, each a private key followed by its public key.
+//
+//export awgGenerateKeyPairs
+func awgGenerateKeyPairs(keyPairs unsafe.Pointer, count int32) int32 {
+	if count <= 0 {
+		return 0
+	}
+	const stride = curve25519.ScalarSize + curve25519.PointSize
+	packed := unsafe.Slice((*byte)(keyPairs), int(count)*stride)
+	if ret := generatePrivateKeys(packed, int(count), stride); ret != 0 {
+		return ret
+	}
+	return generatePublicKeys(packed[curve25519.ScalarSize:], packed, int(count), stride, stride)
+}
+
 func main() {}
@@ -0,0 +1,62 @@
+/* SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2017-2022 Jason A. Donenfeld <Jason@zx2c4.com>. All Rights Reserved.
+ */
+
+package main
+
+import "C"
+
+import (
+	"fmt"
+	"strings"
+	"sync"
+	"time"
+)
+
+const (
+	eventHandshake = 'H'
+	eventError     = 'E'
+
+	maxPendingEvents = 1024
+)
+
+// tunnelEvents holds the handshake and error messages of all tunnels until
+// awgTakeEvents hands them to the persistent event log on the Java side. The
+// oldest events are dropped if it falls behind.
+var tunnelEvents struct {
+	sync.Mutex
+	ready   *sync.Cond
+	pending []string
+}
+
+func init() {
+	tunnelEvents.ready = sync.NewCond(&tunnelEvents)
+}
+
+func queueEvent(kind byte, tunnel, message string) {
+	line := fmt.Sprintf("%d %c %s %s", time.Now().UnixMilli(), kind, tunnel, strings.ReplaceAll(message, "\n", " "))
+	tunnelEvents.Lock()
+	if len(tunnelEvents.pending) == maxPendingEvents {
+		tunnelEvents.pending = tunnelEvents.pending[1:]
+	}
+	tunnelEvents.pending = append(tunnelEvents.pending, line)
+	tunnelEvents.Unlock()
+	tunnelEvents.ready.Signal()
+}
+
+// awgTakeEvents blocks until there are tunnel events and returns them one per
+// line, each being the time in milliseconds since the epoch, the kind, the
+// tunnel name and the message, separated by spaces.
+//
+//export awgTakeEvents
+func awgTakeEvents() *C.char {
+	tunnelEvents.Lock()
+	for len(tunnelEvents.pending) == 0 {
+		tunnelEvents.ready.Wait()
+	}
+	events := tunnelEvents.pending
+	tunnelEvents.pending = nil
+	tunnelEvents.Unlock()
+	return C.CString(strings.Join(events, "\n"))
+}
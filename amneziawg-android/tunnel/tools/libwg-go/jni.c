@@ -13,7 +13,36 @@ extern void awgTurnOff(int handle);
 extern int awgGetSocketV4(int handle);
 extern int awgGetSocketV6(int handle);
 extern char *awgGetConfig(int handle);
+extern char *awgGetPeerStats(int handle);
 extern char *awgVersion();
+extern char *awgRuntimeStats(int handle);
+extern int awgGeneratePublicKey(void *public_key, void *private_key);
+extern int awgGenerateKeyPair(void *private_key, void *public_key);
+extern int awgGeneratePublicKeys(void *public_keys, void *private_keys, int count);
+extern int awgGenerateKeyPairs(void *key_pairs, int count);
+extern int awgSetBindOptions(int batch_size, unsigned char tx_offload, unsigned char rx_offload);
+extern int awgSetJunkBudget(long long bytes_per_minute);
+extern int awgProbeMtu(int handle, struct go_string source, struct go_string target, int link_mtu);
+extern void awgSetProfileDirectory(struct go_string dir);
+extern char *awgCaptureProfile(struct go_string kind, int seconds);
+extern char *awgTakeEvents();
+extern int awgSetRuntimeProfile(int preallocated_buffers_per_pool, int queue_outbound_size, int queue_inbound_size, int queue_handshake_size, int gc_percent, long long memory_limit);
+
+#define AWG_KEY_LEN 32
+
+static void wipe(void *buf, size_t len)
+{
+	volatile unsigned char *p = buf;
+	while (len--)
+		*p++ = 0;
+}
+
+static void *direct_buffer(JNIEnv *env, jobject buffer, jlong min_capacity)
+{
+	if (!buffer || (*env)->GetDirectBufferCapacity(env, buffer) < min_capacity)
+		return NULL;
+	return (*env)->GetDirectBufferAddress(env, buffer);
+}
 
 JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgTurnOn(JNIEnv *env, jclass c, jstring ifname, jint tun_fd, jstring settings)
 {
@@ -33,6 +62,49 @@ JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgTurnOn(JNIEnv *env, jcl
 	return ret;
 }
 
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgSetBindOptions(JNIEnv *env, jclass c, jint batch_size, jboolean tx_offload, jboolean rx_offload)
+{
+	return awgSetBindOptions(batch_size, tx_offload, rx_offload);
+}
+
+JNIEXPORT void JNICALL Java_org_amnezia_awg_GoBackend_awgSetProfileDirectory(JNIEnv *env, jclass c, jstring dir)
+{
+	const char *dir_str = (*env)->GetStringUTFChars(env, dir, 0);
+	size_t dir_len = (*env)->GetStringUTFLength(env, dir);
+	awgSetProfileDirectory((struct go_string){
+		.str = dir_str,
+		.n = dir_len
+	});
+	(*env)->ReleaseStringUTFChars(env, dir, dir_str);
+}
+
+JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgCaptureProfile(JNIEnv *env, jclass c, jstring kind, jint seconds)
+{
+	jstring ret;
+	const char *kind_str = (*env)->GetStringUTFChars(env, kind, 0);
+	size_t kind_len = (*env)->GetStringUTFLength(env, kind);
+	char *path = awgCaptureProfile((struct go_string){
+		.str = kind_str,
+		.n = kind_len
+	}, seconds);
+	(*env)->ReleaseStringUTFChars(env, kind, kind_str);
+	if (!path)
+		return NULL;
+	ret = (*env)->NewStringUTF(env, path);
+	free(path);
+	return ret;
+}
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgSetJunkBudget(JNIEnv *env, jclass c, jlong bytes_per_minute)
+{
+	return awgSetJunkBudget(bytes_per_minute);
+}
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgSetRuntimeProfile(JNIEnv *env, jclass c, jint preallocated_buffers_per_pool, jint queue_outbound_size, jint queue_inbound_size, jint queue_handshake_size, jint gc_percent, jlong memory_limit)
+{
+	return awgSetRuntimeProfile(preallocated_buffers_per_pool, queue_outbound_size, queue_inbound_size, queue_handshake_size, gc_percent, memory_limit);
+}
+
 JNIEXPORT void JNICALL Java_org_amnezia_awg_GoBackend_awgTurnOff(JNIEnv *env, jclass c, jint handle)
 {
 	awgTurnOff(handle);
@@ -59,6 +131,57 @@ JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgGetConfig(JNIEnv *en
 	return ret;
 }
 
+JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgGetPeerStats(JNIEnv *env, jclass c, jint handle)
+{
+	jstring ret;
+	char *stats = awgGetPeerStats(handle);
+	if (!stats)
+		return NULL;
+	ret = (*env)->NewStringUTF(env, stats);
+	free(stats);
+	return ret;
+}
+
+JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgRuntimeStats(JNIEnv *env, jclass c, jint handle)
+{
+	jstring ret;
+	char *stats = awgRuntimeStats(handle);
+	if (!stats)
+		return NULL;
+	ret = (*env)->NewStringUTF(env, stats);
+	free(stats);
+	return ret;
+}
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgProbeMtu(JNIEnv *env, jclass c, jint handle, jstring source, jstring target, jint link_mtu)
+{
+	const char *source_str = (*env)->GetStringUTFChars(env, source, 0);
+	size_t source_len = (*env)->GetStringUTFLength(env, source);
+	const char *target_str = (*env)->GetStringUTFChars(env, target, 0);
+	size_t target_len = (*env)->GetStringUTFLength(env, target);
+	int ret = awgProbeMtu(handle, (struct go_string){
+		.str = source_str,
+		.n = source_len
+	}, (struct go_string){
+		.str = target_str,
+		.n = target_len
+	}, link_mtu);
+	(*env)->ReleaseStringUTFChars(env, source, source_str);
+	(*env)->ReleaseStringUTFChars(env, target, target_str);
+	return ret;
+}
+
+JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgTakeEvents(JNIEnv *env, jclass c)
+{
+	jstring ret;
+	char *events = awgTakeEvents();
+	if (!events)
+		return NULL;
+	ret = (*env)->NewStringUTF(env, events);
+	free(events);
+	return ret;
+}
+
 JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgVersion(JNIEnv *env, jclass c)
 {
 	jstring ret;
@@ -69,3 +192,59 @@ JNIEXPORT jstring JNICALL Java_org_amnezia_awg_GoBackend_awgVersion(JNIEnv *env,
 	free(version);
 	return ret;
 }
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgGeneratePublicKey(JNIEnv *env, jclass c, jbyteArray public_key, jbyteArray private_key)
+{
+	jbyte public_bytes[AWG_KEY_LEN], private_bytes[AWG_KEY_LEN];
+	int ret;
+
+	if ((*env)->GetArrayLength(env, public_key) != AWG_KEY_LEN || (*env)->GetArrayLength(env, private_key) != AWG_KEY_LEN)
+		return -1;
+	(*env)->GetByteArrayRegion(env, private_key, 0, AWG_KEY_LEN, private_bytes);
+	ret = awgGeneratePublicKey(public_bytes, private_bytes);
+	if (!ret)
+		(*env)->SetByteArrayRegion(env, public_key, 0, AWG_KEY_LEN, public_bytes);
+	wipe(private_bytes, sizeof(private_bytes));
+	return ret;
+}
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgGenerateKeyPair(JNIEnv *env, jclass c, jbyteArray private_key, jbyteArray public_key)
+{
+	jbyte private_bytes[AWG_KEY_LEN], public_bytes[AWG_KEY_LEN];
+	int ret;
+
+	if ((*env)->GetArrayLength(env, private_key) != AWG_KEY_LEN || (*env)->GetArrayLength(env, public_key) != AWG_KEY_LEN)
+		return -1;
+	ret = awgGenerateKeyPair(private_bytes, public_bytes);
+	if (!ret) {
+		(*env)->SetByteArrayRegion(env, private_key, 0, AWG_KEY_LEN, private_bytes);
+		(*env)->SetByteArrayRegion(env, public_key, 0, AWG_KEY_LEN, public_bytes);
+	}
+	wipe(private_bytes, sizeof(private_bytes));
+	return ret;
+}
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgGeneratePublicKeys(JNIEnv *env, jclass c, jobject public_keys, jobject private_keys, jint count)
+{
+	void *public_addr, *private_addr;
+
+	if (count < 0)
+		return -1;
+	public_addr = direct_buffer(env, public_keys, (jlong)count * AWG_KEY_LEN);
+	private_addr = direct_buffer(env, private_keys, (jlong)count * AWG_KEY_LEN);
+	if (!public_addr || !private_addr)
+		return -1;
+	return awgGeneratePublicKeys(public_addr, private_addr, count);
+}
+
+JNIEXPORT jint JNICALL Java_org_amnezia_awg_GoBackend_awgGenerateKeyPairs(JNIEnv *env, jclass c, jobject key_pairs, jint count)
+{
+	void *addr;
+
+	if (count < 0)
+		return -1;
+	addr = direct_buffer(env, key_pairs, (jlong)count * 2 * AWG_KEY_LEN);
+	if (!addr)
+		return -1;
+	return awgGenerateKeyPairs(addr, count);
+}
@@ -0,0 +1,172 @@
+/* SPDX-License-Identifier: Apache-2.0
+ *
+ * Copyright © 2017-2022 Jason A. Donenfeld <Jason@zx2c4.com>. All Rights Reserved.
+ */
+
+package main
+
+import "C"
+
+import (
+	"bufio"
+	"errors"
+	"fmt"
+	"io"
+	"net"
+	"os"
+	"path/filepath"
+	"runtime/pprof"
+	"runtime/trace"
+	"strconv"
+	"strings"
+	"sync"
+	"time"
+
+	"github.com/amnezia-vpn/amneziawg-go/device"
+	"github.com/amnezia-vpn/amneziawg-go/ipc"
+)
+
+const maxProfileSeconds = 120
+
+var (
+	profileDir   string
+	profileMutex sync.Mutex // serializes CPU profiles and traces, of which only one may run at a time
+)
+
+//export awgSetProfileDirectory
+func awgSetProfileDirectory(dir string) {
+	profileDir = strings.Clone(dir)
+}
+
+//export awgCaptureProfile
+func awgCaptureProfile(kind string, seconds int32) *C.char {
+	path, err := captureProfile(kind, int(seconds))
+	if err != nil {
+		return nil
+	}
+	return C.CString(path)
+}
+
+// captureProfile writes a profile of the given kind, which is one of
+// "pprof_cpu", "pprof_heap" and "trace", into profileDir and returns its
+// path. CPU profiles and traces cover the given number of seconds, during
+// which the call blocks.
+func captureProfile(kind string, seconds int) (string, error) {
+	if profileDir == "" {
+		return "", errors.New("profile directory not set")
+	}
+	if kind != "pprof_heap" && (seconds < 1 || seconds > maxProfileSeconds) {
+		return "", fmt.Errorf("duration must be between 1 and %d seconds", maxProfileSeconds)
+	}
+	if err := os.MkdirAll(profileDir, 0o700); err != nil {
+		return "", err
+	}
+	name := fmt.Sprintf("%s-%s.pb.gz", kind, time.Now().Format("20060102-150405"))
+	if kind == "trace" {
+		name = strings.TrimSuffix(name, ".pb.gz") + ".out"
+	}
+	path := filepath.Join(profileDir, name)
+
+	switch kind {
+	case "pprof_heap":
+		err := writeProfile(path, func(f *os.File) error {
+			return pprof.Lookup("heap").WriteTo(f, 0)
+		})
+		return path, err
+	case "pprof_cpu":
+		if !profileMutex.TryLock() {
+			return "", errors.New("another profile is being captured")
+		}
+		defer profileMutex.Unlock()
+		err := writeProfile(path, func(f *os.File) error {
+			if err := pprof.StartCPUProfile(f); err != nil {
+				return err
+			}
+			time.Sleep(time.Duration(seconds) * time.Second)
+			pprof.StopCPUProfile()
+			return nil
+		})
+		return path, err
+	case "trace":
+		if !profileMutex.TryLock() {
+			return "", errors.New("another profile is being captured")
+		}
+		defer profileMutex.Unlock()
+		err := writeProfile(path, func(f *os.File) error {
+			if err := trace.Start(f); err != nil {
+				return err
+			}
+			time.Sleep(time.Duration(seconds) * time.Second)
+			trace.Stop()
+			return nil
+		})
+		return path, err
+	}
+	return "", fmt.Errorf("unknown profile kind %q", kind)
+}
+
+func writeProfile(path string, write func(*os.File) error) error {
+	f, err := os.OpenFile(path, os.O_WRONLY|os.O_CREATE|os.O_TRUNC, 0o600)
+	if err != nil {
+		return err
+	}
+	err = write(f)
+	if closeErr := f.Close(); err == nil {
+		err = closeErr
+	}
+	if err != nil {
+		os.Remove(path)
+	}
+	return err
+}
+
+// replayConn replays data already read from a connection before reading
+// further from it.
+type replayConn struct {
+	net.Conn
+	reader io.Reader
+}
+
+func (c replayConn) Read(b []byte) (int, error) {
+	return c.reader.Read(b)
+}
+
+// handleUAPI serves the profiling operations "get=pprof_cpu:<seconds>",
+// "get=pprof_heap" and "get=trace:<seconds>", each followed by an empty line,
+// when sent as the only operation on a connection, and passes every other
+// connection on to the device. A profiling operation is answered with the path
+// of the written file and an errno line.
+func handleUAPI(dev *device.Device, logger *device.Logger, conn net.Conn) {
+	reader := bufio.NewReader(conn)
+	line, err := reader.ReadString('\n')
+	if err != nil {
+		conn.Close()
+		return
+	}
+	if !strings.HasPrefix(line, "get=pprof_") && !strings.HasPrefix(line, "get=trace:") {
+		dev.IpcHandle(replayConn{conn, io.MultiReader(strings.NewReader(line), reader)})
+		return
+	}
+	defer conn.Close()
+
+	if empty, err := reader.ReadString('\n'); err != nil || empty != "\n" {
+		fmt.Fprintf(conn, "errno=%d\n\n", ipc.IpcErrorProtocol)
+		return
+	}
+	kind, arg, _ := strings.Cut(strings.TrimSuffix(strings.TrimPrefix(line, "get="), "\n"), ":")
+	seconds := 0
+	if arg != "" {
+		seconds, err = strconv.Atoi(arg)
+		if err != nil {
+			fmt.Fprintf(conn, "errno=%d\n\n", ipc.IpcErrorInvalid)
+			return
+		}
+	}
+	path, err := captureProfile(kind, seconds)
+	if err != nil {
+		logger.Errorf("Unable to capture %s: %v", kind, err)
+		fmt.Fprintf(conn, "errno=%d\n\n", ipc.IpcErrorInvalid)
+		return
+	}
+	fmt.Fprintf(conn, "path=%s\nerrno=0\n\n", path)
+}
@@ -7,9 +7,11 @@ package org.amnezia.awg
 import android.content.Context
 import android.content.Intent
 import android.os.Build
+import android.os.Looper
 import android.os.StrictMode
 import android.os.StrictMode.ThreadPolicy
 import android.os.StrictMode.VmPolicy
+import android.provider.Settings
 import android.util.Log
 import androidx.appcompat.app.AppCompatDelegate
 import androidx.datastore.core.DataStore
@@ -20,9 +22,13 @@ import com.google.android.material.color.DynamicColors
 import org.amnezia.awg.backend.Backend
 import org.amnezia.awg.backend.GoBackend
 import org.amnezia.awg.backend.AwgQuickBackend
+import org.amnezia.awg.backend.TunnelEventLog
 import org.amnezia.awg.configStore.FileConfigStore
+import org.amnezia.awg.model.PackageCatalog
 import org.amnezia.awg.model.TunnelManager
 import org.amnezia.awg.util.RootShell
+import org.amnezia.awg.util.StartupTrace
+import org.amnezia.awg.util.StartupTrace.Phase
 import org.amnezia.awg.util.ToolsInstaller
 import org.amnezia.awg.util.UserKnobs
 import org.amnezia.awg.util.applicationScope
@@ -30,12 +36,14 @@ import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import java.io.File
 import java.lang.ref.WeakReference
 import java.util.Locale
 
@@ -43,10 +51,13 @@ class Application : android.app.Application() {
     private val futureBackend = CompletableDeferred<Backend>()
     private val coroutineScope = CoroutineScope(Job() + Dispatchers.Main.immediate)
     private var backend: Backend? = null
-    private lateinit var rootShell: RootShell
+    private lateinit var packageCatalog: PackageCatalog
+    private val rootShell by lazy { RootShell(applicationContext) }
     private lateinit var preferencesDataStore: DataStore<Preferences>
-    private lateinit var toolsInstaller: ToolsInstaller
+    private val startupTrace = StartupTrace()
+    private val toolsInstaller by lazy { ToolsInstaller(applicationContext, rootShell) }
     private lateinit var tunnelManager: TunnelManager
+    private val tunnelEventLog by lazy { TunnelEventLog(File(filesDir, "events")) }
 
     override fun attachBaseContext(context: Context) {
         super.attachBaseContext(context)
@@ -60,24 +71,58 @@ class Application : android.app.Application() {
         }
     }
 
+    /**
+     * Choose the backend to use. The kernel module backend needs root, and checking for it spawns
+     * su, so once root access turned out to be missing or denied, later starts until the next
+     * reboot go straight to the userspace backend. Other failures to start the root shell are not
+     * remembered. The kernel module backend is only chosen once the root shell has started, so
+     * that revoking root falls back to the userspace backend. Lacking kernel support is not
+     * remembered, as the module may be installed later. Toggling the kernel module preference
+     * forgets the choice.
+     */
     private suspend fun determineBackend(): Backend {
         var backend: Backend? = null
-        if (UserKnobs.enableKernelModule.first() && AwgQuickBackend.hasKernelSupport()) {
+        val lastBackend = UserKnobs.lastBackend.first()
+        val bootCount = Settings.Global.getInt(contentResolver, Settings.Global.BOOT_COUNT, 0)
+        val rootUnavailableThisBoot = "$BACKEND_GO@$bootCount"
+        var rootUnavailable = lastBackend == rootUnavailableThisBoot
+        if (UserKnobs.enableKernelModule.first() && !rootUnavailable && AwgQuickBackend.hasKernelSupport()) {
             try {
                 rootShell.start()
                 val awgQuickBackend = AwgQuickBackend(applicationContext, rootShell, toolsInstaller)
                 awgQuickBackend.setMultipleTunnels(UserKnobs.multipleTunnels.first())
+                awgQuickBackend.setEventLog(tunnelEventLog)
                 backend = awgQuickBackend
                 UserKnobs.multipleTunnels.onEach {
                     awgQuickBackend.setMultipleTunnels(it)
                 }.launchIn(coroutineScope)
-            } catch (ignored: Exception) {
+            } catch (e: Exception) {
+                Log.w(TAG, "Unable to start root shell, falling back to the Go backend", e)
+                rootUnavailable = e is RootShell.RootShellException && !e.isIORelated
             }
         }
         if (backend == null) {
-            backend = GoBackend(applicationContext)
+            val goBackend = GoBackend(applicationContext)
+            goBackend.setEventLog(tunnelEventLog)
+            goBackend.setInstalledPackages { packageCatalog.isInstalled(it) }
             GoBackend.setAlwaysOnCallback { get().applicationScope.launch { get().tunnelManager.restoreState(true) } }
+            // Load the native library once the main thread has nothing else to do, which is after
+            // the first activity has been drawn, unless a tunnel needs it sooner.
+            coroutineScope.launch {
+                Looper.myQueue().addIdleHandler {
+                    goBackend.loadLibrary()
+                    false
+                }
+            }
+            backend = goBackend
+        }
+        val chosenBackend = when {
+            backend is AwgQuickBackend -> BACKEND_AWG_QUICK
+            rootUnavailable -> rootUnavailableThisBoot
+            else -> null
         }
+        if (chosenBackend != lastBackend)
+            UserKnobs.setLastBackend(chosenBackend)
         return backend
     }
 
@@ -85,12 +130,29 @@ class Application : android.app.Application() {
         Log.i(TAG, USER_AGENT)
         super.onCreate()
         DynamicColors.applyToActivitiesIfAvailable(this)
-        rootShell = RootShell(applicationContext)
-        toolsInstaller = ToolsInstaller(applicationContext, rootShell)
+        packageCatalog = PackageCatalog(applicationContext)
+        packageCatalog.start(coroutineScope)
+        var phaseStart = startupTrace.record(Phase.APPLICATION_CREATE)
         preferencesDataStore = PreferenceDataStoreFactory.create { applicationContext.preferencesDataStoreFile("settings") }
+        phaseStart = startupTrace.record(Phase.PREFERENCES, phaseStart)
+        coroutineScope.launch(Dispatchers.IO) {
+            try {
+                backend = determineBackend()
+                futureBackend.complete(backend!!)
+                startupTrace.record(Phase.BACKEND_SELECTION)
+                Log.d(TAG, "Chose ${backend!!.javaClass.simpleName} after ${startupTrace.getDurationNanos(Phase.BACKEND_SELECTION) / 1000000}ms")
+            } catch (e: Throwable) {
+                Log.e(TAG, Log.getStackTraceString(e))
+            }
+        }
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            // Read the theme while the tunnel manager is set up, but still before any activity.
+            val darkTheme = coroutineScope.async(Dispatchers.IO) { UserKnobs.darkTheme.first() }
+            tunnelManager = TunnelManager(FileConfigStore(applicationContext))
+            tunnelManager.onCreate()
+            phaseStart = startupTrace.record(Phase.TUNNEL_MANAGER, phaseStart)
             runBlocking {
-                AppCompatDelegate.setDefaultNightMode(if (UserKnobs.darkTheme.first()) AppCompatDelegate.MODE_NIGHT_YES else AppCompatDelegate.MODE_NIGHT_NO)
+                AppCompatDelegate.setDefaultNightMode(if (darkTheme.await()) AppCompatDelegate.MODE_NIGHT_YES else AppCompatDelegate.MODE_NIGHT_NO)
             }
             UserKnobs.darkTheme.onEach {
                 val newMode = if (it) {
@@ -104,22 +166,18 @@ class Application : android.app.Application() {
             }.launchIn(coroutineScope)
         } else {
             AppCompatDelegate.setDefaultNightMode(AppCompatDelegate.MODE_NIGHT_FOLLOW_SYSTEM)
+            tunnelManager = TunnelManager(FileConfigStore(applicationContext))
+            tunnelManager.onCreate()
+            phaseStart = startupTrace.record(Phase.TUNNEL_MANAGER, phaseStart)
         }
-        tunnelManager = TunnelManager(FileConfigStore(applicationContext))
-        tunnelManager.onCreate()
-        coroutineScope.launch(Dispatchers.IO) {
-            try {
-                backend = determineBackend()
-                futureBackend.complete(backend!!)
-            } catch (e: Throwable) {
-                Log.e(TAG, Log.getStackTraceString(e))
-            }
-        }
+        startupTrace.record(Phase.THEME, phaseStart)
 
         if (BuildConfig.DEBUG) {
             StrictMode.setVmPolicy(VmPolicy.Builder().detectAll().penaltyLog().build())
             StrictMode.setThreadPolicy(ThreadPolicy.Builder().detectAll().penaltyLog().build())
         }
+        startupTrace.finishOnCreate()
+        Log.d(TAG, "Startup timings $startupTrace")
     }
 
     override fun onTerminate() {
@@ -129,6 +187,8 @@ class Application : android.app.Application() {
 
     companion object {
         val USER_AGENT = String.format(Locale.ENGLISH, "AmneziaWG/%s (Android %d; %s; %s; %s %s; %s)", BuildConfig.VERSION_NAME, Build.VERSION.SDK_INT, if (Build.SUPPORTED_ABIS.isNotEmpty()) Build.SUPPORTED_ABIS[0] else "unknown ABI", Build.BOARD, Build.MANUFACTURER, Build.MODEL, Build.FINGERPRINT)
+        private const val BACKEND_AWG_QUICK = "awg-quick"
+        private const val BACKEND_GO = "go"
         private const val TAG = "AmneziaWG/Application"
         private lateinit var weakSelf: WeakReference<Application>
 
@@ -138,6 +198,8 @@ class Application : android.app.Application() {
 
         suspend fun getBackend() = get().futureBackend.await()
 
+        fun getPackageCatalog() = get().packageCatalog
+
         fun getRootShell() = get().rootShell
 
         fun getPreferencesDataStore() = get().preferencesDataStore
@@ -146,7 +208,11 @@ class Application : android.app.Application() {
 
         fun getTunnelManager() = get().tunnelManager
 
+        fun getTunnelEventLog() = get().tunnelEventLog
+
         fun getCoroutineScope() = get().coroutineScope
+
+        fun getStartupTrace() = get().startupTrace
     }
 
     init {
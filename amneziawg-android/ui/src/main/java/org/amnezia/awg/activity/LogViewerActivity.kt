@@ -20,6 +20,7 @@ import android.text.SpannableString
 import android.text.style.ForegroundColorSpan
 import android.text.style.StyleSpan
 import android.util.Log
+import android.util.LruCache
 import android.view.LayoutInflater
 import android.view.Menu
 import android.view.MenuItem
@@ -27,7 +28,7 @@ import android.view.View
 import android.view.ViewGroup
 import androidx.activity.result.contract.ActivityResultContracts
 import androidx.appcompat.app.AppCompatActivity
-import androidx.collection.CircularArray
+import androidx.appcompat.widget.SearchView
 import androidx.core.app.ShareCompat
 import androidx.core.content.res.ResourcesCompat
 import androidx.lifecycle.lifecycleScope
@@ -36,21 +37,27 @@ import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.snackbar.Snackbar
 import com.google.android.material.textview.MaterialTextView
+import org.amnezia.awg.Application
 import org.amnezia.awg.BuildConfig
 import org.amnezia.awg.R
+import org.amnezia.awg.backend.GoBackend
+import org.amnezia.awg.backend.TunnelEventLog
 import org.amnezia.awg.databinding.LogViewerActivityBinding
 import org.amnezia.awg.util.DownloadsFileSaver
 import org.amnezia.awg.util.ErrorMessages
+import org.amnezia.awg.util.LogBuffer
 import org.amnezia.awg.util.resolveAttribute
 import org.amnezia.awg.crypto.KeyPair
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import java.io.BufferedReader
-import java.io.FileOutputStream
+import kotlin.concurrent.thread
+import java.io.ByteArrayOutputStream
 import java.io.IOException
-import java.io.InputStreamReader
-import java.nio.charset.StandardCharsets
+import java.io.OutputStream
 import java.text.DateFormat
 import java.text.ParseException
 import java.text.SimpleDateFormat
@@ -59,14 +66,30 @@ import java.util.Locale
 import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Matcher
 import java.util.regex.Pattern
+import java.util.zip.GZIPOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
 
 class LogViewerActivity : AppCompatActivity() {
     private lateinit var binding: LogViewerActivityBinding
     private lateinit var logAdapter: LogEntryAdapter
-    private var logLines = CircularArray<LogLine>()
-    private var rawLogLines = CircularArray<String>()
+    private val logBuffer by lazy { LogBuffer(directory = cacheDir) }
+    private val parsedLines = LruCache<Long, LogLine>(PARSED_LINE_CACHE_SIZE)
+    private val shownSeqs = SeqQueue(LogBuffer.MAX_ENTRIES) // sequence number of the entry at each adapter position
+    private val refresh = Channel<Unit>(Channel.CONFLATED)
+    @Volatile
+    private var filter = LogBuffer.Filter()
+    private var logcatLevel = 'V'
+    private var appOnly = false
+    private var tagsOnly = false
+    private var searchText = ""
+    private var compressExports = false
+    private var streamingJob: Job? = null
+    @Volatile
+    private var logcat: Process? = null
     private var recyclerView: RecyclerView? = null
     private var saveButton: MenuItem? = null
+    private var profileButton: MenuItem? = null
     private val year by lazy {
         val yearFormatter: DateFormat = SimpleDateFormat("yyyy", Locale.US)
         yearFormatter.format(Date())
@@ -105,34 +128,53 @@ class LogViewerActivity : AppCompatActivity() {
             addItemDecoration(DividerItemDecoration(context, LinearLayoutManager.VERTICAL))
         }
 
-        lifecycleScope.launch(Dispatchers.IO) { streamingLog() }
-
-        val revokeLastActivityResultLauncher = registerForActivityResult(ActivityResultContracts.StartActivityForResult()) {
-            revokeLastUri()
-        }
+        restartStreaming()
+        lifecycleScope.launch { matchEntries() }
 
         binding.shareFab.setOnClickListener {
-            lifecycleScope.launch {
-                revokeLastUri()
-                val key = KeyPair().privateKey.toHex()
-                LOGS[key] = rawLogBytes()
-                lastUri = Uri.parse("content://${BuildConfig.APPLICATION_ID}.exported-log/$key")
-                val shareIntent = ShareCompat.IntentBuilder(this@LogViewerActivity)
-                    .setType("text/plain")
-                    .setSubject(getString(R.string.log_export_subject))
-                    .setStream(lastUri)
-                    .setChooserTitle(R.string.log_export_title)
-                    .createChooserIntent()
-                    .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
-                grantUriPermission("android", lastUri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
-                revokeLastActivityResultLauncher.launch(shareIntent)
-            }
+            share(exportedLog())
         }
     }
 
+    private val revokeLastActivityResultLauncher = registerForActivityResult(ActivityResultContracts.StartActivityForResult()) {
+        revokeLastUri()
+    }
+
+    private fun share(log: ExportedLog) {
+        revokeLastUri()
+        val key = KeyPair().privateKey.toHex()
+        LOGS[key] = log
+        lastUri = Uri.parse("content://${BuildConfig.APPLICATION_ID}.exported-log/$key")
+        val shareIntent = ShareCompat.IntentBuilder(this)
+            .setType(log.mimeType)
+            .setSubject(getString(R.string.log_export_subject))
+            .setStream(lastUri)
+            .setChooserTitle(R.string.log_export_title)
+            .createChooserIntent()
+            .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        grantUriPermission("android", lastUri, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+        revokeLastActivityResultLauncher.launch(shareIntent)
+    }
+
     override fun onCreateOptionsMenu(menu: Menu): Boolean {
         menuInflater.inflate(R.menu.log_viewer, menu)
         saveButton = menu.findItem(R.id.save_log)
+        profileButton = menu.findItem(R.id.share_profile)
+        (menu.findItem(R.id.search_log).actionView as SearchView).apply {
+            queryHint = getString(R.string.log_search_hint)
+            setOnQueryTextListener(object : SearchView.OnQueryTextListener {
+                override fun onQueryTextSubmit(query: String): Boolean {
+                    clearFocus()
+                    return true
+                }
+
+                override fun onQueryTextChange(newText: String): Boolean {
+                    searchText = newText
+                    updateFilter()
+                    return true
+                }
+            })
+        }
         return true
     }
 
@@ -149,30 +191,84 @@ class LogViewerActivity : AppCompatActivity() {
                 true
             }
 
+            R.id.log_compress -> {
+                compressExports = !item.isChecked
+                item.isChecked = compressExports
+                true
+            }
+
+            R.id.log_app_only -> {
+                appOnly = !item.isChecked
+                item.isChecked = appOnly
+                restartStreaming()
+                true
+            }
+
+            R.id.log_tags_only -> {
+                tagsOnly = !item.isChecked
+                item.isChecked = tagsOnly
+                updateFilter()
+                true
+            }
+
+            R.id.log_level_verbose -> setLogcatLevel(item, 'V')
+            R.id.log_level_debug -> setLogcatLevel(item, 'D')
+            R.id.log_level_info -> setLogcatLevel(item, 'I')
+            R.id.log_level_warning -> setLogcatLevel(item, 'W')
+            R.id.log_level_error -> setLogcatLevel(item, 'E')
+
+            R.id.share_profile -> {
+                profileButton?.isEnabled = false
+                lifecycleScope.launch { shareProfile() }
+                true
+            }
+
             else -> super.onOptionsItemSelected(item)
         }
     }
 
+    private fun setLogcatLevel(item: MenuItem, level: Char): Boolean {
+        item.isChecked = true
+        if (level != logcatLevel) {
+            logcatLevel = level
+            restartStreaming()
+        }
+        return true
+    }
+
+    /**
+     * Filter by tag and text on the raw bytes of the entries, which logcat cannot do for tag
+     * prefixes and message text.
+     */
+    private fun updateFilter() {
+        filter = LogBuffer.Filter(if (tagsOnly) TAG_PREFIX else null, searchText)
+        refresh.trySend(Unit)
+    }
+
     private val downloadsFileSaver = DownloadsFileSaver(this)
 
-    private suspend fun rawLogBytes(): ByteArray {
-        val builder = StringBuilder()
-        withContext(Dispatchers.IO) {
-            for (i in 0 until rawLogLines.size()) {
-                builder.append(rawLogLines[i])
-                builder.append('\n')
+    /**
+     * Export the log buffer, streaming it and compressing it on the fly if chosen, rather than
+     * copying it to the heap first.
+     */
+    private fun exportedLog(): ExportedLog {
+        val buffer = logBuffer
+        return if (compressExports)
+            ExportedLog("amneziawg-log.txt.gz", "application/gzip") { out ->
+                GZIPOutputStream(out, EXPORT_BUFFER_SIZE).use { buffer.writeTo(it) }
             }
-        }
-        return builder.toString().toByteArray(Charsets.UTF_8)
+        else
+            ExportedLog("amneziawg-log.txt", "text/plain") { out -> buffer.writeTo(out) }
     }
 
     private suspend fun saveLog() {
         var exception: Throwable? = null
         var outputFile: DownloadsFileSaver.DownloadsFile? = null
+        val log = exportedLog()
         withContext(Dispatchers.IO) {
             try {
-                outputFile = downloadsFileSaver.save("amneziawg-log.txt", "text/plain", true)
-                outputFile?.outputStream?.write(rawLogBytes())
+                outputFile = downloadsFileSaver.save(log.fileName, log.mimeType, true)
+                outputFile?.outputStream?.use { log.writeTo(it) }
             } catch (e: Throwable) {
                 outputFile?.delete()
                 exception = e
@@ -191,8 +287,79 @@ class LogViewerActivity : AppCompatActivity() {
             .show()
     }
 
-    private suspend fun streamingLog() = withContext(Dispatchers.IO) {
-        val builder = ProcessBuilder().command("logcat", "-b", "all", "-v", "threadtime", "*:V")
+    /**
+     * Capture CPU, heap and execution trace profiles of the Go runtime and share them together
+     * with the log as a single zip file.
+     */
+    private suspend fun shareProfile() {
+        val backend = Application.getBackend() as? GoBackend
+        if (backend == null) {
+            profileButton?.isEnabled = true
+            Snackbar.make(findViewById(android.R.id.content), R.string.log_profile_unavailable, Snackbar.LENGTH_LONG)
+                .setAnchorView(binding.shareFab)
+                .show()
+            return
+        }
+        val progress = Snackbar.make(findViewById(android.R.id.content), R.string.log_profile_capturing, Snackbar.LENGTH_INDEFINITE)
+            .setAnchorView(binding.shareFab)
+        progress.show()
+        try {
+            val bundle = withContext(Dispatchers.IO) {
+                val profiles = listOf(
+                    backend.captureProfile(GoBackend.ProfileKind.CPU, PROFILE_SECONDS),
+                    backend.captureProfile(GoBackend.ProfileKind.HEAP, 0),
+                    backend.captureProfile(GoBackend.ProfileKind.TRACE, PROFILE_SECONDS)
+                )
+                val bytes = ByteArrayOutputStream()
+                ZipOutputStream(bytes).use { zip ->
+                    zip.putNextEntry(ZipEntry("amneziawg-log.txt"))
+                    logBuffer.writeTo(zip)
+                    zip.closeEntry()
+                    for (profile in profiles) {
+                        zip.putNextEntry(ZipEntry(profile.name))
+                        profile.inputStream().use { it.copyTo(zip) }
+                        zip.closeEntry()
+                        profile.delete()
+                    }
+                }
+                bytes.toByteArray()
+            }
+            progress.dismiss()
+            share(ExportedLog("amneziawg-profile.zip", "application/zip", bundle.size.toLong()) { it.write(bundle) })
+        } catch (e: Throwable) {
+            progress.dismiss()
+            Snackbar.make(findViewById(android.R.id.content), getString(R.string.log_profile_error, ErrorMessages[e]), Snackbar.LENGTH_LONG)
+                .setAnchorView(binding.shareFab)
+                .show()
+        } finally {
+            profileButton?.isEnabled = true
+        }
+    }
+
+    /**
+     * Start logcat with the filters it applies itself, the process and the minimum level, replacing
+     * the previous logcat process and whatever it printed.
+     */
+    private fun restartStreaming() {
+        val previous = streamingJob
+        val command = mutableListOf("logcat", "-b", "all", "-v", "threadtime")
+        if (appOnly)
+            command += "--pid=${android.os.Process.myPid()}"
+        command += "*:$logcatLevel"
+        streamingJob = lifecycleScope.launch(Dispatchers.IO) {
+            if (previous != null) {
+                previous.cancel()
+                logcat?.destroy()
+                previous.join()
+                logBuffer.clear()
+                refresh.trySend(Unit)
+            }
+            streamingLog(command)
+        }
+    }
+
+    private suspend fun streamingLog(command: List<String>) = withContext(Dispatchers.IO) {
+        val builder = ProcessBuilder().command(command)
         builder.environment()["LC_ALL"] = "C"
         var process: Process? = null
         try {
@@ -202,69 +369,141 @@ class LogViewerActivity : AppCompatActivity() {
                 Log.e(TAG, Log.getStackTraceString(e))
                 return@withContext
             }
-            val stdout = BufferedReader(InputStreamReader(process!!.inputStream, StandardCharsets.UTF_8))
+            logcat = process
+            val stdout = process!!.inputStream
+            val chunk = ByteArray(1 shl 16)
+            var events = persistedEvents()
 
-            var posStart = 0
             var timeLastNotify = System.nanoTime()
-            var priorModified = false
-            val bufferedLogLines = arrayListOf<LogLine>()
             var timeout = 1000000000L / 2 // The timeout is initially small so that the view gets populated immediately.
-            val MAX_LINES = (1 shl 16) - 1
-            val MAX_BUFFERED_LINES = (1 shl 14) - 1
-
-            while (true) {
-                val line = stdout.readLine() ?: break
-                if (rawLogLines.size() >= MAX_LINES)
-                    rawLogLines.popFirst()
-                rawLogLines.addLast(line)
-                val logLine = parseLine(line)
-                if (logLine != null) {
-                    bufferedLogLines.add(logLine)
-                } else {
-                    if (bufferedLogLines.isNotEmpty()) {
-                        bufferedLogLines.last().msg += "\n$line"
-                    } else if (!logLines.isEmpty()) {
-                        logLines[logLines.size() - 1].msg += "\n$line"
-                        priorModified = true
-                    }
+
+            while (isActive) {
+                val length = stdout.read(chunk)
+                if (length < 0)
+                    break
+                if (events.isNotEmpty()) {
+                    writeEvents(events, firstEntryTime(chunk, length))
+                    events = emptyList()
                 }
+                logBuffer.write(chunk, 0, length)
                 val timeNow = System.nanoTime()
-                if (bufferedLogLines.size < MAX_BUFFERED_LINES && (timeNow - timeLastNotify) < timeout && stdout.ready())
+                if ((timeNow - timeLastNotify) < timeout && stdout.available() > 0)
                     continue
                 timeout = 1000000000L * 5 / 2 // Increase the timeout after the initial view has something in it.
                 timeLastNotify = timeNow
 
-                withContext(Dispatchers.Main.immediate) {
-                    val isScrolledToBottomAlready = recyclerView?.canScrollVertically(1) == false
-                    if (priorModified) {
-                        logAdapter.notifyItemChanged(posStart - 1)
-                        priorModified = false
-                    }
-                    val fullLen = logLines.size() + bufferedLogLines.size
-                    if (fullLen >= MAX_LINES) {
-                        val numToRemove = fullLen - MAX_LINES + 1
-                        logLines.removeFromStart(numToRemove)
-                        logAdapter.notifyItemRangeRemoved(0, numToRemove)
-                        posStart -= numToRemove
-
-                    }
-                    for (bufferedLine in bufferedLogLines) {
-                        logLines.addLast(bufferedLine)
-                    }
-                    bufferedLogLines.clear()
-                    logAdapter.notifyItemRangeInserted(posStart, logLines.size() - posStart)
-                    posStart = logLines.size()
-
-                    if (isScrolledToBottomAlready) {
-                        recyclerView?.scrollToPosition(logLines.size() - 1)
-                    }
-                }
+                refresh.trySend(Unit)
             }
         } finally {
             process?.destroy()
         }
     }
 
+    private fun persistedEvents(): List<TunnelEventLog.Event> = try {
+        Application.getTunnelEventLog().read()
+    } catch (e: IOException) {
+        Log.w(TAG, "Unable to read tunnel events", e)
+        emptyList()
+    }
+
+    /**
+     * Get the time of the oldest entry in the first output of logcat.
+     *
+     * @return the time in milliseconds since the epoch, or [Long.MAX_VALUE] if there is none
+     */
+    private fun firstEntryTime(chunk: ByteArray, length: Int): Long {
+        var lineStart = 0
+        while (lineStart < length) {
+            if (LogBuffer.isEntryStart(chunk, lineStart, length - lineStart))
+                return parseTime(String(chunk, lineStart, LOGCAT_TIME_FORMAT.length, Charsets.US_ASCII))?.time ?: Long.MAX_VALUE
+            while (lineStart < length && chunk[lineStart] != '\n'.code.toByte())
+                ++lineStart
+            ++lineStart
+        }
+        return Long.MAX_VALUE
+    }
+
+    /**
+     * Write the persisted tunnel events that are older than what logcat still retains to the log
+     * buffer ahead of logcat's output, formatted like logcat's own lines, so that the log reaches
+     * back further than logcat does. Newer events are left out since logcat has them as well.
+     */
+    private fun writeEvents(events: List<TunnelEventLog.Event>, before: Long) {
+        val timeFormat = SimpleDateFormat(LOGCAT_TIME_FORMAT, Locale.US)
+        for (event in events) {
+            if (event.timeMillis >= before)
+                break
+            val level = if (event.type == TunnelEventLog.Event.Type.ERROR) 'E' else 'I'
+            if (LOGCAT_LEVELS.indexOf(level) < LOGCAT_LEVELS.indexOf(logcatLevel))
+                continue
+            val line = String.format(
+                Locale.US, "%s %5d %5d %c AmneziaWG/%s: %s\n",
+                timeFormat.format(Date(event.timeMillis)), 0, 0, level, event.tunnelName, event.message
+            ).toByteArray()
+            logBuffer.write(line, 0, line.size)
+        }
+    }
+
+    /**
+     * Match the entries appended to the log buffer against the filter as they stream in, or all
+     * retained entries again once the filter changes, and show the matches.
+     */
+    private suspend fun matchEntries() = withContext(Dispatchers.Default) {
+        var matchedFilter: LogBuffer.Filter? = null
+        var matchedEnd = 0L
+        while (true) {
+            refresh.receive()
+            val filter = filter
+            val reset = filter !== matchedFilter
+            val first = logBuffer.first
+            val end = logBuffer.end
+            val from = if (reset) first else maxOf(matchedEnd, first)
+            val matches = LongArray((end - from).toInt())
+            var count = 0
+            for (seq in from until end) {
+                if (filter.isEmpty || logBuffer.matches(seq, filter))
+                    matches[count++] = seq
+            }
+            matchedFilter = filter
+            matchedEnd = end
+            withContext(Dispatchers.Main.immediate) { showEntries(reset, first, matches, count) }
+        }
+    }
+
+    /**
+     * Bring the adapter up to date with the entries evicted from the log buffer and the new
+     * matches, or replace everything it shows after a reset.
+     */
+    private fun showEntries(reset: Boolean, first: Long, matches: LongArray, count: Int) {
+        val isScrolledToBottomAlready = recyclerView?.canScrollVertically(1) == false
+        if (reset) {
+            shownSeqs.clear()
+            logAdapter.notifyDataSetChanged()
+        }
+        var removed = 0
+        while (removed < shownSeqs.size && shownSeqs[removed] < first)
+            ++removed
+        if (removed > 0) {
+            shownSeqs.removeFirst(removed)
+            logAdapter.notifyItemRangeRemoved(0, removed)
+        }
+        if (shownSeqs.size > 0) {
+            // Continuation lines may have been appended to the last entry.
+            parsedLines.remove(shownSeqs[shownSeqs.size - 1])
+            logAdapter.notifyItemChanged(shownSeqs.size - 1)
+        }
+        if (count > 0) {
+            val start = shownSeqs.size
+            for (i in 0 until count)
+                shownSeqs.add(matches[i])
+            logAdapter.notifyItemRangeInserted(start, count)
+        }
+
+        if ((reset || isScrolledToBottomAlready) && shownSeqs.size > 0) {
+            recyclerView?.scrollToPosition(shownSeqs.size - 1)
+        }
+    }
+
     private fun parseTime(timeStr: String): Date? {
         val formatter: DateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US)
         return try {
@@ -274,16 +513,70 @@ class LogViewerActivity : AppCompatActivity() {
         }
     }
 
-    private fun parseLine(line: String): LogLine? {
-        val m: Matcher = THREADTIME_LINE.matcher(line)
+    /**
+     * Parse a log buffer entry, whose first line is the one logcat printed for the message and
+     * whose further lines continue the message.
+     */
+    private fun parseEntry(entry: String): LogLine {
+        val firstLineEnd = entry.indexOf('\n').let { if (it < 0) entry.length else it }
+        val m: Matcher = THREADTIME_LINE.matcher(entry).region(0, firstLineEnd)
         return if (m.matches()) {
-            LogLine(m.group(2)!!.toInt(), m.group(3)!!.toInt(), parseTime(m.group(1)!!), m.group(4)!!, m.group(5)!!, m.group(6)!!)
+            LogLine(
+                m.group(2)!!.toInt(), m.group(3)!!.toInt(), parseTime(m.group(1)!!), m.group(4)!!, m.group(5)!!,
+                m.group(6)!! + entry.substring(firstLineEnd)
+            )
         } else {
-            null
+            LogLine(0, 0, null, "", "", entry)
+        }
+    }
+
+    /**
+     * Get the entry shown at an adapter position, parsing it on first use.
+     *
+     * @return the entry, or null if it was evicted before the adapter caught up
+     */
+    private fun logLine(position: Int): LogLine? {
+        val seq = shownSeqs[position]
+        parsedLines[seq]?.let { return it }
+        val line = parseEntry(logBuffer.read(seq) ?: return null)
+        parsedLines.put(seq, line)
+        return line
+    }
+
+    /**
+     * A queue of sequence numbers, kept unboxed.
+     */
+    private class SeqQueue(capacity: Int) {
+        private val seqs = LongArray(capacity)
+        private var head = 0
+        var size = 0
+            private set
+
+        operator fun get(index: Int) = seqs[(head + index) % seqs.size]
+
+        fun add(seq: Long) {
+            seqs[(head + size++) % seqs.size] = seq
+        }
+
+        fun removeFirst(count: Int) {
+            head = (head + count) % seqs.size
+            size -= count
+        }
+
+        fun clear() {
+            head = 0
+            size = 0
         }
     }
 
-    private data class LogLine(val pid: Int, val tid: Int, val time: Date?, val level: String, val tag: String, var msg: String)
+    /**
+     * A log shared through [ExportedLogContentProvider], written anew each time it is read.
+     *
+     * @param size the size in bytes, or null if it is not known ahead of writing
+     */
+    private class ExportedLog(val fileName: String, val mimeType: String, val size: Long? = null, val writeTo: (OutputStream) -> Unit)
+
+    private data class LogLine(val pid: Int, val tid: Int, val time: Date?, val level: String, val tag: String, val msg: String)
 
     companion object {
         /**
@@ -293,8 +586,14 @@ class LogViewerActivity : AppCompatActivity() {
          */
         private val THREADTIME_LINE: Pattern =
             Pattern.compile("^(\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}.\\d{3})(?:\\s+[0-9A-Za-z]+)?\\s+(\\d+)\\s+(\\d+)\\s+([A-Z])\\s+(.+?)\\s*: (.*)$")
-        private val LOGS: MutableMap<String, ByteArray> = ConcurrentHashMap()
+        private val LOGS: MutableMap<String, ExportedLog> = ConcurrentHashMap()
+        private const val EXPORT_BUFFER_SIZE = 1 shl 16
+        private const val LOGCAT_LEVELS = "VDIWEF"
+        private const val LOGCAT_TIME_FORMAT = "MM-dd HH:mm:ss.SSS"
+        private const val PARSED_LINE_CACHE_SIZE = 256
+        private const val PROFILE_SECONDS = 10
         private const val TAG = "AmneziaWG/LogViewerActivity"
+        private const val TAG_PREFIX = "AmneziaWG/"
     }
 
     private inner class LogEntryAdapter : RecyclerView.Adapter<LogEntryAdapter.ViewHolder>() {
@@ -311,7 +610,7 @@ class LogViewerActivity : AppCompatActivity() {
             }
         }
 
-        override fun getItemCount() = logLines.size()
+        override fun getItemCount() = shownSeqs.size
 
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
             val view = LayoutInflater.from(parent.context)
@@ -320,8 +619,8 @@ class LogViewerActivity : AppCompatActivity() {
         }
 
         override fun onBindViewHolder(holder: ViewHolder, position: Int) {
-            val line = logLines[position]
-            val spannable = if (position > 0 && logLines[position - 1].tag == line.tag)
+            val line = logLine(position) ?: LogLine(0, 0, null, "", "", "")
+            val spannable = if (line.tag.isEmpty() || (position > 0 && logLine(position - 1)?.tag == line.tag))
                 SpannableString(line.msg)
             else
                 SpannableString("${line.tag}: ${line.msg}").apply {
@@ -346,14 +645,14 @@ class LogViewerActivity : AppCompatActivity() {
     }
 
     class ExportedLogContentProvider : ContentProvider() {
-        private fun logForUri(uri: Uri): ByteArray? = LOGS[uri.pathSegments.lastOrNull()]
+        private fun logForUri(uri: Uri): ExportedLog? = LOGS[uri.pathSegments.lastOrNull()]
 
         override fun insert(uri: Uri, values: ContentValues?): Uri? = null
 
         override fun query(uri: Uri, projection: Array<out String>?, selection: String?, selectionArgs: Array<out String>?, sortOrder: String?): Cursor? =
             logForUri(uri)?.let {
                 val m = MatrixCursor(arrayOf(android.provider.OpenableColumns.DISPLAY_NAME, android.provider.OpenableColumns.SIZE), 1)
-                m.addRow(arrayOf("amneziawg-log.txt", it.size.toLong()))
+                m.addRow(arrayOf(it.fileName, it.size))
                 m
             }
 
@@ -363,7 +662,7 @@ class LogViewerActivity : AppCompatActivity() {
 
         override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int = 0
 
-        override fun getType(uri: Uri): String? = logForUri(uri)?.let { "text/plain" }
+        override fun getType(uri: Uri): String? = logForUri(uri)?.mimeType
 
         override fun getStreamTypes(uri: Uri, mimeTypeFilter: String): Array<String>? =
             getType(uri)?.let { if (compareMimeTypes(it, mimeTypeFilter)) arrayOf(it) else null }
@@ -371,12 +670,14 @@ class LogViewerActivity : AppCompatActivity() {
         override fun openFile(uri: Uri, mode: String): ParcelFileDescriptor? {
             if (mode != "r") return null
             val log = logForUri(uri) ?: return null
-            return openPipeHelper(uri, "text/plain", null, log) { output, _, _, _, l ->
+            val (readSide, writeSide) = ParcelFileDescriptor.createPipe()
+            thread(name = "ExportedLogWriter") {
                 try {
-                    FileOutputStream(output.fileDescriptor).write(l!!)
+                    ParcelFileDescriptor.AutoCloseOutputStream(writeSide).use { log.writeTo(it) }
                 } catch (_: Throwable) {
                 }
             }
+            return readSide
         }
     }
 }
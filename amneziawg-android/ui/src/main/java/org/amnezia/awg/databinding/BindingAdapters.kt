@@ -8,6 +8,7 @@ import android.text.InputFilter
 import android.view.LayoutInflater
 import android.view.View
 import android.widget.EditText
+import android.widget.ImageView
 import android.widget.LinearLayout
 import android.widget.TextView
 import androidx.databinding.BindingAdapter
@@ -26,6 +27,8 @@ import org.amnezia.awg.widget.ToggleSwitch.OnBeforeCheckedChangeListener
 import org.amnezia.awg.widget.TvCardView
 import org.amnezia.awg.config.Attribute
 import org.amnezia.awg.config.InetNetwork
+import org.amnezia.awg.model.ApplicationData
+import org.amnezia.awg.util.AppIconCache
 import java.net.InetAddress
 import java.util.Optional
 
@@ -169,6 +172,12 @@ object BindingAdapters {
         view.text = if (strings != null) Attribute.join(strings) else ""
     }
 
+    @JvmStatic
+    @BindingAdapter("packageIcon")
+    fun setPackageIcon(view: ImageView, app: ApplicationData?) {
+        AppIconCache.bind(view, app?.packageName, app?.iconKey)
+    }
+
     @JvmStatic
     fun tryParseInt(s: String?): Int {
         if (s == null)
@@ -5,17 +5,30 @@
 package org.amnezia.awg.databinding
 
 import android.content.Context
+import android.os.Looper
 import android.view.LayoutInflater
 import android.view.ViewGroup
 import androidx.databinding.DataBindingUtil
+import androidx.databinding.Observable
 import androidx.databinding.ObservableList
 import androidx.databinding.ViewDataBinding
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import org.amnezia.awg.BR
+import org.amnezia.awg.util.applicationScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import java.lang.ref.WeakReference
 
 /**
  * A generic `RecyclerView.Adapter` backed by a `ObservableKeyedArrayList`.
+ *
+ * Changes to ranges of the list are passed on to the `RecyclerView` as they are, and a change to
+ * a property of a shown item only rebinds the expressions depending on that property. Rows that
+ * merely moved only have their configuration redone, since row configuration handlers capture
+ * positions. Changes to the whole list, such as setting a new one, are diffed by key in the
+ * background against the items shown, which are kept as a snapshot until the diff is applied.
  */
 class ObservableKeyedRecyclerViewAdapter<K, E : Keyed<out K>> internal constructor(
         context: Context, private val layoutId: Int,
@@ -24,36 +37,125 @@ class ObservableKeyedRecyclerViewAdapter<K, E : Keyed<out K>> internal construct
     private val callback = OnListChangedCallback(this)
     private val layoutInflater: LayoutInflater = LayoutInflater.from(context)
     private var list: ObservableKeyedArrayList<K, E>? = null
+    private var items: MutableList<E> = ArrayList()
+    private var diffGeneration = 0
+    private var diffPending = false
     private var rowConfigurationHandler: RowConfigurationHandler<ViewDataBinding, Any>? = null
 
-    private fun getItem(position: Int): E? = if (list == null || position < 0 || position >= list!!.size) null else list?.get(position)
+    private fun getItem(position: Int): E? = items.getOrNull(position)
 
-    override fun getItemCount() = list?.size ?: 0
+    override fun getItemCount() = items.size
 
     override fun getItemId(position: Int) = (getKey(position)?.hashCode() ?: -1).toLong()
 
     private fun getKey(position: Int): K? = getItem(position)?.key
 
     override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        val item = getItem(position)
         holder.binding.setVariable(BR.collection, list)
         holder.binding.setVariable(BR.key, getKey(position))
-        holder.binding.setVariable(BR.item, getItem(position))
+        holder.binding.setVariable(BR.item, item)
         holder.binding.executePendingBindings()
-        if (rowConfigurationHandler != null) {
-            val item = getItem(position)
-            if (item != null) {
-                rowConfigurationHandler?.onConfigureRow(holder.binding, item, position)
-            }
+        holder.observe(item)
+        if (item != null)
+            rowConfigurationHandler?.onConfigureRow(holder.binding, item, position)
+    }
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int, payloads: MutableList<Any>) {
+        val item = getItem(position)
+        if (payloads.isEmpty() || item == null || item !== holder.item) {
+            onBindViewHolder(holder, position)
+            return
         }
+        // The binding has already marked the expressions that depend on the changed properties.
+        if (payloads.any { it is Int })
+            holder.binding.executePendingBindings()
+        if (payloads.contains(PAYLOAD_POSITION))
+            rowConfigurationHandler?.onConfigureRow(holder.binding, item, position)
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) =
+            ViewHolder(DataBindingUtil.inflate(layoutInflater, layoutId, parent, false), ::onItemPropertyChanged)
+
+    override fun onViewRecycled(holder: ViewHolder) {
+        holder.observe(null)
     }
 
-    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int) = ViewHolder(DataBindingUtil.inflate(layoutInflater, layoutId, parent, false))
+    private fun onItemPropertyChanged(item: Any, propertyId: Int) {
+        val position = items.indexOfFirst { it === item }
+        if (position >= 0)
+            notifyItemChanged(position, propertyId)
+    }
+
+    private fun notifyPositionsChanged(positionStart: Int) {
+        if (rowConfigurationHandler != null && positionStart < items.size)
+            notifyItemRangeChanged(positionStart, items.size - positionStart, PAYLOAD_POSITION)
+    }
+
+    private fun onItemRangeChanged(positionStart: Int, itemCount: Int) {
+        val list = list
+        if (list == null || diffPending)
+            return diffList()
+        for (i in positionStart until positionStart + itemCount)
+            items[i] = list[i]
+        notifyItemRangeChanged(positionStart, itemCount)
+    }
+
+    private fun onItemRangeInserted(positionStart: Int, itemCount: Int) {
+        val list = list
+        if (list == null || diffPending)
+            return diffList()
+        items.addAll(positionStart, list.subList(positionStart, positionStart + itemCount))
+        notifyItemRangeInserted(positionStart, itemCount)
+        notifyPositionsChanged(positionStart + itemCount)
+    }
+
+    private fun onItemRangeRemoved(positionStart: Int, itemCount: Int) {
+        if (list == null || diffPending)
+            return diffList()
+        items.subList(positionStart, positionStart + itemCount).clear()
+        notifyItemRangeRemoved(positionStart, itemCount)
+        notifyPositionsChanged(positionStart)
+    }
+
+    /**
+     * Bring the shown items up to date with the list by diffing them in the background. Changes
+     * to the list made meanwhile start a new diff, and only the latest one is applied.
+     */
+    private fun diffList() {
+        val oldItems = items
+        val newItems = ArrayList<E>(list ?: emptyList())
+        val generation = ++diffGeneration
+        if (oldItems.isEmpty() || newItems.isEmpty()) {
+            diffPending = false
+            items = newItems
+            if (oldItems.isNotEmpty())
+                notifyItemRangeRemoved(0, oldItems.size)
+            if (newItems.isNotEmpty())
+                notifyItemRangeInserted(0, newItems.size)
+            return
+        }
+        diffPending = true
+        applicationScope.launch(Dispatchers.Default) {
+            val diff = DiffUtil.calculateDiff(KeyDiffCallback(oldItems, newItems))
+            withContext(Dispatchers.Main.immediate) {
+                if (generation != diffGeneration)
+                    return@withContext
+                diffPending = false
+                items = newItems
+                diff.dispatchUpdatesTo(this@ObservableKeyedRecyclerViewAdapter)
+                notifyPositionsChanged(0)
+            }
+        }
+    }
 
     fun setList(newList: ObservableKeyedArrayList<K, E>?) {
+        if (newList === list)
+            return
         list?.removeOnListChangedCallback(callback)
         list = newList
         list?.addOnListChangedCallback(callback)
-        notifyDataSetChanged()
+        diffList()
     }
 
     fun setRowConfigurationHandler(rowConfigurationHandler: RowConfigurationHandler<*, *>?) {
@@ -65,42 +167,94 @@ class ObservableKeyedRecyclerViewAdapter<K, E : Keyed<out K>> internal construct
         fun onConfigureRow(binding: B, item: T, position: Int)
     }
 
+    /**
+     * Matches items by key. Items are only considered unchanged if they are the same object, as
+     * changes to their properties are followed by their bindings.
+     */
+    private class KeyDiffCallback<E : Keyed<*>>(private val oldItems: List<E>, private val newItems: List<E>) : DiffUtil.Callback() {
+        override fun getOldListSize() = oldItems.size
+
+        override fun getNewListSize() = newItems.size
+
+        override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int) =
+                oldItems[oldItemPosition].key == newItems[newItemPosition].key
+
+        override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int) =
+                oldItems[oldItemPosition] === newItems[newItemPosition]
+    }
+
     private class OnListChangedCallback<E : Keyed<*>> constructor(adapter: ObservableKeyedRecyclerViewAdapter<*, E>) : ObservableList.OnListChangedCallback<ObservableList<E>>() {
         private val weakAdapter: WeakReference<ObservableKeyedRecyclerViewAdapter<*, E>> = WeakReference(adapter)
 
-        override fun onChanged(sender: ObservableList<E>) {
+        private fun adapter(sender: ObservableList<E>): ObservableKeyedRecyclerViewAdapter<*, E>? {
             val adapter = weakAdapter.get()
-            if (adapter != null)
-                adapter.notifyDataSetChanged()
-            else
+            if (adapter == null)
                 sender.removeOnListChangedCallback(this)
+            return adapter
+        }
+
+        override fun onChanged(sender: ObservableList<E>) {
+            adapter(sender)?.diffList()
         }
 
         override fun onItemRangeChanged(sender: ObservableList<E>, positionStart: Int,
                                         itemCount: Int) {
-            onChanged(sender)
+            adapter(sender)?.onItemRangeChanged(positionStart, itemCount)
         }
 
         override fun onItemRangeInserted(sender: ObservableList<E>, positionStart: Int,
                                          itemCount: Int) {
-            onChanged(sender)
+            adapter(sender)?.onItemRangeInserted(positionStart, itemCount)
         }
 
         override fun onItemRangeMoved(sender: ObservableList<E>, fromPosition: Int,
                                       toPosition: Int, itemCount: Int) {
-            onChanged(sender)
+            adapter(sender)?.diffList()
         }
 
         override fun onItemRangeRemoved(sender: ObservableList<E>, positionStart: Int,
                                         itemCount: Int) {
-            onChanged(sender)
+            adapter(sender)?.onItemRangeRemoved(positionStart, itemCount)
         }
 
     }
 
-    class ViewHolder(val binding: ViewDataBinding) : RecyclerView.ViewHolder(binding.root)
+    /**
+     * Holds the binding of a row, and follows the properties of the item it shows for as long as
+     * it shows it, so that a change to one of them rebinds only what depends on it.
+     */
+    class ViewHolder(
+            val binding: ViewDataBinding,
+            private val onItemPropertyChanged: (item: Any, propertyId: Int) -> Unit
+    ) : RecyclerView.ViewHolder(binding.root) {
+        internal var item: Any? = null
+            private set
+
+        private val propertyCallback = object : Observable.OnPropertyChangedCallback() {
+            override fun onPropertyChanged(sender: Observable?, propertyId: Int) {
+                if (sender == null)
+                    return
+                if (Looper.myLooper() == Looper.getMainLooper())
+                    onItemPropertyChanged(sender, propertyId)
+                else
+                    itemView.post { onItemPropertyChanged(sender, propertyId) }
+            }
+        }
+
+        internal fun observe(newItem: Any?) {
+            if (newItem === item)
+                return
+            (item as? Observable)?.removeOnPropertyChangedCallback(propertyCallback)
+            item = newItem
+            (newItem as? Observable)?.addOnPropertyChangedCallback(propertyCallback)
+        }
+    }
 
     init {
         setList(list)
     }
+
+    companion object {
+        private val PAYLOAD_POSITION = Any()
+    }
 }
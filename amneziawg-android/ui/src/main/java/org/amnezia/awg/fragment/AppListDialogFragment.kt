@@ -4,12 +4,7 @@
  */
 package org.amnezia.awg.fragment
 
-import android.Manifest
 import android.app.Dialog
-import android.content.pm.PackageInfo
-import android.content.pm.PackageManager
-import android.content.pm.PackageManager.PackageInfoFlags
-import android.os.Build
 import android.os.Bundle
 import android.widget.Button
 import android.widget.Toast
@@ -21,6 +16,7 @@ import androidx.fragment.app.setFragmentResult
 import androidx.lifecycle.lifecycleScope
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.tabs.TabLayout
+import org.amnezia.awg.Application
 import org.amnezia.awg.BR
 import org.amnezia.awg.R
 import org.amnezia.awg.databinding.AppListDialogFragmentBinding
@@ -33,39 +29,46 @@ import kotlinx.coroutines.withContext
 
 class AppListDialogFragment : DialogFragment() {
     private val appData = ObservableKeyedArrayList<String, ApplicationData>()
-    private var currentlySelectedApps = emptyList<String>()
+    private var currentlySelectedApps = emptySet<String>()
     private var initiallyExcluded = false
     private var button: Button? = null
     private var tabs: TabLayout? = null
 
+    /**
+     * Load the applications that may use the network from the package catalog, which has them
+     * ready without asking the package manager about each of them. While the catalog is first
+     * being scanned, they show up page by page. Rows are inserted in order of their labels.
+     */
     private fun loadData() {
         val activity = activity ?: return
-        val pm = activity.packageManager
         lifecycleScope.launch(Dispatchers.Default) {
             try {
-                val applicationData: MutableList<ApplicationData> = ArrayList()
-                withContext(Dispatchers.IO) {
-                    val packageInfos = getPackagesHoldingPermissions(pm, arrayOf(Manifest.permission.INTERNET))
-                    packageInfos.forEach {
-                        val packageName = it.packageName
-                        val appInfo = it.applicationInfo
-                        val appData =
-                            ApplicationData(appInfo.loadIcon(pm), appInfo.loadLabel(pm).toString(), packageName, currentlySelectedApps.contains(packageName))
-                        applicationData.add(appData)
-                        appData.addOnPropertyChangedCallback(object : Observable.OnPropertyChangedCallback() {
-                            override fun onPropertyChanged(sender: Observable?, propertyId: Int) {
-                                if (propertyId == BR.selected)
-                                    setButtonText()
-                            }
-                        })
+                var firstPage = true
+                Application.getPackageCatalog().getEntryPages().collect { entries ->
+                    val applicationData = entries
+                        .sortedWith(compareBy(String.CASE_INSENSITIVE_ORDER) { it.label })
+                        .map {
+                            val appData = ApplicationData(it.label, it.packageName, it.iconKey, it.packageName in currentlySelectedApps)
+                            appData.addOnPropertyChangedCallback(object : Observable.OnPropertyChangedCallback() {
+                                override fun onPropertyChanged(sender: Observable?, propertyId: Int) {
+                                    if (propertyId == BR.selected)
+                                        setButtonText()
+                                }
+                            })
+                            appData
+                        }
+                    withContext(Dispatchers.Main.immediate) {
+                        if (firstPage) {
+                            firstPage = false
+                            appData.clear()
+                            appData.addAll(applicationData)
+                        } else {
+                            for (data in applicationData)
+                                appData.add(insertionIndex(data.name), data)
+                        }
+                        setButtonText()
                     }
                 }
-                applicationData.sortWith(compareBy(String.CASE_INSENSITIVE_ORDER) { it.name })
-                withContext(Dispatchers.Main.immediate) {
-                    appData.clear()
-                    appData.addAll(applicationData)
-                    setButtonText()
-                }
             } catch (e: Throwable) {
                 withContext(Dispatchers.Main.immediate) {
                     val error = ErrorMessages[e]
@@ -77,21 +80,25 @@ class AppListDialogFragment : DialogFragment() {
         }
     }
 
+    private fun insertionIndex(name: String): Int {
+        var low = 0
+        var high = appData.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (String.CASE_INSENSITIVE_ORDER.compare(appData[mid].name, name) <= 0)
+                low = mid + 1
+            else
+                high = mid
+        }
+        return low
+    }
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
-        currentlySelectedApps = (arguments?.getStringArrayList(KEY_SELECTED_APPS) ?: emptyList())
+        currentlySelectedApps = arguments?.getStringArrayList(KEY_SELECTED_APPS)?.toHashSet() ?: emptySet()
         initiallyExcluded = arguments?.getBoolean(KEY_IS_EXCLUDED) ?: true
     }
 
-    private fun getPackagesHoldingPermissions(pm: PackageManager, permissions: Array<String>): List<PackageInfo> {
-        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
-            pm.getPackagesHoldingPermissions(permissions, PackageInfoFlags.of(0L))
-        } else {
-            @Suppress("DEPRECATION")
-            pm.getPackagesHoldingPermissions(permissions, 0)
-        }
-    }
-
     private fun setButtonText() {
         val numSelected = appData.count { it.isSelected }
         button?.text = if (numSelected == 0)
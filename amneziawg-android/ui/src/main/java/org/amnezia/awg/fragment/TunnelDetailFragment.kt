@@ -135,6 +135,38 @@ class TunnelDetailFragment : BaseFragment(), MenuProvider {
                     peer.latestHandshakeLabel.visibility = View.VISIBLE
                     peer.latestHandshakeText.visibility = View.VISIBLE
                 }
+                val counters = peerStats?.counters
+                if (counters == null) {
+                    peer.detailsToggle.visibility = View.GONE
+                    peer.countersText.visibility = View.GONE
+                } else {
+                    var text = getString(
+                        R.string.peer_counters_text,
+                        counters.rxPackets, counters.txPackets,
+                        counters.handshakeAttempts, counters.handshakeFailures,
+                        counters.decryptFailures, counters.replayDrops, counters.queueDrops,
+                        counters.junkPacketsSent
+                    )
+                    if (counters.overhead.sentBytes() > 0 || counters.overhead.receivedBytes() > 0)
+                        text += "\n" + getString(
+                            R.string.peer_overhead_text,
+                            QuantityFormatter.formatBytes(counters.overhead.sentBytes()),
+                            QuantityFormatter.formatBytes(counters.overhead.receivedBytes()),
+                            counters.overhead.junkPacketsSkipped
+                        )
+                    if (counters.handshakeRtt.count > 0)
+                        text += "\n" + getString(
+                            R.string.peer_latency_text,
+                            counters.handshakeRtt.p50Micros / 1000.0, counters.handshakeRtt.p99Micros / 1000.0,
+                            counters.timeToFirstData.p50Micros / 1000.0, counters.timeToFirstData.p99Micros / 1000.0
+                        )
+                    peer.countersText.text = text
+                    peer.detailsToggle.setOnClickListener {
+                        peer.countersText.visibility = if (peer.detailsToggle.isChecked) View.VISIBLE else View.GONE
+                    }
+                    peer.detailsToggle.visibility = View.VISIBLE
+                    peer.countersText.visibility = if (peer.detailsToggle.isChecked) View.VISIBLE else View.GONE
+                }
             }
         } catch (e: Throwable) {
             for (i in 0 until binding.peersLayout.childCount) {
@@ -144,6 +176,8 @@ class TunnelDetailFragment : BaseFragment(), MenuProvider {
                 peer.transferText.visibility = View.GONE
                 peer.latestHandshakeLabel.visibility = View.GONE
                 peer.latestHandshakeText.visibility = View.GONE
+                peer.detailsToggle.visibility = View.GONE
+                peer.countersText.visibility = View.GONE
             }
         }
     }
@@ -57,7 +57,7 @@ class TunnelListFragment : BaseFragment() {
         activity.lifecycleScope.launch {
             if (QrCodeFromFileScanner.validContentType(contentResolver, data)) {
                 try {
-                    val qrCodeFromFileScanner = QrCodeFromFileScanner(contentResolver, QRCodeReader())
+                    val qrCodeFromFileScanner = QrCodeFromFileScanner(contentResolver, ::QRCodeReader)
                     val result = qrCodeFromFileScanner.scan(data)
                     TunnelImporter.importTunnel(parentFragmentManager, result.text) { showSnackbar(it) }
                 } catch (e: Exception) {
@@ -4,13 +4,17 @@
  */
 package org.amnezia.awg.model
 
-import android.graphics.drawable.Drawable
 import androidx.databinding.BaseObservable
 import androidx.databinding.Bindable
 import org.amnezia.awg.BR
 import org.amnezia.awg.databinding.Keyed
 
-class ApplicationData(val icon: Drawable, val name: String, val packageName: String, isSelected: Boolean) : BaseObservable(), Keyed<String> {
+/**
+ * An application that can be included in or excluded from a tunnel. Its icon is not part of it,
+ * since icons are only loaded for the rows being shown; [iconKey] changes with every update of the
+ * package, so that a cached icon is not shown for a newer version.
+ */
+class ApplicationData(val name: String, val packageName: String, val iconKey: String, isSelected: Boolean) : BaseObservable(), Keyed<String> {
     override val key = name
 
     @get:Bindable
@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package org.amnezia.awg.model
+
+import android.Manifest
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageInfo
+import android.content.pm.PackageManager
+import android.content.pm.PackageManager.PackageInfoFlags
+import android.os.Build
+import android.provider.Settings
+import android.util.Log
+import androidx.core.content.ContextCompat
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.takeWhile
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Catalog of the installed applications that hold the INTERNET permission, which are the ones a
+ * tunnel can include or exclude. It is kept in a small file in the cache directory and brought up
+ * to date on start with the packages that changed since, and then by package broadcasts, so that
+ * it can be read at once without asking the package manager about every package.
+ */
+class PackageCatalog(private val context: Context) {
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val file = File(context.cacheDir, "package_catalog")
+    private val loaded = CompletableDeferred<Unit>()
+    private val firstScan = MutableStateFlow<List<Entry>?>(emptyList())
+    private val mutex = Mutex()
+    private var bootCount = -1
+    private var sequenceNumber = 0
+
+    /**
+     * An installed application.
+     *
+     * @param iconKey identifies the icon of the installed version of the package
+     */
+    data class Entry(val packageName: String, val label: String, val uid: Int, val iconKey: String)
+
+    /**
+     * Load the catalog and follow package changes from then on.
+     */
+    fun start(scope: CoroutineScope) {
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_PACKAGE_ADDED)
+            addAction(Intent.ACTION_PACKAGE_REMOVED)
+            addAction(Intent.ACTION_PACKAGE_REPLACED)
+            addDataScheme("package")
+        }
+        ContextCompat.registerReceiver(context, object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                val packageName = intent.data?.schemeSpecificPart ?: return
+                // An update removes the old version first and is followed by ACTION_PACKAGE_REPLACED.
+                if (intent.action == Intent.ACTION_PACKAGE_REMOVED && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false))
+                    return
+                scope.launch(Dispatchers.IO) { refresh(listOf(packageName)) }
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED)
+        scope.launch(Dispatchers.IO) { load() }
+    }
+
+    /**
+     * Get all applications in pages. Once the catalog is loaded, they come in a single page. If it
+     * has never been saved, each page comes as soon as the first scan has labelled it.
+     */
+    fun getEntryPages(): Flow<List<Entry>> = flow {
+        val sent = HashSet<String>()
+        firstScan.takeWhile { it != null }.collect { scanned ->
+            val page = scanned!!.filter { sent.add(it.packageName) }
+            if (page.isNotEmpty())
+                emit(page)
+        }
+        val rest = entries.values.filter { sent.add(it.packageName) }
+        if (rest.isNotEmpty() || sent.isEmpty())
+            emit(rest)
+    }
+
+    /**
+     * Check whether an application is installed. Until the catalog is loaded, every application
+     * is assumed to be.
+     */
+    fun isInstalled(packageName: String) = !loaded.isCompleted || entries.containsKey(packageName)
+
+    private suspend fun load() {
+        val boot = Settings.Global.getInt(context.contentResolver, Settings.Global.BOOT_COUNT, -1)
+        val restored = try {
+            read()
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to read package catalog", e)
+            false
+        }
+        if (restored)
+            markLoaded()
+        // Sequence numbers of package changes start over with every boot.
+        if (restored && boot == bootCount && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.packageManager.getChangedPackages(sequenceNumber)?.let {
+                sequenceNumber = it.sequenceNumber
+                refresh(it.packageNames)
+            }
+        } else {
+            scanAll(boot)
+        }
+        markLoaded()
+    }
+
+    private fun markLoaded() {
+        loaded.complete(Unit)
+        firstScan.value = null
+    }
+
+    private suspend fun scanAll(boot: Int) = mutex.withLock {
+        val pm = context.packageManager
+        val packageInfos = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            pm.getPackagesHoldingPermissions(arrayOf(Manifest.permission.INTERNET), PackageInfoFlags.of(0L))
+        } else {
+            @Suppress("DEPRECATION")
+            pm.getPackagesHoldingPermissions(arrayOf(Manifest.permission.INTERNET), 0)
+        }
+        // Replace entries in place, as a catalog that is already loaded must stay complete.
+        val scanned = ArrayList<Entry>(packageInfos.size)
+        for (page in packageInfos.chunked(PAGE_SIZE)) {
+            for (packageInfo in page) {
+                val entry = entryFor(pm, packageInfo)
+                entries[entry.packageName] = entry
+                scanned.add(entry)
+            }
+            if (!loaded.isCompleted)
+                firstScan.value = scanned.toList()
+        }
+        entries.keys.retainAll(packageInfos.mapTo(HashSet()) { it.packageName })
+        bootCount = boot
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+            sequenceNumber = pm.getChangedPackages(0)?.sequenceNumber ?: 0
+        save()
+    }
+
+    private suspend fun refresh(packageNames: List<String>) = mutex.withLock {
+        val pm = context.packageManager
+        for (packageName in packageNames) {
+            val packageInfo = try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    pm.getPackageInfo(packageName, PackageInfoFlags.of(PackageManager.GET_PERMISSIONS.toLong()))
+                } else {
+                    @Suppress("DEPRECATION")
+                    pm.getPackageInfo(packageName, PackageManager.GET_PERMISSIONS)
+                }
+            } catch (_: PackageManager.NameNotFoundException) {
+                null
+            }
+            if (packageInfo?.requestedPermissions?.contains(Manifest.permission.INTERNET) == true)
+                entries[packageName] = entryFor(pm, packageInfo)
+            else
+                entries.remove(packageName)
+        }
+        save()
+    }
+
+    private fun entryFor(pm: PackageManager, packageInfo: PackageInfo) = Entry(
+        packageInfo.packageName, packageInfo.applicationInfo.loadLabel(pm).toString(), packageInfo.applicationInfo.uid,
+        "${packageInfo.packageName}@${packageInfo.lastUpdateTime}"
+    )
+
+    /**
+     * Read the saved catalog: a header line with the format version, the boot count and the
+     * sequence number of package changes, and then a tab separated line per package.
+     *
+     * @return whether there was a saved catalog in the current format
+     */
+    private fun read(): Boolean {
+        if (!file.exists())
+            return false
+        val lines = file.readLines()
+        val header = lines.firstOrNull()?.split('\t') ?: return false
+        if (header.size != 3 || header[0] != FORMAT_VERSION)
+            return false
+        bootCount = header[1].toIntOrNull() ?: return false
+        sequenceNumber = header[2].toIntOrNull() ?: return false
+        for (line in lines.subList(1, lines.size)) {
+            val fields = line.split('\t', limit = 4)
+            if (fields.size != 4)
+                continue
+            val uid = fields[1].toIntOrNull() ?: continue
+            entries[fields[0]] = Entry(fields[0], fields[3], uid, fields[2])
+        }
+        return true
+    }
+
+    private fun save() {
+        try {
+            val temporary = File(file.path + ".tmp")
+            temporary.bufferedWriter().use { writer ->
+                writer.write("$FORMAT_VERSION\t$bootCount\t$sequenceNumber\n")
+                for (entry in entries.values) {
+                    val label = entry.label.replace('\t', ' ').replace('\n', ' ')
+                    writer.write("${entry.packageName}\t${entry.uid}\t${entry.iconKey}\t$label\n")
+                }
+            }
+            if (!temporary.renameTo(file))
+                throw IOException("Unable to replace $file")
+        } catch (e: IOException) {
+            Log.w(TAG, "Unable to save package catalog", e)
+        }
+    }
+
+    companion object {
+        private const val FORMAT_VERSION = "1"
+        private const val PAGE_SIZE = 32
+        private const val TAG = "AmneziaWG/PackageCatalog"
+    }
+}
@@ -17,6 +17,7 @@ import org.amnezia.awg.Application.Companion.getBackend
 import org.amnezia.awg.Application.Companion.getTunnelManager
 import org.amnezia.awg.BR
 import org.amnezia.awg.R
+import org.amnezia.awg.backend.Backend
 import org.amnezia.awg.backend.Statistics
 import org.amnezia.awg.backend.Tunnel
 import org.amnezia.awg.configStore.ConfigStore
@@ -42,6 +43,13 @@ class TunnelManager(private val configStore: ConfigStore) : BaseObservable() {
     private val context: Context = get()
     private val tunnelMap: ObservableSortedKeyedArrayList<String, ObservableTunnel> = ObservableSortedKeyedArrayList(TunnelComparator)
     private var haveLoaded = false
+    @Volatile
+    private var runningTunnels: RunningTunnels? = null
+
+    /**
+     * The names of the running tunnels as of a backend's running tunnels token.
+     */
+    private class RunningTunnels(val backend: Backend, val token: Long, val names: Set<String>)
 
     private fun addToList(name: String, config: Config?, state: Tunnel.State): ObservableTunnel {
         val tunnel = ObservableTunnel(this, name, config, state)
@@ -101,7 +109,7 @@ class TunnelManager(private val configStore: ConfigStore) : BaseObservable() {
     fun onCreate() {
         applicationScope.launch {
             try {
-                onTunnelsLoaded(withContext(Dispatchers.IO) { configStore.enumerate() }, withContext(Dispatchers.IO) { getBackend().runningTunnelNames })
+                onTunnelsLoaded(withContext(Dispatchers.IO) { configStore.enumerate() }, getRunningTunnelNames())
             } catch (e: Throwable) {
                 Log.e(TAG, Log.getStackTraceString(e))
             }
@@ -121,12 +129,34 @@ class TunnelManager(private val configStore: ConfigStore) : BaseObservable() {
         }
     }
 
+    /**
+     * Get the names of the running tunnels, reusing the last ones for as long as the backend's
+     * running tunnels token says they are current.
+     */
+    private suspend fun getRunningTunnelNames(): Set<String> = withContext(Dispatchers.IO) {
+        val backend = getBackend()
+        val token = backend.runningTunnelsToken
+        val cached = runningTunnels
+        if (cached != null && token != Backend.UNCACHEABLE_TOKEN && cached.backend === backend && cached.token == token)
+            return@withContext cached.names
+        backend.runningTunnelNames.also { runningTunnels = RunningTunnels(backend, token, it) }
+    }
+
+    /**
+     * Reconcile the tunnels with the backend's running tunnels. Only tunnels whose state differs
+     * are updated, all of them in the same pass on the main thread, so that their rows are rebound
+     * together and the statistics of tunnels that stay down are left alone.
+     */
     private fun refreshTunnelStates() {
         applicationScope.launch {
             try {
-                val running = withContext(Dispatchers.IO) { getBackend().runningTunnelNames }
-                for (tunnel in tunnelMap)
-                    tunnel.onStateChanged(if (running.contains(tunnel.name)) Tunnel.State.UP else Tunnel.State.DOWN)
+                val running = getRunningTunnelNames()
+                val changes = tunnelMap.mapNotNull { tunnel ->
+                    val state = if (running.contains(tunnel.name)) Tunnel.State.UP else Tunnel.State.DOWN
+                    if (tunnel.state != state) tunnel to state else null
+                }
+                for ((tunnel, state) in changes)
+                    tunnel.onStateChanged(state)
             } catch (e: Throwable) {
                 Log.e(TAG, Log.getStackTraceString(e))
             }
@@ -49,6 +49,8 @@ class KernelModuleEnablerPreference(context: Context, attrs: AttributeSet?) : Pr
                 setState(State.DISABLING)
                 UserKnobs.setEnableKernelModule(false)
             }
+            // Have the backend detected again on the next start.
+            UserKnobs.setLastBackend(null)
             val observableTunnels = Application.getTunnelManager().getTunnels()
             val downings = observableTunnels.map { async(SupervisorJob()) { it.setStateAsync(Tunnel.State.DOWN) } }
             try {
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package org.amnezia.awg.util
+
+import android.content.pm.PackageManager
+import android.graphics.Bitmap
+import android.util.LruCache
+import android.widget.ImageView
+import androidx.core.graphics.drawable.toBitmap
+import org.amnezia.awg.R
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+
+/**
+ * Application icons rendered to bitmaps at the size they are shown at, kept across app list
+ * dialogs so that scrolling back or reopening a dialog does not load them from their packages
+ * again. Icons are only loaded once a row showing them is bound.
+ */
+object AppIconCache {
+    private val cache = object : LruCache<String, Bitmap>((Runtime.getRuntime().maxMemory() / 32).toInt()) {
+        override fun sizeOf(key: String, value: Bitmap) = value.byteCount
+    }
+
+    private fun key(iconKey: String, size: Int) = "$iconKey@$size"
+
+    /**
+     * Show the icon of a package, loading it in the background if it is not cached. The view is
+     * left blank meanwhile, and the icon is only set if the view still shows the same package
+     * once it has loaded.
+     *
+     * @param iconKey identifies the version of the package the icon is cached for
+     */
+    fun bind(view: ImageView, packageName: String?, iconKey: String? = packageName) {
+        view.setTag(R.id.icon_package_name, packageName)
+        if (packageName == null || iconKey == null) {
+            view.setImageDrawable(null)
+            return
+        }
+        val size = view.layoutParams?.width?.takeIf { it > 0 }
+            ?: view.resources.getDimensionPixelSize(android.R.dimen.app_icon_size)
+        val cached = cache[key(iconKey, size)]
+        if (cached != null) {
+            view.setImageBitmap(cached)
+            return
+        }
+        view.setImageDrawable(null)
+        val pm = view.context.packageManager
+        applicationScope.launch {
+            val icon = load(pm, packageName, iconKey, size) ?: return@launch
+            if (view.getTag(R.id.icon_package_name) == packageName)
+                view.setImageBitmap(icon)
+        }
+    }
+
+    private suspend fun load(pm: PackageManager, packageName: String, iconKey: String, size: Int): Bitmap? = withContext(Dispatchers.IO) {
+        cache[key(iconKey, size)]?.let { return@withContext it }
+        val icon = try {
+            pm.getApplicationIcon(packageName).toBitmap(size, size)
+        } catch (_: PackageManager.NameNotFoundException) {
+            return@withContext null
+        }
+        cache.put(key(iconKey, size), icon)
+        icon
+    }
+}
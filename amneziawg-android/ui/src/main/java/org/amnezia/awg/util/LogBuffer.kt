@@ -0,0 +1,296 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package org.amnezia.awg.util
+
+import java.io.File
+import java.io.OutputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Append-only store for the output of `logcat -v threadtime`, kept in a byte ring. Given a
+ * [directory], the ring is a memory mapped file there, which is outside of the Java heap and whose
+ * pages are only backed by memory once written and can be written back to storage under memory
+ * pressure. Otherwise it is a direct buffer, which ART allocates on the Java heap. Lines are
+ * grouped into entries: a line starting with a timestamp begins an entry, and
+ * any other line continues the previous one, so a stack trace is a single entry. Entries are
+ * indexed by the offset at which they start and are only decoded when read. The oldest entries are
+ * evicted once the ring or the index is full.
+ *
+ * Entries are addressed by sequence numbers that keep increasing as entries are evicted, so that a
+ * reader on another thread can tell whether an entry it knows of is still there. All methods may
+ * be called from any thread.
+ */
+class LogBuffer(private val capacity: Int = DEFAULT_CAPACITY, private val maxEntries: Int = MAX_ENTRIES, directory: File? = null) {
+    private val ring: ByteBuffer = if (directory == null) ByteBuffer.allocateDirect(capacity) else map(directory, capacity)
+    private val starts = LongArray(maxEntries) // ring of absolute entry offsets, indexed by sequence number
+    private var firstSeq = 0L
+    private var endSeq = 0L
+    private var head = 0L // absolute offset of the oldest retained byte
+    private var tail = 0L // absolute offset one past the newest byte
+    private var partial = ByteArray(256)
+    private var partialLength = 0
+    private var scratch = ByteArray(1024)
+
+    /**
+     * The sequence number of the oldest retained entry.
+     */
+    val first: Long
+        @Synchronized get() = firstSeq
+
+    /**
+     * The sequence number one past the newest entry.
+     */
+    val end: Long
+        @Synchronized get() = endSeq
+
+    /**
+     * Append raw logcat output. Incomplete lines are held back until their newline arrives.
+     */
+    @Synchronized
+    fun write(bytes: ByteArray, offset: Int, length: Int) {
+        var lineStart = offset
+        for (i in offset until offset + length) {
+            if (bytes[i] != NEWLINE)
+                continue
+            if (partialLength == 0) {
+                appendLine(bytes, lineStart, i - lineStart)
+            } else {
+                holdBack(bytes, lineStart, i - lineStart)
+                appendLine(partial, 0, partialLength)
+                partialLength = 0
+            }
+            lineStart = i + 1
+        }
+        holdBack(bytes, lineStart, offset + length - lineStart)
+    }
+
+    private fun holdBack(bytes: ByteArray, offset: Int, length: Int) {
+        if (length == 0)
+            return
+        if (partialLength + length > partial.size)
+            partial = partial.copyOf(maxOf(partial.size * 2, partialLength + length))
+        System.arraycopy(bytes, offset, partial, partialLength, length)
+        partialLength += length
+    }
+
+    private fun appendLine(bytes: ByteArray, offset: Int, length: Int) {
+        val continuation = endSeq > firstSeq && !isEntryStart(bytes, offset, length)
+        // A single entry may not take over the ring; overly long stack traces are cut short.
+        if (continuation && tail + length + 1 - starts[slot(endSeq - 1)] > capacity / 4)
+            return
+        val size = minOf(length, capacity / 4 - 1)
+        if (!continuation && endSeq - firstSeq == maxEntries.toLong())
+            evictFirst()
+        while (tail + size + 1 - head > capacity)
+            evictFirst()
+        if (!continuation)
+            starts[slot(endSeq++)] = tail
+        put(bytes, offset, size)
+        put(NEWLINE_BYTES, 0, 1)
+    }
+
+    /**
+     * Evict all entries, including any incomplete line. Sequence numbers continue where they were.
+     */
+    @Synchronized
+    fun clear() {
+        firstSeq = endSeq
+        head = tail
+        partialLength = 0
+    }
+
+    private fun evictFirst() {
+        ++firstSeq
+        head = if (firstSeq == endSeq) tail else starts[slot(firstSeq)]
+    }
+
+    private fun slot(seq: Long) = (seq % maxEntries).toInt()
+
+    private fun put(bytes: ByteArray, offset: Int, length: Int) {
+        val position = (tail % capacity).toInt()
+        val firstPart = minOf(length, capacity - position)
+        ring.position(position)
+        ring.put(bytes, offset, firstPart)
+        if (firstPart < length) {
+            ring.position(0)
+            ring.put(bytes, offset + firstPart, length - firstPart)
+        }
+        tail += length
+    }
+
+    private fun copy(from: Long, length: Int, into: ByteArray) {
+        val position = (from % capacity).toInt()
+        val firstPart = minOf(length, capacity - position)
+        val view = ring.duplicate()
+        view.position(position)
+        view.get(into, 0, firstPart)
+        if (firstPart < length) {
+            view.position(0)
+            view.get(into, firstPart, length - firstPart)
+        }
+    }
+
+    /**
+     * Read an entry, its lines joined by newlines.
+     *
+     * @return the text of the entry, or null if it has been evicted or does not exist yet
+     */
+    @Synchronized
+    fun read(seq: Long): String? {
+        if (seq < firstSeq || seq >= endSeq)
+            return null
+        val bytes = ByteArray(entryLength(seq))
+        copy(starts[slot(seq)], bytes.size, bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    /**
+     * Match an entry against a filter without decoding it.
+     *
+     * @return whether the entry exists and matches
+     */
+    @Synchronized
+    fun matches(seq: Long, filter: Filter): Boolean {
+        if (seq < firstSeq || seq >= endSeq)
+            return false
+        val length = entryLength(seq)
+        if (length > scratch.size)
+            scratch = ByteArray(maxOf(length, scratch.size * 2))
+        copy(starts[slot(seq)], length, scratch)
+        return (filter.tagPrefix == null || tagStartsWith(scratch, length, filter.tagPrefix)) &&
+                (filter.text == null || containsIgnoringAsciiCase(scratch, length, filter.text))
+    }
+
+    private fun entryLength(seq: Long): Int {
+        val entryEnd = if (seq + 1 == endSeq) tail else starts[slot(seq + 1)]
+        return (entryEnd - starts[slot(seq)] - 1).toInt()
+    }
+
+    /**
+     * Write the lines retained when called, each terminated by a newline. The buffer is only
+     * locked while copying each chunk, so that a slow stream does not hold up writers. Lines that
+     * are evicted before their turn comes are skipped.
+     */
+    fun writeTo(out: OutputStream) {
+        val chunk = ByteArray(CHUNK_SIZE)
+        val end = synchronized(this) { tail }
+        var position = 0L
+        while (true) {
+            val length = synchronized(this) {
+                position = maxOf(position, head)
+                val length = minOf(CHUNK_SIZE.toLong(), end - position).toInt()
+                if (length > 0)
+                    copy(position, length, chunk)
+                length
+            }
+            if (length <= 0)
+                break
+            out.write(chunk, 0, length)
+            position += length
+        }
+    }
+
+    /**
+     * A filter on the entries of a log buffer, precompiled to the bytes it compares. The tag
+     * prefix is matched against the tag that logcat printed, and the text anywhere in an entry,
+     * ignoring the case of ASCII letters.
+     */
+    class Filter(tagPrefix: String? = null, text: String? = null) {
+        internal val tagPrefix = tagPrefix?.toByteArray(Charsets.UTF_8)
+        internal val text = text?.takeIf { it.isNotEmpty() }?.toByteArray(Charsets.UTF_8)?.apply {
+            for (i in indices)
+                this[i] = toLowerAscii(this[i])
+        }
+
+        val isEmpty: Boolean
+            get() = tagPrefix == null && text == null
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 8 shl 20
+        const val MAX_ENTRIES = (1 shl 16) - 1
+        private const val CHUNK_SIZE = 1 shl 16
+        private const val NEWLINE = '\n'.code.toByte()
+        private val NEWLINE_BYTES = byteArrayOf(NEWLINE)
+        private const val SPACE = ' '.code.toByte()
+        private const val TIMESTAMP = "00-00 00:00:00.000"
+
+        /**
+         * Map a new file in a directory, which is deleted right away so that it goes away along
+         * with the mapping and is never shared with another buffer.
+         */
+        private fun map(directory: File, capacity: Int): ByteBuffer {
+            val file = File.createTempFile("logcat", ".ring", directory)
+            try {
+                RandomAccessFile(file, "rw").use {
+                    it.setLength(capacity.toLong())
+                    return it.channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong())
+                }
+            } finally {
+                file.delete()
+            }
+        }
+
+        /**
+         * Check whether a line starts with a `MM-DD HH:MM:SS.mmm` timestamp, as every line that
+         * `logcat -v threadtime` prints for a new message does, without decoding it.
+         */
+        fun isEntryStart(bytes: ByteArray, offset: Int, length: Int): Boolean {
+            if (length < TIMESTAMP.length)
+                return false
+            for (i in TIMESTAMP.indices) {
+                val b = bytes[offset + i]
+                val matches = if (TIMESTAMP[i] == '0') b in '0'.code..'9'.code else b == TIMESTAMP[i].code.toByte()
+                if (!matches)
+                    return false
+            }
+            return true
+        }
+
+        private fun toLowerAscii(b: Byte) = if (b in 'A'.code..'Z'.code) (b + ('a' - 'A')).toByte() else b
+
+        /**
+         * Check the tag of a threadtime line, which follows the timestamp, an optional UID, the
+         * PID, the TID and the one letter level.
+         */
+        private fun tagStartsWith(bytes: ByteArray, length: Int, prefix: ByteArray): Boolean {
+            var i = TIMESTAMP.length
+            var tokens = 0
+            while (i < length) {
+                while (i < length && bytes[i] == SPACE)
+                    ++i
+                val tokenStart = i
+                while (i < length && bytes[i] != SPACE)
+                    ++i
+                if (i - tokenStart == 1 && tokens >= 2 && bytes[tokenStart] in 'A'.code..'Z'.code) {
+                    while (i < length && bytes[i] == SPACE)
+                        ++i
+                    if (length - i < prefix.size)
+                        return false
+                    for (j in prefix.indices) {
+                        if (bytes[i + j] != prefix[j])
+                            return false
+                    }
+                    return true
+                }
+                ++tokens
+            }
+            return false
+        }
+
+        private fun containsIgnoringAsciiCase(bytes: ByteArray, length: Int, needle: ByteArray): Boolean {
+            outer@ for (i in 0..length - needle.size) {
+                for (j in needle.indices) {
+                    if (toLowerAscii(bytes[i + j]) != needle[j])
+                        continue@outer
+                }
+                return true
+            }
+            return false
+        }
+    }
+}
@@ -13,82 +13,110 @@ import android.util.Log
 import com.google.zxing.BinaryBitmap
 import com.google.zxing.DecodeHintType
 import com.google.zxing.NotFoundException
-import com.google.zxing.RGBLuminanceSource
+import com.google.zxing.PlanarYUVLuminanceSource
 import com.google.zxing.Reader
 import com.google.zxing.Result
 import com.google.zxing.common.HybridBinarizer
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
 
 /**
- * Encapsulates the logic of scanning a barcode from a file,
+ * Encapsulates the logic of scanning a barcode from a file. The image is decoded directly at a few
+ * reduced sizes, smallest first, which are scanned concurrently until one of them yields a result,
+ * so that a large photo is never scanned at full resolution.
  * @property contentResolver - Resolver to read the incoming data
- * @property reader - An instance of zxing's [Reader] class to parse the image
+ * @property newReader - Creates an instance of zxing's [Reader] class to parse the image, one for
+ * each size scanned concurrently
  */
 class QrCodeFromFileScanner(
     private val contentResolver: ContentResolver,
-    private val reader: Reader,
+    private val newReader: () -> Reader,
 ) {
 
-    private fun scanBitmapForResult(source: Bitmap): Result {
+    /**
+     * Convert a bitmap to luminance one row at a time, so that no pixel array of the size of the
+     * bitmap is needed next to it.
+     */
+    private fun luminanceOf(source: Bitmap): ByteArray {
         val width = source.width
         val height = source.height
-        val pixels = IntArray(width * height)
-        source.getPixels(pixels, 0, width, 0, 0, width, height)
-
-        val bBitmap = BinaryBitmap(HybridBinarizer(RGBLuminanceSource(width, height, pixels)))
-        return reader.decode(bBitmap, mapOf(DecodeHintType.TRY_HARDER to true))
+        val row = IntArray(width)
+        val luminance = ByteArray(width * height)
+        for (y in 0 until height) {
+            source.getPixels(row, 0, width, 0, y, width, 1)
+            QrCodeImage.toLuminance(row, luminance, y * width)
+        }
+        return luminance
     }
 
-    private fun downscaleBitmap(source: Bitmap, scaledSize: Int): Bitmap {
-
-        val originalWidth = source.width
-        val originalHeight = source.height
-
-        var newWidth = -1
-        var newHeight = -1
-        val multFactor: Float
-
-        when {
-            originalHeight > originalWidth -> {
-                newHeight = scaledSize
-                multFactor = originalWidth.toFloat() / originalHeight.toFloat()
-                newWidth = (newHeight * multFactor).toInt()
-            }
-
-            originalWidth > originalHeight -> {
-                newWidth = scaledSize
-                multFactor = originalHeight.toFloat() / originalWidth.toFloat()
-                newHeight = (newWidth * multFactor).toInt()
-            }
+    private fun readBounds(data: Uri): BitmapFactory.Options {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        contentResolver.openInputStream(data).use { BitmapFactory.decodeStream(it, null, options) }
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw IllegalArgumentException("Can't decode stream to Bitmap")
+        return options
+    }
 
-            originalHeight == originalWidth -> {
-                newHeight = scaledSize
-                newWidth = scaledSize
-            }
+    private suspend fun scanAt(data: Uri, sampleSize: Int): Result {
+        val options = BitmapFactory.Options().apply { inSampleSize = sampleSize }
+        val bitmap = contentResolver.openInputStream(data).use { BitmapFactory.decodeStream(it, null, options) }
+            ?: throw IllegalArgumentException("Can't decode stream to Bitmap")
+        val width = bitmap.width
+        val height = bitmap.height
+        val luminance = try {
+            currentCoroutineContext().ensureActive()
+            luminanceOf(bitmap)
+        } finally {
+            bitmap.recycle()
         }
-        return Bitmap.createScaledBitmap(source, newWidth, newHeight, false)
+        currentCoroutineContext().ensureActive()
+        val source = PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false)
+        return newReader().decode(BinaryBitmap(HybridBinarizer(source)), mapOf(DecodeHintType.TRY_HARDER to true))
     }
 
-    private fun doScan(data: Uri): Result {
+    private suspend fun doScan(data: Uri): Result {
         Log.d(TAG, "Starting to scan an image: $data")
-        contentResolver.openInputStream(data).use { inputStream ->
-            val originalBitmap = BitmapFactory.decodeStream(inputStream)
-                ?: throw IllegalArgumentException("Can't decode stream to Bitmap")
-
-            return try {
-                scanBitmapForResult(originalBitmap).also {
-                    Log.d(TAG, "Found result in original image")
+        val bounds = readBounds(data)
+        val sampleSizes = QrCodeImage.sampleSizes(maxOf(bounds.outWidth, bounds.outHeight))
+        val result = CompletableDeferred<Result>()
+        var failure: Exception? = null
+        // zxing does not check for cancellation while it decodes, so the attempts run in a scope
+        // of their own that is not waited for once one of them has found a result.
+        val scope = CoroutineScope(Dispatchers.Default + SupervisorJob())
+        val attempts = sampleSizes.map { sampleSize ->
+            scope.launch {
+                try {
+                    result.complete(scanAt(data, sampleSize))
+                    Log.d(TAG, "Found result in image scaled down by $sampleSize")
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    Log.d(TAG, "Image scaled down by $sampleSize scan finished with error: $e")
+                    synchronized(sampleSizes) {
+                        if (failure == null || failure is NotFoundException)
+                            failure = e
+                    }
                 }
-            } catch (e: Exception) {
-                Log.e(TAG, "Original image scan finished with error: $e, will try downscaled image")
-                val scaleBitmap = downscaleBitmap(originalBitmap, 500)
-                scanBitmapForResult(originalBitmap).also { scaleBitmap.recycle() }
-            } finally {
-                originalBitmap.recycle()
             }
         }
-
+        scope.launch {
+            attempts.joinAll()
+            result.completeExceptionally(synchronized(sampleSizes) { failure } ?: NotFoundException.getNotFoundInstance())
+        }
+        try {
+            return result.await()
+        } finally {
+            scope.cancel()
+        }
     }
 
     /**
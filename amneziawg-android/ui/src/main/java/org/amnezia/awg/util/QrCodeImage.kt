@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.util
+
+/**
+ * The parts of preparing an image for zxing that do not depend on Android.
+ */
+object QrCodeImage {
+    private val SCAN_SIZES = intArrayOf(512, 1024, 2048)
+
+    /**
+     * Pick the sample sizes at which to decode an image so that its longer side is at most each
+     * of [SCAN_SIZES], smallest image first. The decoder only honours powers of two.
+     */
+    fun sampleSizes(longerSide: Int) = SCAN_SIZES.map { size ->
+        var sampleSize = 1
+        while (longerSide / sampleSize > size)
+            sampleSize *= 2
+        sampleSize
+    }.distinct()
+
+    /**
+     * Convert [count] ARGB pixels to luminance, with the same approximation as zxing's
+     * `RGBLuminanceSource`.
+     */
+    fun toLuminance(pixels: IntArray, luminance: ByteArray, luminanceOffset: Int, count: Int = pixels.size) {
+        for (x in 0 until count) {
+            val pixel = pixels[x]
+            val r = pixel shr 16 and 0xff
+            val g2 = pixel shr 7 and 0x1fe
+            val b = pixel and 0xff
+            luminance[luminanceOffset + x] = ((r + g2 + b) / 4).toByte()
+        }
+    }
+}
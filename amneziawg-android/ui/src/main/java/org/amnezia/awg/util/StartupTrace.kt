@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+package org.amnezia.awg.util
+
+import java.util.Locale
+
+/**
+ * Timings of the phases of starting the application, from the creation of the `Application`.
+ *
+ * The phases up to [Phase.THEME] run on the main thread before any activity can be created.
+ * [Phase.BACKEND_SELECTION] runs in the background alongside them, and is measured from the
+ * creation of the `Application` until a backend is chosen. Phases that did not run yet have a
+ * duration of zero.
+ */
+class StartupTrace {
+    private val durations = LongArray(Phase.values().size)
+    private val startNanos = System.nanoTime()
+    private var onCreateNanos = 0L
+
+    /**
+     * Returns the time spent in a phase, in nanoseconds.
+     */
+    @Synchronized
+    fun getDurationNanos(phase: Phase) = durations[phase.ordinal]
+
+    /**
+     * Returns the time spent on the main thread in `Application.onCreate`, in nanoseconds.
+     */
+    @Synchronized
+    fun getOnCreateNanos() = onCreateNanos
+
+    /**
+     * Records the end of a phase.
+     *
+     * @param phaseStart the value of [System.nanoTime] when the phase began
+     * @return the current value of [System.nanoTime], to be used as the start of the next phase
+     */
+    @Synchronized
+    fun record(phase: Phase, phaseStart: Long = startNanos): Long {
+        val now = System.nanoTime()
+        durations[phase.ordinal] += now - phaseStart
+        return now
+    }
+
+    @Synchronized
+    fun finishOnCreate() {
+        onCreateNanos = System.nanoTime() - startNanos
+    }
+
+    @Synchronized
+    override fun toString() = buildString {
+        append("startup:")
+        for (phase in Phase.values())
+            append(' ').append(phase.name.lowercase(Locale.ENGLISH)).append('=').append(formatMillis(durations[phase.ordinal]))
+        append(" on_create=").append(formatMillis(onCreateNanos))
+    }
+
+    /**
+     * The phases of starting the application, in the order in which they start.
+     */
+    enum class Phase {
+        APPLICATION_CREATE,
+        PREFERENCES,
+        TUNNEL_MANAGER,
+        THEME,
+        BACKEND_SELECTION
+    }
+
+    companion object {
+        private fun formatMillis(nanos: Long) = String.format(Locale.ENGLISH, "%.1fms", nanos / 1e6)
+    }
+}
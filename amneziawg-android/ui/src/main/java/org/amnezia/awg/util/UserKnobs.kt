@@ -29,6 +29,21 @@ object UserKnobs {
         }
     }
 
+    private val LAST_BACKEND = stringPreferencesKey("last_backend")
+    val lastBackend: Flow<String?>
+        get() = Application.getPreferencesDataStore().data.map {
+            it[LAST_BACKEND]
+        }
+
+    suspend fun setLastBackend(backend: String?) {
+        Application.getPreferencesDataStore().edit {
+            if (backend == null)
+                it.remove(LAST_BACKEND)
+            else
+                it[LAST_BACKEND] = backend
+        }
+    }
+
     private val MULTIPLE_TUNNELS = booleanPreferencesKey("multiple_tunnels")
     val multipleTunnels: Flow<Boolean>
         get() = Application.getPreferencesDataStore().data.map {
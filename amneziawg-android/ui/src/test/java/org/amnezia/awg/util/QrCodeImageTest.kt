@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.util
+
+import com.google.zxing.BarcodeFormat
+import com.google.zxing.BinaryBitmap
+import com.google.zxing.DecodeHintType
+import com.google.zxing.PlanarYUVLuminanceSource
+import com.google.zxing.RGBLuminanceSource
+import com.google.zxing.common.BitMatrix
+import com.google.zxing.common.HybridBinarizer
+import com.google.zxing.qrcode.QRCodeReader
+import com.google.zxing.qrcode.QRCodeWriter
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class QrCodeImageTest {
+    @Test
+    fun sample_sizes_start_with_smallest_image() {
+        assertEquals(listOf(1), QrCodeImage.sampleSizes(500))
+        assertEquals(listOf(2, 1), QrCodeImage.sampleSizes(1024))
+        assertEquals(listOf(8, 4, 2), QrCodeImage.sampleSizes(4000))
+    }
+
+    @Test
+    fun luminance_matches_zxing() {
+        val pixels = intArrayOf(0xff000000.toInt(), 0xffffffff.toInt(), 0xff123456.toInt(), 0x80fedcba.toInt())
+        val luminance = ByteArray(pixels.size + 1)
+        QrCodeImage.toLuminance(pixels, luminance, 1)
+        assertArrayEquals(RGBLuminanceSource(pixels.size, 1, pixels).getRow(0, null), luminance.copyOfRange(1, luminance.size))
+    }
+
+    @Test
+    fun corpus_decodes_at_every_sample_size() {
+        for (side in intArrayOf(400, 1500, 3000, 6000)) {
+            val text = "[Interface]\nPrivateKey = yAnz5TF+lXXJte14tji3zlMNq+hd2rYUIgJBgB3fBmk=\nAddress = 10.0.0.$side/32\n"
+            val matrix = QRCodeWriter().encode(text, BarcodeFormat.QR_CODE, 0, 0)
+            for (sampleSize in QrCodeImage.sampleSizes(side))
+                assertEquals("${side}px scaled down by $sampleSize", text, decode(matrix, side, sampleSize))
+        }
+    }
+
+    /**
+     * Decode a [side] by [side] image of [matrix] the way the scanner does after the image was
+     * decoded with [sampleSize], reusing one row of pixels.
+     */
+    private fun decode(matrix: BitMatrix, side: Int, sampleSize: Int): String {
+        val size = side / sampleSize
+        val row = IntArray(size)
+        val luminance = ByteArray(size * size)
+        for (y in 0 until size) {
+            for (x in 0 until size)
+                row[x] = pixelAt(matrix, side, x * sampleSize, y * sampleSize)
+            QrCodeImage.toLuminance(row, luminance, y * size)
+        }
+        val source = PlanarYUVLuminanceSource(luminance, size, size, 0, 0, size, size, false)
+        return QRCodeReader().decode(BinaryBitmap(HybridBinarizer(source)), mapOf(DecodeHintType.TRY_HARDER to true)).text
+    }
+
+    /**
+     * A pixel of a photo-like image, with the code in dark grey on off-white in its middle half.
+     */
+    private fun pixelAt(matrix: BitMatrix, side: Int, x: Int, y: Int): Int {
+        val codeSide = side / 2
+        val codeX = x - side / 4
+        val codeY = y - side / 4
+        if (codeX !in 0 until codeSide || codeY !in 0 until codeSide)
+            return LIGHT
+        return if (matrix.get(codeX * matrix.width / codeSide, codeY * matrix.height / codeSide)) DARK else LIGHT
+    }
+
+    companion object {
+        private const val LIGHT = 0xffe8e4dc.toInt()
+        private const val DARK = 0xff30343c.toInt()
+    }
+}
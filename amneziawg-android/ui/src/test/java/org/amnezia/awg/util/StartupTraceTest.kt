@@ -0,0 +1,54 @@
+/*
+ * Copyright © 2017-2023 WireGuard LLC. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.amnezia.awg.util
+
+import org.amnezia.awg.util.StartupTrace.Phase
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class StartupTraceTest {
+    @Test
+    fun phases_that_did_not_run_are_zero() {
+        val trace = StartupTrace()
+        for (phase in Phase.values())
+            assertEquals(0L, trace.getDurationNanos(phase))
+        assertEquals(0L, trace.getOnCreateNanos())
+    }
+
+    @Test
+    fun record_accumulates_per_phase() {
+        val trace = StartupTrace()
+        val start = System.nanoTime() - 5_000_000
+        val end = trace.record(Phase.PREFERENCES, start)
+        val first = trace.getDurationNanos(Phase.PREFERENCES)
+        assertEquals(end - start, first)
+        trace.record(Phase.PREFERENCES, end - 2_000_000)
+        assertTrue(trace.getDurationNanos(Phase.PREFERENCES) >= first + 2_000_000)
+        assertEquals(0L, trace.getDurationNanos(Phase.THEME))
+    }
+
+    @Test
+    fun record_returns_start_of_next_phase() {
+        val trace = StartupTrace()
+        val phaseStart = trace.record(Phase.APPLICATION_CREATE)
+        val next = trace.record(Phase.PREFERENCES, phaseStart)
+        assertEquals(next - phaseStart, trace.getDurationNanos(Phase.PREFERENCES))
+    }
+
+    @Test
+    fun to_string_lists_every_phase_in_order() {
+        val trace = StartupTrace()
+        trace.record(Phase.THEME, System.nanoTime() - 1_500_000)
+        trace.finishOnCreate()
+        val text = trace.toString()
+        assertTrue(text.startsWith("startup: application_create=0.0ms preferences=0.0ms tunnel_manager=0.0ms theme="))
+        assertTrue(text.contains(" backend_selection=0.0ms on_create="))
+        assertTrue(text.endsWith("ms"))
+        val theme = text.substringAfter("theme=").substringBefore("ms").toDouble()
+        assertTrue(theme >= 1.5)
+    }
+}
@@ -14,6 +14,7 @@ import (
 	"runtime"
 	"strconv"
 	"sync"
+	"sync/atomic"
 	"syscall"
 
 	"golang.org/x/net/ipv4"
@@ -40,16 +41,62 @@ type StdNetBind struct {
 	ipv6TxOffload bool
 	ipv6RxOffload bool
 
-	// these two fields are not guarded by mu
+	// these fields are not guarded by mu
 	udpAddrPool sync.Pool
 	msgsPool    sync.Pool
+	options     StdNetBindOptions
+	stats       struct {
+		sendCalls    atomic.Uint64
+		sendMessages atomic.Uint64
+		sendSegments atomic.Uint64
+		recvBatches  atomic.Uint64
+		recvMessages atomic.Uint64
+		recvSegments atomic.Uint64
+	}
 
 	blackhole4 bool
 	blackhole6 bool
 }
 
+// StdNetBindOptions tunes batching and UDP offload of a StdNetBind. The zero
+// value keeps the defaults: IdealBatchSize and offload wherever the kernel
+// supports it.
+type StdNetBindOptions struct {
+	// BatchSize caps the number of packets per send and receive batch. Zero
+	// selects IdealBatchSize, which is also the upper bound.
+	BatchSize int
+	// DisableTxOffload prevents coalescing outgoing datagrams with UDP GSO.
+	DisableTxOffload bool
+	// DisableRxOffload prevents enabling UDP GRO on the sockets.
+	DisableRxOffload bool
+}
+
+// StdNetBindStats counts the syscall batching of a StdNetBind. Segments are
+// WireGuard packets, messages are the datagrams handed to or received from
+// the kernel, which hold several segments each when UDP offload is active.
+type StdNetBindStats struct {
+	SendCalls    uint64 // calls to Send
+	SendMessages uint64 // messages written, after GSO coalescing
+	SendSegments uint64 // packets passed to Send
+	RecvBatches  uint64 // recvmmsg calls that returned data
+	RecvMessages uint64 // messages read, before GRO splitting
+	RecvSegments uint64 // packets returned to the device
+	TxOffload4   bool
+	RxOffload4   bool
+	TxOffload6   bool
+	RxOffload6   bool
+}
+
 func NewStdNetBind() Bind {
+	return NewStdNetBindWithOptions(StdNetBindOptions{})
+}
+
+func NewStdNetBindWithOptions(options StdNetBindOptions) Bind {
+	if options.BatchSize <= 0 || options.BatchSize > IdealBatchSize {
+		options.BatchSize = IdealBatchSize
+	}
 	return &StdNetBind{
+		options: options,
 		udpAddrPool: sync.Pool{
 			New: func() any {
 				return &net.UDPAddr{
@@ -174,7 +221,8 @@ again:
 	}
 	var fns []ReceiveFunc
 	if v4conn != nil {
-		s.ipv4TxOffload, s.ipv4RxOffload = supportsUDPOffload(v4conn)
+		s.ipv4TxOffload, s.ipv4RxOffload = supportsUDPOffload(v4conn, !s.options.DisableRxOffload)
+		s.ipv4TxOffload = s.ipv4TxOffload && !s.options.DisableTxOffload
 		if runtime.GOOS == "linux" || runtime.GOOS == "android" {
 			v4pc = ipv4.NewPacketConn(v4conn)
 			s.ipv4PC = v4pc
@@ -183,7 +231,8 @@ again:
 		s.ipv4 = v4conn
 	}
 	if v6conn != nil {
-		s.ipv6TxOffload, s.ipv6RxOffload = supportsUDPOffload(v6conn)
+		s.ipv6TxOffload, s.ipv6RxOffload = supportsUDPOffload(v6conn, !s.options.DisableRxOffload)
+		s.ipv6TxOffload = s.ipv6TxOffload && !s.options.DisableTxOffload
 		if runtime.GOOS == "linux" || runtime.GOOS == "android" {
 			v6pc = ipv6.NewPacketConn(v6conn)
 			s.ipv6PC = v6pc
@@ -239,22 +288,27 @@ func (s *StdNetBind) receiveIP(
 	defer s.putMessages(msgs)
 	var numMsgs int
 	if runtime.GOOS == "linux" || runtime.GOOS == "android" {
+		// Only the messages backed by bufs may be read into or split into.
+		batch := (*msgs)[:min(len(bufs), s.options.BatchSize)]
 		if rxOffload {
-			readAt := len(*msgs) - (IdealBatchSize / udpSegmentMaxDatagrams)
-			numMsgs, err = br.ReadBatch((*msgs)[readAt:], 0)
+			readAt := len(batch) - max(1, len(batch)/udpSegmentMaxDatagrams)
+			numMsgs, err = br.ReadBatch(batch[readAt:], 0)
 			if err != nil {
 				return 0, err
 			}
-			numMsgs, err = splitCoalescedMessages(*msgs, readAt, getGSOSize)
+			s.stats.recvMessages.Add(uint64(numMsgs))
+			numMsgs, err = splitCoalescedMessages(batch, readAt, getGSOSize)
 			if err != nil {
 				return 0, err
 			}
 		} else {
-			numMsgs, err = br.ReadBatch(*msgs, 0)
+			numMsgs, err = br.ReadBatch(batch, 0)
 			if err != nil {
 				return 0, err
 			}
+			s.stats.recvMessages.Add(uint64(numMsgs))
 		}
+		s.stats.recvBatches.Add(1)
 	} else {
 		msg := &(*msgs)[0]
 		msg.N, msg.NN, _, msg.Addr, err = conn.ReadMsgUDP(msg.Buffers[0], msg.OOB)
@@ -262,7 +316,10 @@ func (s *StdNetBind) receiveIP(
 			return 0, err
 		}
 		numMsgs = 1
+		s.stats.recvBatches.Add(1)
+		s.stats.recvMessages.Add(1)
 	}
+	s.stats.recvSegments.Add(uint64(numMsgs))
 	for i := 0; i < numMsgs; i++ {
 		msg := &(*msgs)[i]
 		sizes[i] = msg.N
@@ -293,11 +350,31 @@ func (s *StdNetBind) makeReceiveIPv6(pc *ipv6.PacketConn, conn *net.UDPConn, rxO
 // rename the IdealBatchSize constant to BatchSize.
 func (s *StdNetBind) BatchSize() int {
 	if runtime.GOOS == "linux" || runtime.GOOS == "android" {
-		return IdealBatchSize
+		return s.options.BatchSize
 	}
 	return 1
 }
 
+// Stats returns the batching counters accumulated since the bind was created,
+// along with the offload state of the currently open sockets.
+func (s *StdNetBind) Stats() StdNetBindStats {
+	s.mu.Lock()
+	stats := StdNetBindStats{
+		TxOffload4: s.ipv4TxOffload,
+		RxOffload4: s.ipv4RxOffload,
+		TxOffload6: s.ipv6TxOffload,
+		RxOffload6: s.ipv6RxOffload,
+	}
+	s.mu.Unlock()
+	stats.SendCalls = s.stats.sendCalls.Load()
+	stats.SendMessages = s.stats.sendMessages.Load()
+	stats.SendSegments = s.stats.sendSegments.Load()
+	stats.RecvBatches = s.stats.recvBatches.Load()
+	stats.RecvMessages = s.stats.recvMessages.Load()
+	stats.RecvSegments = s.stats.recvSegments.Load()
+	return stats
+}
+
 func (s *StdNetBind) Close() error {
 	s.mu.Lock()
 	defer s.mu.Unlock()
@@ -379,10 +456,15 @@ func (s *StdNetBind) Send(bufs [][]byte, endpoint Endpoint) error {
 		retried bool
 		err     error
 	)
+	s.stats.sendCalls.Add(1)
+	s.stats.sendSegments.Add(uint64(len(bufs)))
 retry:
 	if offload {
 		n := coalesceMessages(ua, endpoint.(*StdNetEndpoint), bufs, *msgs, setGSOSize)
 		err = s.send(conn, br, (*msgs)[:n])
+		if err == nil {
+			s.stats.sendMessages.Add(uint64(n))
+		}
 		if err != nil && offload && errShouldDisableUDPGSO(err) {
 			offload = false
 			s.mu.Lock()
@@ -402,6 +484,9 @@ retry:
 			setSrcControl(&(*msgs)[i].OOB, endpoint.(*StdNetEndpoint))
 		}
 		err = s.send(conn, br, (*msgs)[:len(bufs)])
+		if err == nil {
+			s.stats.sendMessages.Add(uint64(len(bufs)))
+		}
 	}
 	if retried {
 		return ErrUDPGSODisabled{onLaddr: conn.LocalAddr().String(), RetryErr: err}
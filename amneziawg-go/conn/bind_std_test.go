@@ -3,6 +3,8 @@ package conn
 import (
 	"encoding/binary"
 	"net"
+	"runtime"
+	"strconv"
 	"testing"
 
 	"golang.org/x/net/ipv6"
@@ -27,6 +29,91 @@ func TestStdNetBindReceiveFuncAfterClose(t *testing.T) {
 	}
 }
 
+func TestStdNetBindOptionsAndStats(t *testing.T) {
+	bind := NewStdNetBindWithOptions(StdNetBindOptions{
+		BatchSize:        IdealBatchSize * 2,
+		DisableTxOffload: true,
+		DisableRxOffload: true,
+	}).(*StdNetBind)
+	if bind.options.BatchSize != IdealBatchSize {
+		t.Errorf("BatchSize = %d, want clamped to %d", bind.options.BatchSize, IdealBatchSize)
+	}
+	fns, port, err := bind.Open(0)
+	if err != nil {
+		t.Fatal(err)
+	}
+	defer bind.Close()
+	stats := bind.Stats()
+	if stats.TxOffload4 || stats.RxOffload4 || stats.TxOffload6 || stats.RxOffload6 {
+		t.Errorf("offload enabled despite options: %+v", stats)
+	}
+	ep, err := bind.ParseEndpoint(net.JoinHostPort("127.0.0.1", strconv.Itoa(int(port))))
+	if err != nil {
+		t.Fatal(err)
+	}
+	if err := bind.Send([][]byte{{1}, {2}, {3}}, ep); err != nil {
+		t.Fatal(err)
+	}
+	bufs := [][]byte{make([]byte, 16)}
+	sizes := make([]int, 1)
+	eps := make([]Endpoint, 1)
+	if _, err := fns[0](bufs, sizes, eps); err != nil {
+		t.Fatal(err)
+	}
+	stats = bind.Stats()
+	if stats.SendCalls != 1 || stats.SendSegments != 3 || stats.SendMessages != 3 {
+		t.Errorf("send counters = %+v, want 1 call with 3 segments in 3 messages", stats)
+	}
+	if stats.RecvBatches != 1 || stats.RecvMessages != 1 || stats.RecvSegments != 1 {
+		t.Errorf("receive counters = %+v, want one batch of one message", stats)
+	}
+}
+
+// fixedBatchReader hands out a single datagram per ReadBatch call, recording
+// the messages it was asked to fill.
+type fixedBatchReader struct {
+	payload []byte
+	msgs    []ipv6.Message
+}
+
+func (r *fixedBatchReader) ReadBatch(msgs []ipv6.Message, _ int) (int, error) {
+	r.msgs = msgs
+	msgs[0].N = copy(msgs[0].Buffers[0], r.payload)
+	msgs[0].NN = 0
+	msgs[0].Addr = &net.UDPAddr{IP: net.IPv4(127, 0, 0, 1), Port: 51820}
+	return 1, nil
+}
+
+func TestStdNetBindReceiveSmallBatchWithRxOffload(t *testing.T) {
+	if runtime.GOOS != "linux" && runtime.GOOS != "android" {
+		t.Skip("batch reads are only used on Linux")
+	}
+	for _, batchSize := range []int{1, 4, IdealBatchSize / 2, IdealBatchSize} {
+		bind := NewStdNetBindWithOptions(StdNetBindOptions{BatchSize: batchSize}).(*StdNetBind)
+		bufs := make([][]byte, bind.BatchSize())
+		for i := range bufs {
+			bufs[i] = make([]byte, 1<<16-1)
+		}
+		sizes := make([]int, len(bufs))
+		eps := make([]Endpoint, len(bufs))
+		br := &fixedBatchReader{payload: []byte("hello")}
+		n, err := bind.receiveIP(br, nil, true, bufs, sizes, eps)
+		if err != nil {
+			t.Fatalf("BatchSize %d: %v", batchSize, err)
+		}
+		if n != 1 || sizes[0] != len(br.payload) || string(bufs[0][:sizes[0]]) != string(br.payload) {
+			t.Errorf("BatchSize %d: got %d messages, first %q, want the payload in bufs[0]", batchSize, n, bufs[0][:sizes[0]])
+		}
+		if eps[0] == nil {
+			t.Errorf("BatchSize %d: no endpoint for the received message", batchSize)
+		}
+		last := &bufs[len(bufs)-1][0]
+		if len(br.msgs) == 0 || &br.msgs[len(br.msgs)-1].Buffers[0][0] != last {
+			t.Errorf("BatchSize %d: read into messages not backed by bufs", batchSize)
+		}
+	}
+}
+
 func mockSetGSOSize(control *[]byte, gsoSize uint16) {
 	*control = (*control)[:cap(*control)]
 	binary.LittleEndian.PutUint16(*control, gsoSize)
@@ -71,6 +71,14 @@ type PeekLookAtSocketFd interface {
 	PeekLookAtSocketFd6() (fd int, err error)
 }
 
+// DontFragmentSetter is implemented by Bind objects that can send datagrams
+// with the don't-fragment bit set regardless of the path MTU the kernel has
+// learned, so that they are never fragmented on the way. Used to probe the
+// path MTU.
+type DontFragmentSetter interface {
+	SetDontFragment(on bool) error
+}
+
 // An Endpoint maintains the source/destination caching for a peer.
 //
 //	dst: the remote address of a peer ("endpoint" in uapi terminology)
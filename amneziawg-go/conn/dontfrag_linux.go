@@ -0,0 +1,56 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package conn
+
+import (
+	"errors"
+	"net"
+
+	"golang.org/x/sys/unix"
+)
+
+// SetDontFragment switches the sockets of s to IP_PMTUDISC_PROBE, which sets
+// the don't-fragment bit on every datagram and ignores the path MTU cached by
+// the kernel, so that datagrams too large for the path are dropped instead of
+// fragmented. Passing false restores the default IP_PMTUDISC_WANT. Sockets
+// opened later use the default.
+func (s *StdNetBind) SetDontFragment(on bool) error {
+	s.mu.Lock()
+	defer s.mu.Unlock()
+	if s.ipv4 == nil && s.ipv6 == nil {
+		return net.ErrClosed
+	}
+	var err4, err6 error
+	if s.ipv4 != nil {
+		mode := unix.IP_PMTUDISC_WANT
+		if on {
+			mode = unix.IP_PMTUDISC_PROBE
+		}
+		err4 = setSockoptInt(s.ipv4, unix.IPPROTO_IP, unix.IP_MTU_DISCOVER, mode)
+	}
+	if s.ipv6 != nil {
+		mode := unix.IPV6_PMTUDISC_WANT
+		if on {
+			mode = unix.IPV6_PMTUDISC_PROBE
+		}
+		err6 = setSockoptInt(s.ipv6, unix.IPPROTO_IPV6, unix.IPV6_MTU_DISCOVER, mode)
+	}
+	return errors.Join(err4, err6)
+}
+
+func setSockoptInt(conn *net.UDPConn, level, opt, value int) error {
+	sysconn, err := conn.SyscallConn()
+	if err != nil {
+		return err
+	}
+	err2 := sysconn.Control(func(fd uintptr) {
+		err = unix.SetsockoptInt(int(fd), level, opt, value)
+	})
+	if err2 != nil {
+		return err2
+	}
+	return err
+}
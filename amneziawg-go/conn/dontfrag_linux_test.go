@@ -0,0 +1,62 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package conn
+
+import (
+	"net"
+	"testing"
+
+	"golang.org/x/sys/unix"
+)
+
+func pmtuDiscoverMode(t *testing.T, conn *net.UDPConn, level, opt int) int {
+	t.Helper()
+	sysconn, err := conn.SyscallConn()
+	if err != nil {
+		t.Fatal(err)
+	}
+	var mode int
+	err2 := sysconn.Control(func(fd uintptr) {
+		mode, err = unix.GetsockoptInt(int(fd), level, opt)
+	})
+	if err2 != nil {
+		t.Fatal(err2)
+	}
+	if err != nil {
+		t.Fatal(err)
+	}
+	return mode
+}
+
+func TestStdNetBindSetDontFragment(t *testing.T) {
+	bind := NewStdNetBind().(*StdNetBind)
+	if err := bind.SetDontFragment(true); err == nil {
+		t.Error("SetDontFragment succeeded on a closed bind")
+	}
+	if _, _, err := bind.Open(0); err != nil {
+		t.Fatal(err)
+	}
+	defer bind.Close()
+	for _, on := range []bool{true, false} {
+		if err := bind.SetDontFragment(on); err != nil {
+			t.Fatal(err)
+		}
+		want4, want6 := unix.IP_PMTUDISC_WANT, unix.IPV6_PMTUDISC_WANT
+		if on {
+			want4, want6 = unix.IP_PMTUDISC_PROBE, unix.IPV6_PMTUDISC_PROBE
+		}
+		if bind.ipv4 != nil {
+			if got := pmtuDiscoverMode(t, bind.ipv4, unix.IPPROTO_IP, unix.IP_MTU_DISCOVER); got != want4 {
+				t.Errorf("SetDontFragment(%v): IP_MTU_DISCOVER = %d, want %d", on, got, want4)
+			}
+		}
+		if bind.ipv6 != nil {
+			if got := pmtuDiscoverMode(t, bind.ipv6, unix.IPPROTO_IPV6, unix.IPV6_MTU_DISCOVER); got != want6 {
+				t.Errorf("SetDontFragment(%v): IPV6_MTU_DISCOVER = %d, want %d", on, got, want6)
+			}
+		}
+	}
+}
@@ -10,6 +10,6 @@ package conn
 
 import "net"
 
-func supportsUDPOffload(_ *net.UDPConn) (txOffload, rxOffload bool) {
+func supportsUDPOffload(_ *net.UDPConn, _ bool) (txOffload, rxOffload bool) {
 	return
 }
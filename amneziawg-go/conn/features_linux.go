@@ -11,7 +11,7 @@ import (
 	"golang.org/x/sys/unix"
 )
 
-func supportsUDPOffload(conn *net.UDPConn) (txOffload, rxOffload bool) {
+func supportsUDPOffload(conn *net.UDPConn, tryRxOffload bool) (txOffload, rxOffload bool) {
 	rc, err := conn.SyscallConn()
 	if err != nil {
 		return
@@ -19,6 +19,10 @@ func supportsUDPOffload(conn *net.UDPConn) (txOffload, rxOffload bool) {
 	err = rc.Control(func(fd uintptr) {
 		_, errSyscall := unix.GetsockoptInt(int(fd), unix.IPPROTO_UDP, unix.UDP_SEGMENT)
 		txOffload = errSyscall == nil
+		if !tryRxOffload {
+			// Leave UDP_GRO off, as receiveIP would not split coalesced datagrams.
+			return
+		}
 		// getsockopt(IPPROTO_UDP, UDP_GRO) is not supported in android
 		// use setsockopt workaround
 		errSyscall = unix.SetsockoptInt(int(fd), unix.IPPROTO_UDP, unix.UDP_GRO, 1)
@@ -107,6 +107,8 @@ type Device struct {
 	indexTable    IndexTable
 	cookieChecker CookieChecker
 
+	limits RuntimeLimits
+
 	pool struct {
 		inboundElementsContainer  *WaitPool
 		outboundElementsContainer *WaitPool
@@ -124,6 +126,7 @@ type Device struct {
 	tun struct {
 		device tun.Device
 		mtu    atomic.Int32
+		reads  tunReadCounters
 	}
 
 	ipcMutex sync.RWMutex
@@ -132,6 +135,10 @@ type Device struct {
 
 	version Version
 	awg     awg.Protocol
+	junk    junkBudget
+	pmtu    mtuProber
+
+	handshakeObserver atomic.Pointer[HandshakeObserver]
 }
 
 // deviceState represents the state of a Device.
@@ -261,7 +268,7 @@ func (device *Device) Down() error {
 func (device *Device) IsUnderLoad() bool {
 	// check if currently under load
 	now := time.Now()
-	underLoad := len(device.queue.handshake.c) >= QueueHandshakeSize/8
+	underLoad := len(device.queue.handshake.c) >= cap(device.queue.handshake.c)/8
 	if underLoad {
 		device.rate.underLoadUntil.Store(now.Add(UnderLoadAfterTime).UnixNano())
 		return true
@@ -342,13 +349,14 @@ func NewDevice(tunDevice tun.Device, bind conn.Bind, logger *Logger) *Device {
 	device.rate.limiter.Init()
 	device.indexTable.Init()
 
+	device.limits = CurrentRuntimeLimits()
 	device.PopulatePools()
 
 	// create queues
 
-	device.queue.handshake = newHandshakeQueue()
-	device.queue.encryption = newOutboundQueue()
-	device.queue.decryption = newInboundQueue()
+	device.queue.handshake = newHandshakeQueue(device.limits.QueueHandshakeSize)
+	device.queue.encryption = newOutboundQueue(device.limits.QueueOutboundSize)
+	device.queue.decryption = newInboundQueue(device.limits.QueueInboundSize)
 
 	// start workers
 
@@ -168,6 +168,17 @@ func genTestPair(
 	tb testing.TB,
 	realSocket bool,
 	extraCfg ...string,
+) (pair testPair) {
+	return genBatchedTestPair(tb, realSocket, 1, extraCfg...)
+}
+
+// genBatchedTestPair creates a testPair whose TUNs read up to tunBatchSize
+// packets at once.
+func genBatchedTestPair(
+	tb testing.TB,
+	realSocket bool,
+	tunBatchSize int,
+	extraCfg ...string,
 ) (pair testPair) {
 	var cfg, endpointCfg [2]string
 	cfg, endpointCfg = genConfigs(tb, extraCfg...)
@@ -181,7 +192,7 @@ func genTestPair(
 	// Bring up a ChannelTun for each config.
 	for i := range pair {
 		p := &pair[i]
-		p.tun = tuntest.NewChannelTUN()
+		p.tun = tuntest.NewBatchedChannelTUN(tunBatchSize)
 		p.ip = netip.AddrFrom4([4]byte{1, 0, 0, byte(i + 1)})
 		level := LogLevelVerbose
 		if _, ok := tb.(*testing.B); ok && !testing.Verbose() {
@@ -427,8 +438,20 @@ func BenchmarkLatency(b *testing.B) {
 }
 
 func BenchmarkThroughput(b *testing.B) {
-	pair := genTestPair(b, true)
+	benchmarkThroughput(b, genTestPair(b, true))
+}
+
+// BenchmarkThroughputTUNBatch compares a TUN that reads one packet at a time
+// with one that reads whole batches, as a TUN with virtio-net offload does.
+func BenchmarkThroughputTUNBatch(b *testing.B) {
+	for _, batchSize := range []int{1, conn.IdealBatchSize} {
+		b.Run(fmt.Sprintf("batch=%d", batchSize), func(b *testing.B) {
+			benchmarkThroughput(b, genBatchedTestPair(b, true, batchSize))
+		})
+	}
+}
 
+func benchmarkThroughput(b *testing.B, pair testPair) {
 	// Establish a connection.
 	pair.Send(b, Ping, nil)
 	pair.Send(b, Pong, nil)
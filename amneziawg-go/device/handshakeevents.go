@@ -0,0 +1,48 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+// HandshakeEvent is a step of a handshake with a peer, as reported to the
+// observer set with SetHandshakeObserver.
+type HandshakeEvent int
+
+const (
+	HandshakeInitiationSent HandshakeEvent = iota // an initiation was sent to the peer
+	HandshakeCompleted                            // the peer answered an initiation
+	HandshakeTimedOut                             // an initiation was not answered in time
+)
+
+func (event HandshakeEvent) String() string {
+	switch event {
+	case HandshakeInitiationSent:
+		return "Handshake initiation sent"
+	case HandshakeCompleted:
+		return "Handshake completed"
+	case HandshakeTimedOut:
+		return "Handshake timed out"
+	}
+	return "Unknown handshake event"
+}
+
+// HandshakeObserver is called on the send and receive paths of a peer as its
+// handshakes progress, so it must not block.
+type HandshakeObserver func(peer *Peer, event HandshakeEvent)
+
+// SetHandshakeObserver sets the function told about the handshakes of all
+// peers, or removes it if observer is nil.
+func (device *Device) SetHandshakeObserver(observer HandshakeObserver) {
+	if observer == nil {
+		device.handshakeObserver.Store(nil)
+	} else {
+		device.handshakeObserver.Store(&observer)
+	}
+}
+
+func (device *Device) observeHandshake(peer *Peer, event HandshakeEvent) {
+	if observer := device.handshakeObserver.Load(); observer != nil {
+		(*observer)(peer, event)
+	}
+}
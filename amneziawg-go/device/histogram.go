@@ -0,0 +1,113 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"math/bits"
+	"sync/atomic"
+	"time"
+)
+
+const (
+	histogramSubBucketBits = 3
+	histogramSubBuckets    = 1 << histogramSubBucketBits
+	histogramMagnitudes    = 28 // durations above 1000s, far beyond any handshake, share the last bucket
+	histogramBuckets       = histogramMagnitudes * histogramSubBuckets
+)
+
+// A latencyHistogram records durations with microsecond resolution in the
+// style of HdrHistogram: values below histogramSubBuckets have a bucket each,
+// and every further power of two is split into histogramSubBuckets linear
+// buckets, which bounds the relative error of a recorded value to 1/8. All
+// operations are lock-free, so it may be updated from any goroutine.
+type latencyHistogram struct {
+	buckets [histogramBuckets]atomic.Uint64
+	count   atomic.Uint64
+	sum     atomic.Uint64 // microseconds
+	max     atomic.Uint64 // microseconds
+}
+
+func histogramBucket(us uint64) int {
+	if us < histogramSubBuckets {
+		return int(us)
+	}
+	magnitude := bits.Len64(us) - 1 - histogramSubBucketBits
+	sub := int(us>>magnitude) & (histogramSubBuckets - 1)
+	return min((magnitude+1)*histogramSubBuckets+sub, histogramBuckets-1)
+}
+
+// histogramBucketLimit returns the largest value in microseconds that falls
+// into bucket i.
+func histogramBucketLimit(i int) uint64 {
+	if i < histogramSubBuckets {
+		return uint64(i)
+	}
+	magnitude := i/histogramSubBuckets - 1
+	sub := uint64(i % histogramSubBuckets)
+	return (histogramSubBuckets+sub+1)<<magnitude - 1
+}
+
+func (h *latencyHistogram) Record(d time.Duration) {
+	if d < 0 {
+		d = 0
+	}
+	us := uint64(d / time.Microsecond)
+	h.buckets[histogramBucket(us)].Add(1)
+	h.sum.Add(us)
+	h.count.Add(1)
+	for {
+		max := h.max.Load()
+		if us <= max || h.max.CompareAndSwap(max, us) {
+			break
+		}
+	}
+}
+
+// LatencySnapshot summarizes the durations recorded by a histogram. Quantiles
+// are the upper bounds of the buckets they fall into, capped by Max.
+type LatencySnapshot struct {
+	Count uint64
+	Mean  time.Duration
+	P50   time.Duration
+	P90   time.Duration
+	P99   time.Duration
+	Max   time.Duration
+}
+
+func (h *latencyHistogram) Snapshot() LatencySnapshot {
+	var counts [histogramBuckets]uint64
+	var total uint64
+	for i := range h.buckets {
+		counts[i] = h.buckets[i].Load()
+		total += counts[i]
+	}
+	if total == 0 {
+		return LatencySnapshot{}
+	}
+	max := h.max.Load()
+	quantile := func(q float64) time.Duration {
+		rank := uint64(q*float64(total) + 0.5)
+		if rank < 1 {
+			rank = 1
+		}
+		var seen uint64
+		for i, c := range counts {
+			seen += c
+			if seen >= rank {
+				return time.Duration(min(histogramBucketLimit(i), max)) * time.Microsecond
+			}
+		}
+		return time.Duration(max) * time.Microsecond
+	}
+	return LatencySnapshot{
+		Count: total,
+		Mean:  time.Duration(h.sum.Load()/total) * time.Microsecond,
+		P50:   quantile(0.50),
+		P90:   quantile(0.90),
+		P99:   quantile(0.99),
+		Max:   time.Duration(max) * time.Microsecond,
+	}
+}
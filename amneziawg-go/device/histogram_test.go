@@ -0,0 +1,68 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"sync"
+	"testing"
+	"time"
+)
+
+func TestHistogramBuckets(t *testing.T) {
+	prev := -1
+	for us := uint64(0); us < 1<<20; us++ {
+		i := histogramBucket(us)
+		if i != prev && i != prev+1 {
+			t.Fatalf("bucket of %dµs is %d, after %d", us, i, prev)
+		}
+		if limit := histogramBucketLimit(i); us > limit {
+			t.Fatalf("%dµs exceeds the limit %dµs of its bucket %d", us, limit, i)
+		}
+		if i > 0 && us <= histogramBucketLimit(i-1) {
+			t.Fatalf("%dµs fits the previous bucket %d", us, i-1)
+		}
+		prev = i
+	}
+	if i := histogramBucket(1 << 62); i != histogramBuckets-1 {
+		t.Errorf("huge value in bucket %d, want %d", i, histogramBuckets-1)
+	}
+}
+
+func TestHistogramSnapshot(t *testing.T) {
+	var h latencyHistogram
+	if s := h.Snapshot(); s.Count != 0 || s.Max != 0 {
+		t.Errorf("empty snapshot = %+v", s)
+	}
+
+	var wg sync.WaitGroup
+	for g := 0; g < 4; g++ {
+		wg.Add(1)
+		go func() {
+			defer wg.Done()
+			for ms := 1; ms <= 100; ms++ {
+				h.Record(time.Duration(ms) * time.Millisecond)
+			}
+		}()
+	}
+	wg.Wait()
+
+	s := h.Snapshot()
+	if s.Count != 400 {
+		t.Errorf("Count = %d, want 400", s.Count)
+	}
+	if s.Max != 100*time.Millisecond {
+		t.Errorf("Max = %v, want 100ms", s.Max)
+	}
+	within := func(name string, got, want time.Duration) {
+		if got < want || got > want+want/histogramSubBuckets {
+			t.Errorf("%s = %v, want %v within 1/%d", name, got, want, histogramSubBuckets)
+		}
+	}
+	within("Mean", s.Mean, 50500*time.Microsecond)
+	within("P50", s.P50, 50*time.Millisecond)
+	within("P90", s.P90, 90*time.Millisecond)
+	within("P99", s.P99, 99*time.Millisecond)
+}
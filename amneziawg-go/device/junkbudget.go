@@ -0,0 +1,69 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"sync"
+	"time"
+)
+
+// junkBudget is a token bucket bounding the bytes of junk packets sent by a
+// device per minute. Up to a minute's worth of budget may be spent at once.
+// Header junk is part of the message format and is never withheld, so only
+// the junk packets preceding handshake initiations are charged.
+type junkBudget struct {
+	sync.Mutex
+	bytesPerMinute uint64 // zero means unlimited
+	available      float64
+	updated        time.Time
+}
+
+func (b *junkBudget) set(bytesPerMinute uint64) {
+	b.Lock()
+	defer b.Unlock()
+	b.bytesPerMinute = bytesPerMinute
+	b.available = float64(bytesPerMinute)
+	b.updated = time.Time{}
+}
+
+func (b *junkBudget) get() uint64 {
+	b.Lock()
+	defer b.Unlock()
+	return b.bytesPerMinute
+}
+
+// take reports whether n bytes of junk may be sent at the given time and, if
+// so, charges them to the budget.
+func (b *junkBudget) take(n int, now time.Time) bool {
+	b.Lock()
+	defer b.Unlock()
+	if b.bytesPerMinute == 0 {
+		return true
+	}
+	limit := float64(b.bytesPerMinute)
+	if !b.updated.IsZero() {
+		b.available = min(limit, b.available+now.Sub(b.updated).Minutes()*limit)
+	}
+	b.updated = now
+	if float64(n) > b.available {
+		return false
+	}
+	b.available -= float64(n)
+	return true
+}
+
+// SetJunkBudget limits the bytes of junk packets sent before handshake
+// initiations to bytesPerMinute across all peers. Initiations whose junk
+// packets exceed the remaining budget are sent without them. Zero removes
+// the limit.
+func (device *Device) SetJunkBudget(bytesPerMinute uint64) {
+	device.junk.set(bytesPerMinute)
+}
+
+// JunkBudget returns the limit set by SetJunkBudget.
+func (device *Device) JunkBudget() uint64 {
+	return device.junk.get()
+}
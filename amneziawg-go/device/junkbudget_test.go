@@ -0,0 +1,61 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"testing"
+	"time"
+)
+
+func TestJunkBudget(t *testing.T) {
+	var b junkBudget
+	now := time.Now()
+	if !b.take(1<<20, now) {
+		t.Fatal("unlimited budget refused junk")
+	}
+
+	b.set(6000)
+	if !b.take(4000, now) {
+		t.Fatal("fresh budget refused junk within the limit")
+	}
+	if b.take(4000, now) {
+		t.Fatal("budget allowed junk beyond the limit")
+	}
+	// Ten seconds refill a sixth of the limit.
+	now = now.Add(10 * time.Second)
+	if !b.take(3000, now) {
+		t.Fatal("budget did not refill over time")
+	}
+	if b.take(1, now) {
+		t.Fatal("budget allowed junk after being spent")
+	}
+	// Refilling stops at a minute's worth.
+	now = now.Add(time.Hour)
+	if b.take(6001, now) || !b.take(6000, now) {
+		t.Fatal("budget refilled beyond the limit")
+	}
+}
+
+func TestJunkBudgetSkipsJunkPackets(t *testing.T) {
+	goroutineLeakCheck(t)
+	pair := genTestPair(t, true,
+		"jc", "5",
+		"jmin", "500",
+		"jmax", "1000",
+		"s1", "15",
+		"s2", "18",
+		"s3", "20",
+		"s4", "25",
+	)
+	pair[1].dev.SetJunkBudget(1000)
+	pair.Send(t, Ping, nil)
+
+	for _, c := range pair[1].dev.PeerCounters() {
+		if c.JunkPacketsSent != 0 || c.JunkPacketsSkipped != 5 {
+			t.Errorf("junk packets not skipped: %+v", c)
+		}
+	}
+}
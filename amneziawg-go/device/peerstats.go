@@ -0,0 +1,115 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"sync/atomic"
+	"time"
+)
+
+// peerCounters are maintained by the send and receive paths of a peer.
+type peerCounters struct {
+	txPackets          atomic.Uint64 // transport packets sent, including keepalives
+	rxPackets          atomic.Uint64 // transport packets received, including keepalives
+	handshakeAttempts  atomic.Uint64 // handshake initiations sent
+	handshakeFailures  atomic.Uint64 // handshake initiations that were not answered in time
+	decryptFailures    atomic.Uint64 // transport packets that failed authentication
+	replayDrops        atomic.Uint64 // transport packets rejected by the replay filter
+	junkPacketsSent    atomic.Uint64 // junk packets sent before handshake initiations
+	junkPacketsSkipped atomic.Uint64 // junk packets not sent because the junk budget was exhausted
+	queueDrops         atomic.Uint64 // packets dropped while staged for a handshake
+
+	junkBytesSent        atomic.Uint64 // bytes of junk packets and header junk sent
+	junkBytesReceived    atomic.Uint64 // bytes of header junk received with authenticated messages
+	paddingBytesSent     atomic.Uint64 // bytes of transport padding sent
+	paddingBytesReceived atomic.Uint64 // bytes of transport padding received
+
+	handshakeRTT     latencyHistogram // handshake initiation sent until its response arrived
+	timeToFirstData  latencyHistogram // first initiation sent until a packet arrived on the new session
+	initiationSent   atomic.Int64     // unix nanoseconds of the latest initiation sent
+	handshakeStarted atomic.Int64     // unix nanoseconds of the first unanswered initiation, or zero
+}
+
+// recordInitiation records that a handshake initiation was sent, where isRetry
+// tells whether it repeats an unanswered one.
+func (c *peerCounters) recordInitiation(isRetry bool) {
+	now := time.Now().UnixNano()
+	c.handshakeAttempts.Add(1)
+	c.initiationSent.Store(now)
+	if !isRetry {
+		c.handshakeStarted.CompareAndSwap(0, now)
+	}
+}
+
+func (c *peerCounters) recordResponse() {
+	if sent := c.initiationSent.Swap(0); sent != 0 {
+		c.handshakeRTT.Record(time.Duration(time.Now().UnixNano() - sent))
+	}
+}
+
+// recordSessionData records the time to first data once a packet arrives on
+// a keypair created after the handshake started.
+func (c *peerCounters) recordSessionData(keypair *Keypair) {
+	started := c.handshakeStarted.Load()
+	if started == 0 || keypair.created.UnixNano() < started {
+		return
+	}
+	if c.handshakeStarted.CompareAndSwap(started, 0) {
+		c.timeToFirstData.Record(time.Duration(time.Now().UnixNano() - started))
+	}
+}
+
+// PeerCounters is a snapshot of the packet and error counters of a peer.
+type PeerCounters struct {
+	TxPackets            uint64
+	RxPackets            uint64
+	HandshakeAttempts    uint64
+	HandshakeFailures    uint64
+	DecryptFailures      uint64
+	ReplayDrops          uint64
+	JunkPacketsSent      uint64
+	JunkPacketsSkipped   uint64
+	QueueDrops           uint64
+	JunkBytesSent        uint64
+	JunkBytesReceived    uint64
+	PaddingBytesSent     uint64
+	PaddingBytesReceived uint64
+	HandshakeRTT         LatencySnapshot
+	TimeToFirstData      LatencySnapshot
+}
+
+// Counters returns a snapshot of the counters of the peer.
+func (peer *Peer) Counters() PeerCounters {
+	return PeerCounters{
+		TxPackets:            peer.counters.txPackets.Load(),
+		RxPackets:            peer.counters.rxPackets.Load(),
+		HandshakeAttempts:    peer.counters.handshakeAttempts.Load(),
+		HandshakeFailures:    peer.counters.handshakeFailures.Load(),
+		DecryptFailures:      peer.counters.decryptFailures.Load(),
+		ReplayDrops:          peer.counters.replayDrops.Load(),
+		JunkPacketsSent:      peer.counters.junkPacketsSent.Load(),
+		JunkPacketsSkipped:   peer.counters.junkPacketsSkipped.Load(),
+		QueueDrops:           peer.counters.queueDrops.Load(),
+		JunkBytesSent:        peer.counters.junkBytesSent.Load(),
+		JunkBytesReceived:    peer.counters.junkBytesReceived.Load(),
+		PaddingBytesSent:     peer.counters.paddingBytesSent.Load(),
+		PaddingBytesReceived: peer.counters.paddingBytesReceived.Load(),
+		HandshakeRTT:         peer.counters.handshakeRTT.Snapshot(),
+		TimeToFirstData:      peer.counters.timeToFirstData.Snapshot(),
+	}
+}
+
+// PeerCounters returns a snapshot of the counters of every peer.
+func (device *Device) PeerCounters() map[NoisePublicKey]PeerCounters {
+	device.peers.RLock()
+	defer device.peers.RUnlock()
+
+	counters := make(map[NoisePublicKey]PeerCounters, len(device.peers.keyMap))
+	for pk, peer := range device.peers.keyMap {
+		counters[pk] = peer.Counters()
+	}
+	return counters
+}
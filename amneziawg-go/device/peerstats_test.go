@@ -0,0 +1,100 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"sync"
+	"testing"
+)
+
+func TestPeerCounters(t *testing.T) {
+	goroutineLeakCheck(t)
+	pair := genTestPair(t, true)
+	pair.Send(t, Ping, nil)
+	pair.Send(t, Pong, nil)
+
+	for i := range pair {
+		counters := pair[i].dev.PeerCounters()
+		if len(counters) != 1 {
+			t.Fatalf("device %d: len(PeerCounters()) = %d, want 1", i, len(counters))
+		}
+		for _, c := range counters {
+			if c.TxPackets == 0 || c.RxPackets == 0 {
+				t.Errorf("device %d: no transport packets counted: %+v", i, c)
+			}
+			if c.DecryptFailures != 0 || c.ReplayDrops != 0 || c.QueueDrops != 0 {
+				t.Errorf("device %d: unexpected errors counted: %+v", i, c)
+			}
+		}
+	}
+	// The ping is sent by the second device, which has to initiate the handshake.
+	for _, c := range pair[1].dev.PeerCounters() {
+		if c.HandshakeAttempts == 0 {
+			t.Errorf("handshake initiation not counted: %+v", c)
+		}
+		if c.HandshakeRTT.Count == 0 {
+			t.Errorf("handshake round trip not recorded: %+v", c.HandshakeRTT)
+		}
+		if c.TimeToFirstData.Count != 1 || c.TimeToFirstData.Max < c.HandshakeRTT.P50 {
+			t.Errorf("time to first data not recorded once: %+v", c.TimeToFirstData)
+		}
+	}
+}
+
+func TestPeerJunkCounters(t *testing.T) {
+	goroutineLeakCheck(t)
+	pair := genTestPair(t, true,
+		"jc", "5",
+		"jmin", "500",
+		"jmax", "1000",
+		"s1", "15",
+		"s2", "18",
+		"s3", "20",
+		"s4", "25",
+	)
+	pair.Send(t, Ping, nil)
+
+	// The second device initiates with five junk packets of at least 500
+	// bytes, the first answers; both then exchange one data packet.
+	var initiator, responder PeerCounters
+	for _, c := range pair[1].dev.PeerCounters() {
+		initiator = c
+	}
+	for _, c := range pair[0].dev.PeerCounters() {
+		responder = c
+	}
+	if initiator.JunkPacketsSent != 5 || initiator.JunkBytesSent < 5*500+15 {
+		t.Errorf("initiator junk not counted: %+v", initiator)
+	}
+	if responder.JunkBytesReceived != 15+25 {
+		t.Errorf("responder received junk = %d, want %d", responder.JunkBytesReceived, 15+25)
+	}
+	if responder.JunkBytesSent != 18 || initiator.JunkBytesReceived != 18 {
+		t.Errorf("response junk not counted: sent %d, received %d", responder.JunkBytesSent, initiator.JunkBytesReceived)
+	}
+	if initiator.PaddingBytesSent != responder.PaddingBytesReceived {
+		t.Errorf("padding sent %d != padding received %d", initiator.PaddingBytesSent, responder.PaddingBytesReceived)
+	}
+}
+
+func TestHandshakeObserver(t *testing.T) {
+	goroutineLeakCheck(t)
+	pair := genTestPair(t, true)
+	var mu sync.Mutex
+	var events []HandshakeEvent
+	pair[1].dev.SetHandshakeObserver(func(peer *Peer, event HandshakeEvent) {
+		mu.Lock()
+		events = append(events, event)
+		mu.Unlock()
+	})
+	pair.Send(t, Ping, nil)
+
+	mu.Lock()
+	defer mu.Unlock()
+	if len(events) < 2 || events[0] != HandshakeInitiationSent || events[len(events)-1] != HandshakeCompleted {
+		t.Errorf("handshake events = %v, want an initiation followed by its completion", events)
+	}
+}
@@ -0,0 +1,262 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"encoding/binary"
+	"errors"
+	"fmt"
+	"math/rand"
+	"net/netip"
+	"sync"
+	"sync/atomic"
+	"time"
+
+	"github.com/amnezia-vpn/amneziawg-go/conn"
+	"golang.org/x/net/ipv4"
+	"golang.org/x/net/ipv6"
+)
+
+const (
+	// MinProbeMTU is the smallest MTU ProbeMTU considers, which every IPv6
+	// link supports.
+	MinProbeMTU = 1280
+
+	probeAttempts      = 2
+	probeHandshakeWait = 3 * RekeyTimeout
+)
+
+// MTUProbeResult describes the outcome of ProbeMTU.
+type MTUProbeResult struct {
+	MTU      int // largest inner packet size that made the round trip
+	Probes   int // echo requests sent
+	Duration time.Duration
+}
+
+// mtuProber intercepts the echo replies of an MTU probe before they reach
+// the TUN interface.
+type mtuProber struct {
+	sync.Mutex // serializes probes
+	active     atomic.Bool
+	id         uint16
+	replies    chan uint16 // sequence numbers of matching replies
+	last       atomic.Pointer[MTUProbeResult]
+}
+
+// ProbeMTU finds the largest inner packet size that the tunnel carries from
+// src to dst and back, by a binary search with ICMP echo requests sent
+// through the peer that dst is routed to. It waits for a handshake with that
+// peer first. Probe sizes are multiples of the padding unit so that probes
+// carry exactly the bytes a full-sized packet would, transport header junk
+// included. The search starts from MinProbeMTU and ends at linkMTU less the
+// outer headers and transport overhead. Probes are sent with the
+// don't-fragment bit where the bind supports it. Replies that do not arrive
+// within timeout count as failures.
+func (device *Device) ProbeMTU(src, dst netip.Addr, linkMTU int, timeout time.Duration) (MTUProbeResult, error) {
+	if src.Is4() != dst.Is4() {
+		return MTUProbeResult{}, errors.New("source and destination address families differ")
+	}
+	peer := device.allowedips.Lookup(dst.AsSlice())
+	if peer == nil {
+		return MTUProbeResult{}, errors.New("destination is not routed to a peer")
+	}
+	if !device.pmtu.TryLock() {
+		return MTUProbeResult{}, errors.New("another probe is running")
+	}
+	defer device.pmtu.Unlock()
+
+	start := time.Now()
+	if peer.lastHandshakeNano.Load() == 0 {
+		peer.SendKeepalive()
+		for peer.lastHandshakeNano.Load() == 0 {
+			if device.isClosed() || time.Since(start) > probeHandshakeWait {
+				return MTUProbeResult{}, errors.New("no handshake with peer")
+			}
+			time.Sleep(100 * time.Millisecond)
+		}
+	}
+
+	// Without the don't-fragment bit, the kernel would fragment the probes
+	// exceeding a path MTU it has learned and the search would overestimate.
+	if df, ok := device.Bind().(conn.DontFragmentSetter); ok {
+		err := df.SetDontFragment(true)
+		if err == nil {
+			defer df.SetDontFragment(false)
+		} else if !errors.Is(err, errors.ErrUnsupported) {
+			return MTUProbeResult{}, fmt.Errorf("unable to prevent fragmentation of probes: %w", err)
+		}
+	}
+
+	device.pmtu.id = uint16(rand.Uint32())
+	device.pmtu.replies = make(chan uint16, 1)
+	device.pmtu.active.Store(true)
+	defer device.pmtu.active.Store(false)
+
+	result := MTUProbeResult{}
+	var seq uint16
+	probe := func(size int) bool {
+		for range probeAttempts {
+			if device.isClosed() {
+				return false
+			}
+			seq++
+			result.Probes++
+			device.sendProbe(peer, echoRequest(src, dst, device.pmtu.id, seq, size))
+			timer := time.NewTimer(timeout)
+		wait:
+			for {
+				select {
+				case got := <-device.pmtu.replies:
+					if got == seq {
+						timer.Stop()
+						return true
+					}
+				case <-timer.C:
+					break wait
+				}
+			}
+		}
+		return false
+	}
+
+	if !probe(MinProbeMTU) {
+		return result, errors.New("no reply to minimum size probe")
+	}
+	lo := MinProbeMTU
+	hi := (linkMTU - peer.transportOverhead()) &^ (PaddingMultiple - 1)
+	for lo < hi {
+		mid := (lo + hi + PaddingMultiple) / 2 &^ (PaddingMultiple - 1)
+		if probe(mid) {
+			lo = mid
+		} else {
+			hi = mid - PaddingMultiple
+		}
+	}
+	result.MTU = lo
+	result.Duration = time.Since(start)
+	device.pmtu.last.Store(&result)
+	device.log.Verbosef("%v - Probed MTU %d with %d probes in %v", peer, result.MTU, result.Probes, result.Duration)
+	return result, nil
+}
+
+// LastMTUProbe returns the result of the latest successful ProbeMTU, or nil.
+func (device *Device) LastMTUProbe() *MTUProbeResult {
+	return device.pmtu.last.Load()
+}
+
+// transportOverhead returns the bytes a transport message to peer adds to an
+// inner packet on the wire: the outer IP and UDP headers, the message header
+// and authentication tag, and the transport header junk. Handshake messages
+// are far smaller than any MTU and do not matter here.
+func (peer *Peer) transportOverhead() int {
+	overhead := 8 + MessageTransportSize + peer.device.awg.Cfg.TransportHeaderJunkSize
+	peer.endpoint.Lock()
+	endpoint := peer.endpoint.val
+	peer.endpoint.Unlock()
+	if endpoint != nil && endpoint.DstIP().Unmap().Is6() {
+		return overhead + ipv6.HeaderLen
+	}
+	return overhead + ipv4.HeaderLen
+}
+
+func (device *Device) sendProbe(peer *Peer, packet []byte) {
+	if !peer.isRunning.Load() {
+		return
+	}
+	elem := device.NewOutboundElement()
+	elem.packet = elem.buffer[MessageTransportHeaderSize : MessageTransportHeaderSize+len(packet)]
+	copy(elem.packet, packet)
+	elemsContainer := device.GetOutboundElementsContainer()
+	elemsContainer.elems = append(elemsContainer.elems, elem)
+	peer.StagePackets(elemsContainer)
+	peer.SendStagedPackets()
+}
+
+// handleProbeReply reports whether packet is an echo reply to the running
+// probe, in which case it must not be written to the TUN interface.
+func (device *Device) handleProbeReply(packet []byte) bool {
+	var icmp []byte
+	switch packet[0] >> 4 {
+	case 4:
+		headerLen := int(packet[0]&0x0f) * 4
+		if packet[9] != 1 || len(packet) < headerLen+8 || packet[headerLen] != 0 {
+			return false
+		}
+		icmp = packet[headerLen:]
+	case 6:
+		if packet[6] != 58 || len(packet) < ipv6.HeaderLen+8 || packet[ipv6.HeaderLen] != 129 {
+			return false
+		}
+		icmp = packet[ipv6.HeaderLen:]
+	default:
+		return false
+	}
+	if binary.BigEndian.Uint16(icmp[4:]) != device.pmtu.id {
+		return false
+	}
+	select {
+	case device.pmtu.replies <- binary.BigEndian.Uint16(icmp[6:]):
+	default:
+	}
+	return true
+}
+
+// echoRequest builds an ICMP or ICMPv6 echo request of the given total size.
+// IPv4 requests may not be fragmented.
+func echoRequest(src, dst netip.Addr, id, seq uint16, size int) []byte {
+	packet := make([]byte, size)
+	var icmp []byte
+	if src.Is4() {
+		packet[0] = 4<<4 | ipv4.HeaderLen/4
+		binary.BigEndian.PutUint16(packet[2:], uint16(size))
+		binary.BigEndian.PutUint16(packet[4:], seq)
+		binary.BigEndian.PutUint16(packet[6:], 0x4000) // don't fragment
+		packet[8] = 64
+		packet[9] = 1
+		copy(packet[12:16], src.AsSlice())
+		copy(packet[16:20], dst.AsSlice())
+		binary.BigEndian.PutUint16(packet[10:], ^internetChecksum(packet[:ipv4.HeaderLen], 0))
+		icmp = packet[ipv4.HeaderLen:]
+		icmp[0] = 8
+	} else {
+		packet[0] = 6 << 4
+		binary.BigEndian.PutUint16(packet[4:], uint16(size-ipv6.HeaderLen))
+		packet[6] = 58
+		packet[7] = 64
+		copy(packet[8:24], src.AsSlice())
+		copy(packet[24:40], dst.AsSlice())
+		icmp = packet[ipv6.HeaderLen:]
+		icmp[0] = 128
+	}
+	binary.BigEndian.PutUint16(icmp[4:], id)
+	binary.BigEndian.PutUint16(icmp[6:], seq)
+	var sum uint32
+	if src.Is6() {
+		// pseudo-header of RFC 8200, section 8.1
+		sum = internetSum(packet[8:40], uint32(len(icmp))+58)
+	}
+	binary.BigEndian.PutUint16(icmp[2:], ^internetChecksum(icmp, sum))
+	return packet
+}
+
+func internetSum(b []byte, sum uint32) uint32 {
+	for i := 0; i+1 < len(b); i += 2 {
+		sum += uint32(binary.BigEndian.Uint16(b[i:]))
+	}
+	if len(b)%2 == 1 {
+		sum += uint32(b[len(b)-1]) << 8
+	}
+	return sum
+}
+
+// internetChecksum folds the sum of RFC 1071 over b, starting from sum.
+func internetChecksum(b []byte, sum uint32) uint16 {
+	sum = internetSum(b, sum)
+	for sum > 0xffff {
+		sum = sum>>16 + sum&0xffff
+	}
+	return uint16(sum)
+}
@@ -0,0 +1,83 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"encoding/binary"
+	"net/netip"
+	"testing"
+	"time"
+
+	"golang.org/x/net/ipv4"
+	"golang.org/x/net/ipv6"
+)
+
+func TestEchoRequestChecksums(t *testing.T) {
+	v4 := echoRequest(netip.MustParseAddr("10.0.0.1"), netip.MustParseAddr("10.0.0.2"), 7, 1, 1280)
+	if got := internetChecksum(v4[:ipv4.HeaderLen], 0); got != 0xffff {
+		t.Errorf("IPv4 header checksum does not verify: %#x", got)
+	}
+	if got := internetChecksum(v4[ipv4.HeaderLen:], 0); got != 0xffff {
+		t.Errorf("ICMP checksum does not verify: %#x", got)
+	}
+	v6 := echoRequest(netip.MustParseAddr("fd00::1"), netip.MustParseAddr("fd00::2"), 7, 1, 1281)
+	pseudo := internetSum(v6[8:40], uint32(len(v6)-ipv6.HeaderLen)+58)
+	if got := internetChecksum(v6[ipv6.HeaderLen:], pseudo); got != 0xffff {
+		t.Errorf("ICMPv6 checksum does not verify: %#x", got)
+	}
+}
+
+// echoReply turns an IPv4 echo request into its reply.
+func echoReply(request []byte) []byte {
+	reply := append([]byte(nil), request...)
+	copy(reply[12:16], request[16:20])
+	copy(reply[16:20], request[12:16])
+	binary.BigEndian.PutUint16(reply[10:], 0)
+	binary.BigEndian.PutUint16(reply[10:], ^internetChecksum(reply[:ipv4.HeaderLen], 0))
+	icmp := reply[ipv4.HeaderLen:]
+	icmp[0] = 0
+	binary.BigEndian.PutUint16(icmp[2:], 0)
+	binary.BigEndian.PutUint16(icmp[2:], ^internetChecksum(icmp, 0))
+	return reply
+}
+
+func TestProbeMTU(t *testing.T) {
+	goroutineLeakCheck(t)
+	pair := genTestPair(t, true)
+	const pathMTU = 1360
+
+	// The first device answers echo requests that fit the simulated path.
+	done := make(chan struct{})
+	defer close(done)
+	go func() {
+		for {
+			select {
+			case packet := <-pair[0].tun.Inbound:
+				if len(packet) <= pathMTU && packet[9] == 1 && packet[ipv4.HeaderLen] == 8 {
+					pair[0].tun.Outbound <- echoReply(packet)
+				}
+			case <-done:
+				return
+			}
+		}
+	}()
+
+	result, err := pair[1].dev.ProbeMTU(pair[1].ip, pair[0].ip, 1500, 200*time.Millisecond)
+	if err != nil {
+		t.Fatal(err)
+	}
+	if result.MTU != pathMTU {
+		t.Errorf("probed MTU = %d, want %d", result.MTU, pathMTU)
+	}
+	if last := pair[1].dev.LastMTUProbe(); last == nil || *last != result {
+		t.Errorf("LastMTUProbe() = %v, want %v", last, result)
+	}
+	select {
+	case packet := <-pair[1].tun.Inbound:
+		t.Errorf("probe reply reached the TUN interface: %x", packet[:ipv4.HeaderLen])
+	default:
+	}
+}
@@ -46,22 +46,64 @@ func (p *WaitPool) Put(x any) {
 	p.cond.Signal()
 }
 
+// Outstanding returns the number of values currently taken from the pool.
+// Only bounded pools keep count, so it is always zero for unbounded ones.
+func (p *WaitPool) Outstanding() uint32 {
+	if p.max == 0 {
+		return 0
+	}
+	p.lock.Lock()
+	defer p.lock.Unlock()
+	return p.count
+}
+
+// Max returns the bound of the pool, or zero if it is unbounded.
+func (p *WaitPool) Max() uint32 {
+	return p.max
+}
+
+type PoolStats struct {
+	Outstanding uint32
+	Max         uint32
+}
+
+type DevicePoolStats struct {
+	InboundElements  PoolStats
+	OutboundElements PoolStats
+	MessageBuffers   PoolStats
+}
+
+func poolStats(p *WaitPool) PoolStats {
+	return PoolStats{Outstanding: p.Outstanding(), Max: p.Max()}
+}
+
+// PoolStats returns a snapshot of how many elements and message buffers are
+// in flight. A pool whose outstanding count reaches its bound blocks callers
+// until an element is returned.
+func (device *Device) PoolStats() DevicePoolStats {
+	return DevicePoolStats{
+		InboundElements:  poolStats(device.pool.inboundElements),
+		OutboundElements: poolStats(device.pool.outboundElements),
+		MessageBuffers:   poolStats(device.pool.messageBuffers),
+	}
+}
+
 func (device *Device) PopulatePools() {
-	device.pool.inboundElementsContainer = NewWaitPool(PreallocatedBuffersPerPool, func() any {
+	device.pool.inboundElementsContainer = NewWaitPool(device.limits.PreallocatedBuffersPerPool, func() any {
 		s := make([]*QueueInboundElement, 0, device.BatchSize())
 		return &QueueInboundElementsContainer{elems: s}
 	})
-	device.pool.outboundElementsContainer = NewWaitPool(PreallocatedBuffersPerPool, func() any {
+	device.pool.outboundElementsContainer = NewWaitPool(device.limits.PreallocatedBuffersPerPool, func() any {
 		s := make([]*QueueOutboundElement, 0, device.BatchSize())
 		return &QueueOutboundElementsContainer{elems: s}
 	})
-	device.pool.messageBuffers = NewWaitPool(PreallocatedBuffersPerPool, func() any {
+	device.pool.messageBuffers = NewWaitPool(device.limits.PreallocatedBuffersPerPool, func() any {
 		return new([MaxMessageSize]byte)
 	})
-	device.pool.inboundElements = NewWaitPool(PreallocatedBuffersPerPool, func() any {
+	device.pool.inboundElements = NewWaitPool(device.limits.PreallocatedBuffersPerPool, func() any {
 		return new(QueueInboundElement)
 	})
-	device.pool.outboundElements = NewWaitPool(PreallocatedBuffersPerPool, func() any {
+	device.pool.outboundElements = NewWaitPool(device.limits.PreallocatedBuffersPerPool, func() any {
 		return new(QueueOutboundElement)
 	})
 }
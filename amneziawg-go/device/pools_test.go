@@ -139,3 +139,19 @@ func BenchmarkSyncPool(b *testing.B) {
 	}
 	wg.Wait()
 }
+
+func TestWaitPoolOutstanding(t *testing.T) {
+	p := NewWaitPool(4, func() any { return make([]byte, 16) })
+	a, b := p.Get(), p.Get()
+	if got := p.Outstanding(); got != 2 {
+		t.Errorf("Outstanding() = %d, want 2", got)
+	}
+	p.Put(a)
+	p.Put(b)
+	if got := p.Outstanding(); got != 0 {
+		t.Errorf("Outstanding() = %d, want 0", got)
+	}
+	if got := NewWaitPool(0, func() any { return nil }).Max(); got != 0 {
+		t.Errorf("Max() of unbounded pool = %d, want 0", got)
+	}
+}
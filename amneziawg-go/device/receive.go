@@ -399,6 +399,7 @@ func (device *Device) RoutineHandshake(id int) {
 
 			device.log.Verbosef("%v - Received handshake initiation", peer)
 			peer.rxBytes.Add(uint64(len(elem.packet)))
+			peer.counters.junkBytesReceived.Add(uint64(msgTypeToJunkSize[elem.msgType]))
 
 			peer.SendHandshakeResponse()
 
@@ -430,6 +431,9 @@ func (device *Device) RoutineHandshake(id int) {
 
 			device.log.Verbosef("%v - Received handshake response", peer)
 			peer.rxBytes.Add(uint64(len(elem.packet)))
+			peer.counters.junkBytesReceived.Add(uint64(msgTypeToJunkSize[elem.msgType]))
+			peer.counters.recordResponse()
+			device.observeHandshake(peer, HandshakeCompleted)
 
 			// update timers
 
@@ -473,15 +477,19 @@ func (peer *Peer) RoutineSequentialReceiver(maxBatchSize int) {
 		validTailPacket := -1
 		dataPacketReceived := false
 		rxBytesLen := uint64(0)
+		var rxPackets, dataPackets, decryptFailures, replayDrops, paddingBytes uint64
 		for i, elem := range elemsContainer.elems {
 			if elem.packet == nil {
 				// decryption failed
+				decryptFailures++
 				continue
 			}
 
 			if !elem.keypair.replayFilter.ValidateCounter(elem.counter, RejectAfterMessages) {
+				replayDrops++
 				continue
 			}
+			rxPackets++
 
 			validTailPacket = i
 			if peer.ReceivedWithKeypair(elem.keypair) {
@@ -496,6 +504,7 @@ func (peer *Peer) RoutineSequentialReceiver(maxBatchSize int) {
 				continue
 			}
 			dataPacketReceived = true
+			dataPackets++
 
 			switch elem.packet[0] >> 4 {
 			case 4:
@@ -507,6 +516,7 @@ func (peer *Peer) RoutineSequentialReceiver(maxBatchSize int) {
 				if int(length) > len(elem.packet) || int(length) < ipv4.HeaderLen {
 					continue
 				}
+				paddingBytes += uint64(len(elem.packet) - int(length))
 				elem.packet = elem.packet[:length]
 				src := elem.packet[IPv4offsetSrc : IPv4offsetSrc+net.IPv4len]
 				if device.allowedips.Lookup(src) != peer {
@@ -524,6 +534,7 @@ func (peer *Peer) RoutineSequentialReceiver(maxBatchSize int) {
 				if int(length) > len(elem.packet) {
 					continue
 				}
+				paddingBytes += uint64(len(elem.packet) - int(length))
 				elem.packet = elem.packet[:length]
 				src := elem.packet[IPv6offsetSrc : IPv6offsetSrc+net.IPv6len]
 				if device.allowedips.Lookup(src) != peer {
@@ -538,6 +549,9 @@ func (peer *Peer) RoutineSequentialReceiver(maxBatchSize int) {
 				)
 				continue
 			}
+			if device.pmtu.active.Load() && device.handleProbeReply(elem.packet) {
+				continue
+			}
 
 			bufs = append(
 				bufs,
@@ -546,7 +560,22 @@ func (peer *Peer) RoutineSequentialReceiver(maxBatchSize int) {
 		}
 
 		peer.rxBytes.Add(rxBytesLen)
+		peer.counters.rxPackets.Add(rxPackets)
+		if junkSize := device.awg.Cfg.TransportHeaderJunkSize; junkSize != 0 && dataPackets != 0 {
+			// keepalives are sent without header junk
+			peer.counters.junkBytesReceived.Add(dataPackets * uint64(junkSize))
+		}
+		if paddingBytes != 0 {
+			peer.counters.paddingBytesReceived.Add(paddingBytes)
+		}
+		if decryptFailures != 0 {
+			peer.counters.decryptFailures.Add(decryptFailures)
+		}
+		if replayDrops != 0 {
+			peer.counters.replayDrops.Add(replayDrops)
+		}
 		if validTailPacket >= 0 {
+			peer.counters.recordSessionData(elemsContainer.elems[validTailPacket].keypair)
 			peer.SetEndpointFromPacket(elemsContainer.elems[validTailPacket].endpoint)
 			peer.keepKeyFreshReceiving()
 			peer.timersAnyAuthenticatedPacketTraversal()
@@ -0,0 +1,51 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import "sync/atomic"
+
+// RuntimeLimits bounds the memory preallocated by a Device. A zero field
+// selects the platform default from the queue constants.
+type RuntimeLimits struct {
+	PreallocatedBuffersPerPool uint32
+	QueueOutboundSize          int
+	QueueInboundSize           int
+	QueueHandshakeSize         int
+}
+
+var runtimeLimits atomic.Pointer[RuntimeLimits]
+
+// SetRuntimeLimits changes the limits used by devices created afterwards.
+// Devices that already exist keep the limits they were created with.
+func SetRuntimeLimits(limits RuntimeLimits) {
+	runtimeLimits.Store(&limits)
+}
+
+// CurrentRuntimeLimits returns the limits that NewDevice will apply, with
+// defaults filled in for unset fields.
+func CurrentRuntimeLimits() RuntimeLimits {
+	limits := RuntimeLimits{
+		PreallocatedBuffersPerPool: PreallocatedBuffersPerPool,
+		QueueOutboundSize:          QueueOutboundSize,
+		QueueInboundSize:           QueueInboundSize,
+		QueueHandshakeSize:         QueueHandshakeSize,
+	}
+	if l := runtimeLimits.Load(); l != nil {
+		if l.PreallocatedBuffersPerPool != 0 {
+			limits.PreallocatedBuffersPerPool = l.PreallocatedBuffersPerPool
+		}
+		if l.QueueOutboundSize > 0 {
+			limits.QueueOutboundSize = l.QueueOutboundSize
+		}
+		if l.QueueInboundSize > 0 {
+			limits.QueueInboundSize = l.QueueInboundSize
+		}
+		if l.QueueHandshakeSize > 0 {
+			limits.QueueHandshakeSize = l.QueueHandshakeSize
+		}
+	}
+	return limits
+}
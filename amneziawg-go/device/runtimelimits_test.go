@@ -0,0 +1,24 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import "testing"
+
+func TestRuntimeLimitsDefaults(t *testing.T) {
+	defer runtimeLimits.Store(nil)
+
+	SetRuntimeLimits(RuntimeLimits{QueueInboundSize: 64})
+	limits := CurrentRuntimeLimits()
+	if limits.QueueInboundSize != 64 {
+		t.Errorf("QueueInboundSize = %d, want 64", limits.QueueInboundSize)
+	}
+	if limits.QueueOutboundSize != QueueOutboundSize {
+		t.Errorf("QueueOutboundSize = %d, want default %d", limits.QueueOutboundSize, QueueOutboundSize)
+	}
+	if limits.PreallocatedBuffersPerPool != PreallocatedBuffersPerPool {
+		t.Errorf("PreallocatedBuffersPerPool = %d, want default %d", limits.PreallocatedBuffersPerPool, PreallocatedBuffersPerPool)
+	}
+}
@@ -144,13 +144,22 @@ func (peer *Peer) SendHandshakeInitiation(isRetry bool) error {
 		peer.device.awg.JunkCreator.CreateJunkPackets(&junks)
 		peer.device.awg.Mux.RUnlock()
 
-		if len(junks) > 0 {
+		junkSize := 0
+		for _, junk := range junks {
+			junkSize += len(junk)
+		}
+		if len(junks) > 0 && !peer.device.junk.take(junkSize, time.Now()) {
+			peer.device.log.Verbosef("%v - Junk budget exhausted, skipping %d junk packets", peer, len(junks))
+			peer.counters.junkPacketsSkipped.Add(uint64(len(junks)))
+		} else if len(junks) > 0 {
 			err = peer.SendBuffers(junks)
 
 			if err != nil {
 				peer.device.log.Errorf("%v - Failed to send junk packets: %v", peer, err)
 				return err
 			}
+			peer.counters.junkPacketsSent.Add(uint64(len(junks)))
+			peer.counters.junkBytesSent.Add(uint64(junkSize))
 		}
 
 		junkedHeader, err = peer.device.awg.CreateInitHeaderJunk()
@@ -165,6 +174,7 @@ func (peer *Peer) SendHandshakeInitiation(isRetry bool) error {
 	binary.Write(writer, binary.LittleEndian, msg)
 	packet := writer.Bytes()
 	peer.cookieGenerator.AddMacs(packet)
+	headerJunkSize := len(junkedHeader)
 	junkedHeader = append(junkedHeader, packet...)
 
 	peer.timersAnyAuthenticatedPacketTraversal()
@@ -175,6 +185,10 @@ func (peer *Peer) SendHandshakeInitiation(isRetry bool) error {
 	err = peer.SendAndCountBuffers(sendBuffer)
 	if err != nil {
 		peer.device.log.Errorf("%v - Failed to send handshake initiation: %v", peer, err)
+	} else {
+		peer.counters.recordInitiation(isRetry)
+		peer.device.observeHandshake(peer, HandshakeInitiationSent)
+		peer.counters.junkBytesSent.Add(uint64(headerJunkSize))
 	}
 	peer.timersHandshakeInitiated()
 
@@ -206,6 +220,7 @@ func (peer *Peer) SendHandshakeResponse() error {
 	binary.Write(writer, binary.LittleEndian, response)
 	packet := writer.Bytes()
 	peer.cookieGenerator.AddMacs(packet)
+	headerJunkSize := len(junkedHeader)
 	junkedHeader = append(junkedHeader, packet...)
 
 	err = peer.BeginSymmetricSession()
@@ -222,6 +237,8 @@ func (peer *Peer) SendHandshakeResponse() error {
 	err = peer.SendAndCountBuffers([][]byte{junkedHeader})
 	if err != nil {
 		peer.device.log.Errorf("%v - Failed to send handshake response: %v", peer, err)
+	} else {
+		peer.counters.junkBytesSent.Add(uint64(headerJunkSize))
 	}
 	return err
 }
@@ -320,6 +337,9 @@ func (device *Device) RoutineReadFromTUN() {
 	for {
 		// read packets
 		count, readErr = device.tun.device.Read(bufs, sizes, offset)
+		if count > 0 {
+			device.tun.reads.add(sizes[:count])
+		}
 		for i := 0; i < count; i++ {
 			if sizes[i] < 1 {
 				continue
@@ -404,6 +424,7 @@ func (peer *Peer) StagePackets(elems *QueueOutboundElementsContainer) {
 		}
 		select {
 		case tooOld := <-peer.queue.staged:
+			peer.counters.queueDrops.Add(uint64(len(tooOld.elems)))
 			for _, elem := range tooOld.elems {
 				peer.device.PutMessageBuffer(elem.buffer)
 				peer.device.PutOutboundElement(elem)
@@ -485,6 +506,7 @@ func (peer *Peer) FlushStagedPackets() {
 	for {
 		select {
 		case elemsContainer := <-peer.queue.staged:
+			peer.counters.queueDrops.Add(uint64(len(elemsContainer.elems)))
 			for _, elem := range elemsContainer.elems {
 				peer.device.PutMessageBuffer(elem.buffer)
 				peer.device.PutOutboundElement(elem)
@@ -524,6 +546,7 @@ func (device *Device) RoutineEncryption(id int) {
 	device.log.Verbosef("Routine: encryption worker %d - started", id)
 
 	for elemsContainer := range device.queue.encryption.c {
+		paddingBytes := 0
 		for _, elem := range elemsContainer.elems {
 			// populate header fields
 			header := elem.buffer[:MessageTransportHeaderSize]
@@ -552,6 +575,7 @@ func (device *Device) RoutineEncryption(id int) {
 			// pad content to multiple of 16
 			paddingSize := calculatePaddingSize(len(elem.packet), int(device.tun.mtu.Load()))
 			elem.packet = append(elem.packet, paddingZeros[:paddingSize]...)
+			paddingBytes += paddingSize
 
 			// encrypt content and release to consumer
 
@@ -563,6 +587,9 @@ func (device *Device) RoutineEncryption(id int) {
 				nil,
 			)
 		}
+		if paddingBytes != 0 {
+			elemsContainer.elems[0].peer.counters.paddingBytesSent.Add(uint64(paddingBytes))
+		}
 		elemsContainer.Unlock()
 	}
 }
@@ -598,6 +625,7 @@ func (peer *Peer) RoutineSequentialSender(maxBatchSize int) {
 			continue
 		}
 		dataSent := false
+		junkBytes := 0
 		elemsContainer.Lock()
 		for _, elem := range elemsContainer.elems {
 			if len(elem.packet) != MessageKeepaliveSize {
@@ -609,6 +637,7 @@ func (peer *Peer) RoutineSequentialSender(maxBatchSize int) {
 					continue
 				}
 
+				junkBytes += len(junkedHeader)
 				elem.packet = append(junkedHeader, elem.packet...)
 			}
 			bufs = append(bufs, elem.packet)
@@ -638,6 +667,10 @@ func (peer *Peer) RoutineSequentialSender(maxBatchSize int) {
 			device.log.Errorf("%v - Failed to send data packets: %v", peer, err)
 			continue
 		}
+		peer.counters.txPackets.Add(uint64(len(bufs)))
+		if junkBytes != 0 {
+			peer.counters.junkBytesSent.Add(uint64(junkBytes))
+		}
 
 		peer.keepKeyFreshSending()
 	}
@@ -77,8 +77,11 @@ func (peer *Peer) timersActive() bool {
 }
 
 func expiredRetransmitHandshake(peer *Peer) {
+	peer.counters.handshakeFailures.Add(1)
+	peer.device.observeHandshake(peer, HandshakeTimedOut)
 	if peer.timers.handshakeAttempts.Load() > MaxTimerHandshakes {
 		peer.device.log.Verbosef("%s - Handshake did not complete after %d attempts, giving up", peer, MaxTimerHandshakes+2)
+		peer.counters.handshakeStarted.Store(0)
 
 		if peer.timersActive() {
 			peer.timers.sendKeepalive.Del()
@@ -0,0 +1,42 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import "sync/atomic"
+
+// tunReadCounters count the packets read by RoutineReadFromTUN.
+type tunReadCounters struct {
+	reads   atomic.Uint64
+	packets atomic.Uint64
+	bytes   atomic.Uint64
+}
+
+func (c *tunReadCounters) add(sizes []int) {
+	var n int
+	for _, size := range sizes {
+		n += size
+	}
+	c.reads.Add(1)
+	c.packets.Add(uint64(len(sizes)))
+	c.bytes.Add(uint64(n))
+}
+
+// TUNReadStats counts the packets read from the TUN device. More packets than
+// reads means that reads were batched.
+type TUNReadStats struct {
+	Reads   uint64 // calls to Read that returned at least one packet
+	Packets uint64
+	Bytes   uint64
+}
+
+// TUNReadStats returns the counters of the reads from the TUN device.
+func (device *Device) TUNReadStats() TUNReadStats {
+	return TUNReadStats{
+		Reads:   device.tun.reads.reads.Load(),
+		Packets: device.tun.reads.packets.Load(),
+		Bytes:   device.tun.reads.bytes.Load(),
+	}
+}
@@ -0,0 +1,35 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package device
+
+import (
+	"bytes"
+	"testing"
+	"time"
+
+	"github.com/amnezia-vpn/amneziawg-go/tun/tuntest"
+)
+
+func TestTUNReadStats(t *testing.T) {
+	goroutineLeakCheck(t)
+	pair := genTestPair(t, false)
+	msg := tuntest.Ping(pair[0].ip, pair[1].ip)
+	pair[1].tun.Outbound <- msg
+	select {
+	case msgRecv := <-pair[0].tun.Inbound:
+		if !bytes.Equal(msg, msgRecv) {
+			t.Fatal("packet did not transit correctly")
+		}
+	case <-time.After(6 * time.Second):
+		t.Fatal("packet did not transit")
+	}
+
+	stats := pair[1].dev.TUNReadStats()
+	want := TUNReadStats{Reads: 1, Packets: 1, Bytes: uint64(len(msg))}
+	if stats != want {
+		t.Errorf("TUNReadStats() = %+v, want %+v", stats, want)
+	}
+}
@@ -46,8 +46,9 @@ type NativeTun struct {
 	nameCache string    // name of interface
 	nameErr   error
 
-	readOpMu sync.Mutex                    // readOpMu guards readBuff
+	readOpMu sync.Mutex                    // readOpMu guards readBuff, readConn
 	readBuff [virtioNetHdrLen + 65535]byte // if vnetHdr every read() is prefixed by virtioNetHdr
+	readConn syscall.RawConn               // drains queued packets without blocking, if !vnetHdr
 
 	writeOpMu   sync.Mutex // writeOpMu guards toWrite, tcpGROTable
 	toWrite     []int
@@ -470,11 +471,42 @@ func (tun *NativeTun) Read(bufs [][]byte, sizes []int, offset int) (int, error)
 			return handleVirtioRead(readInto[:n], bufs, sizes, offset)
 		} else {
 			sizes[0] = n
-			return 1, nil
+			return 1 + tun.readQueued(bufs[1:], sizes[1:], offset), nil
 		}
 	}
 }
 
+// readQueued reads the packets already queued on the file descriptor into
+// bufs without blocking, and returns how many it read. Without IFF_VNET_HDR,
+// every read returns a single packet, so this hands a burst on as one batch
+// instead of waking the caller once per packet. Errors are left for the next
+// blocking read to report.
+func (tun *NativeTun) readQueued(bufs [][]byte, sizes []int, offset int) int {
+	if len(bufs) == 0 {
+		return 0
+	}
+	if tun.readConn == nil {
+		sc, err := tun.tunFile.SyscallConn()
+		if err != nil {
+			return 0
+		}
+		tun.readConn = sc
+	}
+	var n int
+	tun.readConn.Read(func(fd uintptr) bool {
+		for n < len(bufs) {
+			size, err := unix.Read(int(fd), bufs[n][offset:])
+			if err != nil || size <= 0 {
+				break
+			}
+			sizes[n] = size
+			n++
+		}
+		return true
+	})
+	return n
+}
+
 func (tun *NativeTun) Events() <-chan Event {
 	return tun.events
 }
@@ -0,0 +1,56 @@
+/* SPDX-License-Identifier: MIT
+ *
+ * Copyright (C) 2017-2025 WireGuard LLC. All Rights Reserved.
+ */
+
+package tun
+
+import (
+	"bytes"
+	"os"
+	"testing"
+
+	"golang.org/x/sys/unix"
+)
+
+func TestNativeTunReadQueued(t *testing.T) {
+	// A sequenced-packet socket keeps message boundaries like a TUN queue.
+	fds, err := unix.Socketpair(unix.AF_UNIX, unix.SOCK_SEQPACKET|unix.SOCK_CLOEXEC, 0)
+	if err != nil {
+		t.Fatal(err)
+	}
+	defer unix.Close(fds[1])
+	if err := unix.SetNonblock(fds[0], true); err != nil {
+		t.Fatal(err)
+	}
+	tun := &NativeTun{tunFile: os.NewFile(uintptr(fds[0]), "seqpacket")}
+	defer tun.tunFile.Close()
+
+	const headroom = 4
+	packets := [][]byte{{1}, {2, 2}, {3, 3, 3}}
+	for _, packet := range packets {
+		if _, err := unix.Write(fds[1], packet); err != nil {
+			t.Fatal(err)
+		}
+	}
+	bufs := make([][]byte, 2)
+	for i := range bufs {
+		bufs[i] = make([]byte, headroom+16)
+	}
+	sizes := make([]int, len(bufs))
+	for read := 0; read < len(packets); {
+		n, err := tun.Read(bufs, sizes, headroom)
+		if err != nil {
+			t.Fatal(err)
+		}
+		if read == 0 && n != len(bufs) {
+			t.Errorf("first read returned %d packets, want %d", n, len(bufs))
+		}
+		for i := 0; i < n; i++ {
+			if got := bufs[i][headroom : headroom+sizes[i]]; !bytes.Equal(got, packets[read+i]) {
+				t.Errorf("packet %d = %v, want %v", read+i, got, packets[read+i])
+			}
+		}
+		read += n
+	}
+}
@@ -83,17 +83,26 @@ type ChannelTUN struct {
 	Inbound  chan []byte // incoming packets, closed on TUN close
 	Outbound chan []byte // outbound packets, blocks forever on TUN close
 
-	closed chan struct{}
-	events chan tun.Event
-	tun    chTun
+	closed    chan struct{}
+	events    chan tun.Event
+	tun       chTun
+	batchSize int
 }
 
 func NewChannelTUN() *ChannelTUN {
+	return NewBatchedChannelTUN(1)
+}
+
+// NewBatchedChannelTUN returns a ChannelTUN whose reads return up to
+// batchSize queued outbound packets at once, like a TUN with virtio-net
+// offload enabled.
+func NewBatchedChannelTUN(batchSize int) *ChannelTUN {
 	c := &ChannelTUN{
-		Inbound:  make(chan []byte),
-		Outbound: make(chan []byte),
-		closed:   make(chan struct{}),
-		events:   make(chan tun.Event, 1),
+		Inbound:   make(chan []byte),
+		Outbound:  make(chan []byte, batchSize-1),
+		closed:    make(chan struct{}),
+		events:    make(chan tun.Event, 1),
+		batchSize: batchSize,
 	}
 	c.tun.c = c
 	c.events <- tun.EventUp
@@ -115,10 +124,18 @@ func (t *chTun) Read(packets [][]byte, sizes []int, offset int) (int, error) {
 	case <-t.c.closed:
 		return 0, os.ErrClosed
 	case msg := <-t.c.Outbound:
-		n := copy(packets[0][offset:], msg)
-		sizes[0] = n
-		return 1, nil
+		sizes[0] = copy(packets[0][offset:], msg)
+	}
+	n := 1
+	for ; n < len(packets) && n < t.c.batchSize; n++ {
+		select {
+		case msg := <-t.c.Outbound:
+			sizes[n] = copy(packets[n][offset:], msg)
+		default:
+			return n, nil
+		}
 	}
+	return n, nil
 }
 
 // Write is called by the wireguard device to deliver a packet for routing.
@@ -141,7 +158,7 @@ func (t *chTun) Write(packets [][]byte, offset int) (int, error) {
 }
 
 func (t *chTun) BatchSize() int {
-	return 1
+	return t.c.batchSize
 }
 
 const DefaultMTU = 1420